@@ -0,0 +1,399 @@
+package org.deduplogger.appender;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderControl;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.deduplogger.logger.EvictionSummaryRenderer;
+import org.deduplogger.metrics.DedupStats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An appender deduplicating the events before forwarding them to the appenders it references, for applications
+ * configured through Log4j2 only. Unlike the DedupFilter it counts what it drops and reports it: when a message
+ * expires, a summary event is forwarded with the number of occurrences and the first and last seen times.
+ *
+ * The messages are counted in a concurrent map without lock. The map holds at most maxEntries messages, the messages
+ * beyond are forwarded without being deduplicated. The summaries are written by a background thread of the appender,
+ * never by the logging threads. A message is counted per logger and level.
+ *
+ * When the configuration stops, the summaries left are written as "Program Exit" summaries. Log4j2 stops the loggers
+ * before the appenders, in no particular order between the appenders, so the appender flushes them when the loggers
+ * it is attached to stop, while the appenders it references are still started.
+ *
+ * While started, the appender statistics are exposed through JMX as org.deduplogger:type=DedupAppender,name=&lt;name&gt;
+ */
+@Plugin(name = "DedupAppender", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public class DedupAppender extends AbstractAppender {
+
+  // marker of the summary events
+  public static final Marker SUMMARY_MARKER = MarkerManager.getMarker("DEDUP_SUMMARY");
+
+  private static final int DEFAULT_THRESHOLD = 1;
+
+  private static final long DEFAULT_WINDOW = 10000L;
+
+  private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  // the count of an entry closed by the background thread, so the logging threads start a new one
+  private static final int CLOSED = Integer.MIN_VALUE / 2;
+
+  private final AppenderRef[] appenderRefs;
+
+  private final Configuration configuration;
+
+  private final int threshold;
+
+  private final long window;
+
+  private final int maxEntries;
+
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+  private final DedupStats stats = new DedupStats();
+
+  // resolved on start
+  private volatile AppenderControl[] appenders = new AppenderControl[0];
+
+  private ScheduledExecutorService summaryThread;
+
+  // held while expiring, by the background thread or the stopping thread
+  private final ReentrantLock expireLock = new ReentrantLock();
+
+  // only used under the expire lock
+  private final EvictionSummaryRenderer renderer = new EvictionSummaryRenderer();
+
+  // stopped with the loggers the appender is attached to, before the appenders it references
+  private final ExitFlush exitFlush = new ExitFlush();
+
+  // the loggers the exit flush is attached to
+  private final List<LoggerConfig> loggerConfigs = new ArrayList<>();
+
+  /*
+   * A message of a logger at a level
+   */
+  private static final class Key {
+
+    private final String loggerName;
+
+    private final Level level;
+
+    private final String msg;
+
+    private Key(LogEvent event) {
+      this.loggerName = event.getLoggerName();
+      this.level = event.getLevel();
+      this.msg = event.getMessage().getFormattedMessage();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return msg.equals(key.msg) && level == key.level && Objects.equals(loggerName, key.loggerName);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * msg.hashCode() + Objects.hashCode(level)) + Objects.hashCode(loggerName);
+    }
+  }
+
+  /*
+   * A filter letting every event through, only there to flush the summaries when the logger stops
+   */
+  private final class ExitFlush extends AbstractFilter {
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+      setStopping();
+      flush(timeout, timeUnit);
+      setStopped();
+      return true;
+    }
+  }
+
+  /*
+   * The occurrences of a message in the current window, and where to write its summary
+   */
+  private static final class Entry {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final String loggerName;
+
+    private final Level level;
+
+    private final Marker marker;
+
+    private final long firstSeen;
+
+    private volatile long lastSeen;
+
+    private Entry(LogEvent event, long now) {
+      this.loggerName = event.getLoggerName();
+      this.level = event.getLevel();
+      this.marker = event.getMarker();
+      this.firstSeen = now;
+      this.lastSeen = now;
+    }
+  }
+
+  /**
+   * @param name          the name of the appender, also used to publish its statistics through JMX
+   * @param filter        the filter of the appender, may be null
+   * @param appenderRefs  the appenders the first occurrences and the summaries are forwarded to
+   * @param configuration the configuration the referenced appenders are taken from
+   * @param threshold     the number of times a message is forwarded per window
+   * @param window        the time after the first occurrence of a message its summary is written, in milliseconds
+   * @param maxEntries    the number of messages counted at once
+   */
+  public DedupAppender(String name, Filter filter, AppenderRef[] appenderRefs, Configuration configuration,
+                       int threshold, long window, int maxEntries) {
+    super(name, filter, null, true);
+    this.appenderRefs = appenderRefs;
+    this.configuration = configuration;
+    this.threshold = threshold;
+    this.window = window;
+    this.maxEntries = maxEntries;
+    stats.setEntryCountGauge(entries::size);
+  }
+
+  /**
+   * @return the live statistics of this appender
+   */
+  public DedupStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public void start() {
+    Map<String, Appender> configured = configuration.getAppenders();
+    List<AppenderControl> controls = new ArrayList<>();
+    for (AppenderRef ref : appenderRefs) {
+      Appender appender = configured.get(ref.getRef());
+      if (appender != null) {
+        controls.add(new AppenderControl(appender, ref.getLevel(), ref.getFilter()));
+      } else {
+        LOGGER.error("No appender named {} was found for the DedupAppender {}", ref.getRef(), getName());
+      }
+    }
+    appenders = controls.toArray(new AppenderControl[0]);
+
+    summaryThread = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "dedup-appender-" + getName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(10L, window / 4);
+    summaryThread.scheduleWithFixedDelay(() -> expire(System.currentTimeMillis()), period, period,
+                                         TimeUnit.MILLISECONDS);
+
+    exitFlush.start();
+    List<LoggerConfig> loggers = new ArrayList<>(configuration.getLoggers().values());
+    if (!loggers.contains(configuration.getRootLogger())) {
+      loggers.add(configuration.getRootLogger());
+    }
+    for (LoggerConfig loggerConfig : loggers) {
+      if (loggerConfig.getAppenders().containsKey(getName())) {
+        loggerConfig.addFilter(exitFlush);
+        loggerConfigs.add(loggerConfig);
+      }
+    }
+    stats.register("DedupAppender", getName());
+    super.start();
+  }
+
+  @Override
+  public boolean stop(long timeout, TimeUnit timeUnit) {
+    setStopping();
+    // nothing left when the loggers stopped first, unless the appender was called since
+    flush(timeout, timeUnit);
+    for (LoggerConfig loggerConfig : loggerConfigs) {
+      loggerConfig.removeFilter(exitFlush);
+    }
+    loggerConfigs.clear();
+    stats.unregister();
+    setStopped();
+    return true;
+  }
+
+  /*
+   * Stop the background thread and write the summaries left with the stopping thread
+   */
+  private void flush(long timeout, TimeUnit timeUnit) {
+    if (summaryThread != null) {
+      summaryThread.shutdown();
+      try {
+        summaryThread.awaitTermination(timeout, timeUnit);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    expire(Long.MAX_VALUE);
+  }
+
+  @Override
+  public void append(LogEvent event) {
+    Key key = new Key(event);
+    long now = event.getTimeMillis();
+    while (true) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        if (entries.size() >= maxEntries) {
+          // full, do not deduplicate rather than grow
+          stats.recordMiss();
+          forward(event);
+          return;
+        }
+        Entry created = new Entry(event, now);
+        entry = entries.putIfAbsent(key, created);
+        if (entry == null) {
+          entry = created;
+          stats.recordMiss();
+        } else {
+          stats.recordHit();
+        }
+      } else {
+        stats.recordHit();
+      }
+      int count = entry.count.incrementAndGet();
+      if (count <= 0) {
+        // closed by the background thread in the meantime
+        entries.remove(key, entry);
+        continue;
+      }
+      entry.lastSeen = now;
+      if (count <= threshold) {
+        forward(event);
+      } else {
+        stats.recordSuppressed();
+      }
+      return;
+    }
+  }
+
+  private void forward(LogEvent event) {
+    for (AppenderControl control : appenders) {
+      control.callAppender(event);
+    }
+  }
+
+  /*
+   * Close the entries whose window ended and forward their summary
+   */
+  private void expire(long now) {
+    expireLock.lock();
+    try {
+      expireLocked(now);
+    } finally {
+      expireLock.unlock();
+    }
+  }
+
+  private void expireLocked(long now) {
+    Iterator<Map.Entry<Key, Entry>> itr = entries.entrySet().iterator();
+    while (itr.hasNext()) {
+      Map.Entry<Key, Entry> e = itr.next();
+      Entry entry = e.getValue();
+      if (now - entry.firstSeen < window) {
+        continue;
+      }
+      int count = entry.count.getAndSet(CLOSED);
+      entries.remove(e.getKey(), entry);
+      stats.recordTimeEviction();
+      if (count > threshold) {
+        forward(summary(e.getKey().msg, entry, count, now == Long.MAX_VALUE ? "Program Exit" : "Time Expiration"));
+      }
+    }
+  }
+
+  private LogEvent summary(String msg, Entry entry, int count, String reason) {
+    String text = renderer.renderCount(reason, msg, count, threshold, entry.firstSeen, entry.lastSeen);
+    Marker marker = SUMMARY_MARKER;
+    if (entry.marker != null) {
+      // not registered with the MarkerManager, so the markers of the summaries do not pile up
+      marker = new MarkerManager.Log4jMarker(SUMMARY_MARKER.getName()).setParents(SUMMARY_MARKER, entry.marker);
+    }
+    return Log4jLogEvent.newBuilder()
+        .setLoggerName(entry.loggerName)
+        .setLevel(entry.level)
+        .setMarker(marker)
+        .setMessage(new SimpleMessage(text))
+        .setTimeMillis(System.currentTimeMillis())
+        .build();
+  }
+
+  @Override
+  public String toString() {
+    return "name = " + getName() + " threshold = " + threshold + " window = " + window + " maxEntries = "
+           + maxEntries;
+  }
+
+  /**
+   * Create a DedupAppender.
+   *
+   * @param name         The name of the appender, also used to publish its statistics through JMX
+   * @param appenderRefs The appenders the first occurrences and the summaries are forwarded to
+   * @param threshold    The number of times the same message is forwarded per window, 1 by default
+   * @param window       The time in milliseconds after which the summary of a message is written, 10000 by default
+   * @param maxEntries   The number of distinct messages counted at once, 10000 by default
+   * @param filter       The filter of the appender
+   * @param config       The configuration
+   * @return A DedupAppender.
+   */
+  @PluginFactory
+  public static DedupAppender createAppender(
+      @PluginAttribute("name") final String name,
+      @PluginElement("AppenderRef") final AppenderRef[] appenderRefs,
+      @PluginAttribute("threshold") final Integer threshold,
+      @PluginAttribute("window") final Long window,
+      @PluginAttribute("maxEntries") final Integer maxEntries,
+      @PluginElement("Filter") final Filter filter,
+      @PluginConfiguration final Configuration config) {
+    if (name == null) {
+      LOGGER.error("No name provided for DedupAppender");
+      return null;
+    }
+    if (appenderRefs == null || appenderRefs.length == 0) {
+      LOGGER.error("No appender references provided to DedupAppender {}", name);
+      return null;
+    }
+    return new DedupAppender(name, filter, appenderRefs, config,
+                             threshold != null && threshold >= 1 ? threshold : DEFAULT_THRESHOLD,
+                             window != null && window > 0 ? window : DEFAULT_WINDOW,
+                             maxEntries != null && maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES);
+  }
+}
@@ -0,0 +1,287 @@
+package org.deduplogger.cluster;
+
+import org.deduplogger.logger.DedupBackend;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cluster-wide deduplication: each node counts its messages of the current window in a count-min sketch and
+ * periodically broadcasts it to its peers, so a message already written the threshold number of times by the whole
+ * cluster is suppressed on every node.
+ *
+ * The log path only touches the sketches. A daemon thread sends one payload per gossip interval, of at most
+ * 32 + 4 * depth * width bytes, and payloads from peers are merged on the thread of the transport. Windows are aligned
+ * on the wall clock, so clocks must be roughly in sync. Until the first gossip round of a window reaches a node, that
+ * node only knows its own counts: keep the gossip interval small compared to the window.
+ *
+ * The sketches only overcount, and more so as they fill up: a message is only suppressed once its estimate minus the
+ * error bound of the sketches reaches the threshold, so a message never written before is not suppressed because it
+ * collides with others. The more distinct messages in a window, the more occurrences are written before suppression.
+ */
+public class ClusterDedup implements DedupBackend {
+
+  private static final int MAGIC = 0x44444753;  // "DDGS"
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 1;
+
+  private static final byte DENSE = 0;
+
+  private static final byte SPARSE = 1;
+
+  public static final int DEFAULT_DEPTH = 4;
+
+  public static final int DEFAULT_WIDTH = 2048;
+
+  private static final class Window {
+    final long number;
+    final CountMinSketch local;
+    // sum of the latest sketch received from every peer for this window
+    final CountMinSketch remote;
+    // the latest sketch of every peer, guarded by the receive lock
+    final Map<Long, int[]> peers = new HashMap<>();
+
+    Window(long number, int depth, int width) {
+      this.number = number;
+      this.local = new CountMinSketch(depth, width);
+      this.remote = new CountMinSketch(depth, width);
+    }
+  }
+
+  private final GossipTransport transport;
+
+  private final long nodeId = new Random().nextLong();
+
+  private final int depth;
+
+  private final int width;
+
+  private final long windowMillis;
+
+  private volatile Window window;
+
+  private final ReentrantLock windowLock = new ReentrantLock();
+
+  private final ReentrantLock receiveLock = new ReentrantLock();
+
+  private final ScheduledExecutorService gossip;
+
+  private final LongAdder bytesSent = new LongAdder();
+
+  private final LongAdder payloadsReceived = new LongAdder();
+
+  public ClusterDedup(GossipTransport transport, long windowMillis, long gossipIntervalMillis) {
+    this(transport, DEFAULT_DEPTH, DEFAULT_WIDTH, windowMillis, gossipIntervalMillis);
+  }
+
+  /**
+   * @param transport            how the sketches are exchanged with the peers
+   * @param depth                the number of rows of the sketches
+   * @param width                the number of counters per row, rounded up to a power of two
+   * @param windowMillis         the duration of a window, the counts are reset every window
+   * @param gossipIntervalMillis how often the local sketch is broadcast, 0 to only send with {@link #gossipNow()}
+   */
+  public ClusterDedup(GossipTransport transport, int depth, int width, long windowMillis, long gossipIntervalMillis) {
+    this.transport = transport;
+    this.depth = depth;
+    this.windowMillis = windowMillis;
+    this.window = new Window(currentWindow(), depth, width);
+    this.width = window.local.getWidth();
+    transport.setReceiver(this::receive);
+    if (gossipIntervalMillis > 0) {
+      gossip = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dedup-gossip");
+        thread.setDaemon(true);
+        return thread;
+      });
+      gossip.scheduleWithFixedDelay(this::gossipNow, gossipIntervalMillis, gossipIntervalMillis,
+                                    TimeUnit.MILLISECONDS);
+    } else {
+      gossip = null;
+    }
+  }
+
+  @Override
+  public int admit(String key, int count, int threshold) {
+    return admit(CountMinSketch.hash(key), count, threshold);
+  }
+
+  @Override
+  public int admit(long hash, int count, int threshold) {
+    Window current = window(currentWindow());
+    long seen = (long) current.local.add(hash, count) - count + current.remote.estimate(hash);
+    // the local and remote sketches share their hash functions, their sum is the sketch of the whole cluster
+    long total = current.local.getTotal() - count + current.remote.getTotal();
+    long certain = Math.max(0, seen - CountMinSketch.errorBound(total, width));
+    return (int) Math.max(0, Math.min(count, threshold - certain));
+  }
+
+  /**
+   * @return the estimated number of occurrences of the message in the current window, on the whole cluster
+   */
+  public long getClusterCount(String key) {
+    Window current = window(currentWindow());
+    long hash = CountMinSketch.hash(key);
+    return (long) current.local.estimate(hash) + current.remote.estimate(hash);
+  }
+
+  /**
+   * Broadcast the sketch of the current window, only called by the gossip thread unless the interval is 0
+   */
+  public void gossipNow() {
+    try {
+      byte[] payload = encode(window(currentWindow()));
+      transport.broadcast(payload);
+      bytesSent.add(payload.length);
+    } catch (Throwable e) {
+      // never let a transport failure kill the gossip thread
+      System.err.println("ClusterDedup failed to send its sketch : " + e);
+    }
+  }
+
+  /*
+   * The window with the given number, rolling the current one forward if needed
+   */
+  private Window window(long number) {
+    Window current = window;
+    if (current.number >= number) {
+      return current;
+    }
+    windowLock.lock();
+    try {
+      if (window.number < number) {
+        window = new Window(number, depth, width);
+      }
+      return window;
+    } finally {
+      windowLock.unlock();
+    }
+  }
+
+  private long currentWindow() {
+    return System.currentTimeMillis() / windowMillis;
+  }
+
+  private byte[] encode(Window current) {
+    CountMinSketch sketch = current.local;
+    int nonZero = 0;
+    for (int i = 0; i < sketch.size(); i++) {
+      if (sketch.getCell(i) != 0) {
+        nonZero++;
+      }
+    }
+    boolean sparse = nonZero * 8 < sketch.size() * 4;
+    ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + (sparse ? 4 + nonZero * 8 : sketch.size() * 4));
+    out.putInt(MAGIC).putInt(VERSION).putLong(nodeId).putLong(current.number).putInt(depth).putInt(width);
+    out.put(sparse ? SPARSE : DENSE);
+    if (sparse) {
+      int position = out.position();
+      out.putInt(0);
+      int written = 0;
+      // cells may be incremented while encoding, write at most the counted number of them
+      for (int i = 0; i < sketch.size() && written < nonZero; i++) {
+        int value = sketch.getCell(i);
+        if (value != 0) {
+          out.putInt(i).putInt(value);
+          written++;
+        }
+      }
+      out.putInt(position, written);
+    } else {
+      for (int i = 0; i < sketch.size(); i++) {
+        out.putInt(sketch.getCell(i));
+      }
+    }
+    return out.array();
+  }
+
+  /*
+   * Merge the sketch of a peer, replacing the previous one it sent for the same window
+   */
+  private void receive(byte[] payload) {
+    try {
+      ByteBuffer in = ByteBuffer.wrap(payload);
+      if (payload.length < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+        return;
+      }
+      long peer = in.getLong();
+      long number = in.getLong();
+      if (peer == nodeId || in.getInt() != depth || in.getInt() != width || number < currentWindow() - 1) {
+        return;
+      }
+      int[] cells = new int[depth * width];
+      if (in.get() == SPARSE) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+          int index = in.getInt();
+          cells[index] = in.getInt();
+        }
+      } else {
+        for (int i = 0; i < cells.length; i++) {
+          cells[i] = in.getInt();
+        }
+      }
+      payloadsReceived.increment();
+
+      Window target = window(number);
+      if (target.number != number) {
+        // a late payload of the previous window
+        return;
+      }
+      receiveLock.lock();
+      try {
+        int[] previous = target.peers.put(peer, cells);
+        for (int i = 0; i < cells.length; i++) {
+          int delta = previous == null ? cells[i] : cells[i] - previous[i];
+          if (delta != 0) {
+            target.remote.addToCell(i, delta);
+          }
+        }
+      } finally {
+        receiveLock.unlock();
+      }
+    } catch (RuntimeException e) {
+      System.err.println("ClusterDedup ignored an invalid sketch : " + e);
+    }
+  }
+
+  /**
+   * @return the number of peers which sent a sketch for the current window
+   */
+  public int getPeerCount() {
+    Window current = window(currentWindow());
+    receiveLock.lock();
+    try {
+      return current.peers.size();
+    } finally {
+      receiveLock.unlock();
+    }
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public long getPayloadsReceived() {
+    return payloadsReceived.sum();
+  }
+
+  /**
+   * Stop gossiping and close the transport
+   */
+  public void close() {
+    if (gossip != null) {
+      gossip.shutdownNow();
+    }
+    transport.close();
+  }
+}
@@ -0,0 +1,128 @@
+package org.deduplogger.cluster;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count-min sketch of message counts: depth rows of width counters, a message increments one counter per row and
+ * its count is estimated by the smallest of them. Estimates never undercount, they overcount when messages collide:
+ * with a probability of 1 - e^-depth by at most {@link #getErrorBound()}, e / width times the total count.
+ *
+ * Thread safe, the counters are updated with atomic adds.
+ */
+public class CountMinSketch {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int depth;
+
+  private final int width;
+
+  private final AtomicIntegerArray counts;
+
+  // the sum of every count added, also the sum of the counters of any row
+  private final LongAdder total = new LongAdder();
+
+  /**
+   * @param depth the number of rows
+   * @param width the number of counters per row, rounded up to a power of two
+   */
+  public CountMinSketch(int depth, int width) {
+    this.depth = depth;
+    this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+    this.counts = new AtomicIntegerArray(depth * this.width);
+  }
+
+  /**
+   * @return the 64-bit hash of the message used to index the sketch
+   */
+  public static long hash(String key) {
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Add occurrences of a message
+   * @param hash  the hash of the message
+   * @param count the number of occurrences
+   * @return the estimated count of the message, including these occurrences
+   */
+  public int add(long hash, int count) {
+    total.add(count);
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, counts.addAndGet(cell(hash, row), count));
+    }
+    return min;
+  }
+
+  /**
+   * @return the estimated count of the message
+   */
+  public int estimate(long hash) {
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, counts.get(cell(hash, row)));
+    }
+    return min;
+  }
+
+  private int cell(long hash, int row) {
+    // double hashing, the two halves of the 64-bit hash give the row functions
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    return row * width + ((h1 + row * h2) & (width - 1));
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * @return the number of counters, depth * width
+   */
+  public int size() {
+    return counts.length();
+  }
+
+  public int getCell(int index) {
+    return counts.get(index);
+  }
+
+  public void addToCell(int index, int delta) {
+    counts.addAndGet(index, delta);
+    if (index < width) {
+      total.add(delta);
+    }
+  }
+
+  /**
+   * @return the sum of the counts of every message
+   */
+  public long getTotal() {
+    return total.sum();
+  }
+
+  /**
+   * @return how much an estimate overcounts at most, with a probability of 1 - e^-depth
+   */
+  public long getErrorBound() {
+    return errorBound(getTotal(), width);
+  }
+
+  /**
+   * @return the error bound of a sketch of the given width holding the given total count
+   */
+  public static long errorBound(long total, int width) {
+    return (long) (Math.E * total / width);
+  }
+}
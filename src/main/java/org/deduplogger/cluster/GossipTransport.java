@@ -0,0 +1,26 @@
+package org.deduplogger.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * How the nodes of a cluster exchange their sketches. Implementations decide who the peers are and how the payloads
+ * travel; {@link LoopbackTransport} keeps everything in the same JVM.
+ */
+public interface GossipTransport {
+
+  /**
+   * Send a payload to every peer. Only called from the gossip thread, never from the log path.
+   * @param payload the payload, not reused by the caller
+   */
+  void broadcast(byte[] payload);
+
+  /**
+   * Register where the payloads sent by the peers are delivered. The receiver is thread safe.
+   */
+  void setReceiver(Consumer<byte[]> receiver);
+
+  /**
+   * Stop sending and receiving
+   */
+  void close();
+}
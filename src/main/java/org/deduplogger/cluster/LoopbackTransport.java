@@ -0,0 +1,59 @@
+package org.deduplogger.cluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * An in-process transport: every transport connected to the same hub receives the payloads broadcast by the others,
+ * synchronously on the sending thread. Meant for tests and for several logger domains of one JVM.
+ */
+public class LoopbackTransport implements GossipTransport {
+
+  /**
+   * The members of an in-process cluster
+   */
+  public static class Hub {
+
+    private final List<LoopbackTransport> members = new CopyOnWriteArrayList<>();
+
+    public LoopbackTransport connect() {
+      LoopbackTransport transport = new LoopbackTransport(this);
+      members.add(transport);
+      return transport;
+    }
+
+    public int size() {
+      return members.size();
+    }
+  }
+
+  private final Hub hub;
+
+  private volatile Consumer<byte[]> receiver;
+
+  private LoopbackTransport(Hub hub) {
+    this.hub = hub;
+  }
+
+  @Override
+  public void broadcast(byte[] payload) {
+    for (LoopbackTransport member : hub.members) {
+      Consumer<byte[]> target = member.receiver;
+      if (member != this && target != null) {
+        target.accept(payload.clone());
+      }
+    }
+  }
+
+  @Override
+  public void setReceiver(Consumer<byte[]> receiver) {
+    this.receiver = receiver;
+  }
+
+  @Override
+  public void close() {
+    hub.members.remove(this);
+    receiver = null;
+  }
+}
@@ -11,9 +11,19 @@ import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginFactory;
 import org.apache.logging.log4j.core.filter.AbstractFilter;
 import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableParameterizedMessage;
+import org.deduplogger.logger.DedupBackend;
+import org.deduplogger.logger.MessageHash;
+import org.deduplogger.metrics.DedupStats;
+import org.deduplogger.policy.SlidingWindowPolicy;
+import org.deduplogger.policy.TokenBucketPolicy;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -21,6 +31,21 @@ import java.util.Map;
  * defined threshold value
  *
  * By default the cache can store 500 messages. The threshold by default is set to 1
+ *
+ * A message is keyed on the 64-bit {@link MessageHash} of its format and parameters, it is never formatted by the
+ * filter: a parameterized message is the same message only with the same format and the same parameters. Messages of
+ * other types are keyed on their formatted message.
+ *
+ * With a policy, e.g. a {@link TokenBucketPolicy}, the policy decides instead of the threshold, without lock. The
+ * statistics then count a written message as a miss and a suppressed one as a hit.
+ *
+ * The filter can also be configured for the whole configuration, next to the Appenders. It is then called by the
+ * producer threads before the event is created, so with AsyncLoggers a duplicate never takes a slot of the ring
+ * buffer. The messages below the level of the logger are not counted. To let many producers check the cache at once,
+ * the cache is split in segments guarded by their own lock, each segment is the LRU cache of the messages hashed to it.
+ *
+ * While started, the filter statistics are exposed through JMX as org.deduplogger:type=DedupFilter,name=&lt;name&gt;,
+ * an unnamed filter being published as DedupFilter-&lt;n&gt; so several unnamed filters do not replace each other.
  */
 @Plugin(name = "DedupFilter", category = Node.CATEGORY, elementType = Filter.ELEMENT_TYPE, printObject = true)
 public class DedupFilter extends AbstractFilter {
@@ -29,11 +54,54 @@ public class DedupFilter extends AbstractFilter {
 
   private static final int DEFAULT_LOG_CACHE_THRESHOLD = 1;
 
+  private static final String DEFAULT_NAME = "DedupFilter";
+
+  // numbers the unnamed filters
+  private static final AtomicInteger UNNAMED = new AtomicInteger();
+
   private final int logCacheSize;
 
   private final int logCacheThreshold;
 
-  private final Map<String, Integer> LruCache;
+  // a segment holds at least this number of messages, so a small cache stays a single LRU
+  private static final int MIN_SEGMENT_SIZE = 64;
+
+  private static final int MAX_SEGMENTS = 16;
+
+  private final Segment[] segments;
+
+  private final String name;
+
+  private final DedupStats stats = new DedupStats();
+
+  private volatile DedupBackend policy;
+
+  /*
+   * The LRU cache of the messages hashed to a segment
+   */
+  private final class Segment extends LinkedHashMap<Long, Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    // guards the segment, a ReentrantLock so virtual threads do not pin their carrier while waiting for it
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Segment(int capacity) {
+      super(capacity, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+      if (size() > capacity) {
+        stats.recordSizeEviction();
+        return true;
+      }
+      return false;
+    }
+  }
 
   /**
    * @param cacheSize  The maximum number of messages can be stored into the cache
@@ -43,53 +111,152 @@ public class DedupFilter extends AbstractFilter {
    */
 
   public DedupFilter(final int cacheSize, final int threshold, final Result onMatch, final Result onMismatch) {
+    this(DEFAULT_NAME, cacheSize, threshold, onMatch, onMismatch);
+  }
+
+  /**
+   * @param name       The dedup domain used to publish the filter statistics through JMX
+   * @param cacheSize  The maximum number of messages can be stored into the cache
+   * @param threshold  Number of times the same message get accepted before being rejected by the filter
+   * @param onMatch    The action to take on a match
+   * @param onMismatch The action to take on a mismatch
+   */
+  public DedupFilter(final String name, final int cacheSize, final int threshold, final Result onMatch,
+                     final Result onMismatch) {
     super(onMatch, onMismatch);
+    this.name = name;
     this.logCacheSize = cacheSize;
     this.logCacheThreshold = threshold;
-    this.LruCache = new LinkedHashMap<String, Integer>(logCacheSize, 0.75f, true) {
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
-        return size() > logCacheSize;
+    int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, cacheSize / MIN_SEGMENT_SIZE)));
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment(cacheSize / count + (i < cacheSize % count ? 1 : 0));
+    }
+    stats.setEntryCountGauge(() -> {
+      long size = 0;
+      for (Segment segment : segments) {
+        size += segment.size();
       }
-    };
+      return size;
+    });
+  }
+
+  /**
+   * @return the live statistics of this filter
+   */
+  public DedupStats getStats() {
+    return stats;
   }
 
-  private Result checkIfDuplicate(String key) {
-    synchronized (LruCache) {
-      if (!LruCache.containsKey(key)) {
-        LruCache.put(key, 0);
-      } else if (LruCache.get(key) < this.logCacheThreshold) {
-        LruCache.put(key, LruCache.get(key) + 1);
+  @Override
+  public void start() {
+    stats.register("DedupFilter", name);
+    super.start();
+  }
+
+  @Override
+  public boolean stop(final long timeout, final TimeUnit timeUnit) {
+    stats.unregister();
+    return super.stop(timeout, timeUnit);
+  }
+
+  /**
+   * Take the decision from a suppression policy instead of the threshold
+   * @param policy the policy, null to go back to the threshold
+   */
+  public void setPolicy(DedupBackend policy) {
+    this.policy = policy;
+  }
+
+  public DedupBackend getPolicy() {
+    return policy;
+  }
+
+  private Result checkIfDuplicate(long hash) {
+    DedupBackend policy = this.policy;
+    if (policy != null) {
+      if (policy.admit(hash, 1, logCacheThreshold) > 0) {
+        stats.recordMiss();
+        return onMatch;
+      }
+      stats.recordHit();
+      stats.recordSuppressed();
+      return onMismatch;
+    }
+    Long key = hash;
+    Segment segment = segments[(int) (hash ^ (hash >>> 32)) & (segments.length - 1)];
+    segment.lock.lock();
+    try {
+      if (!segment.containsKey(key)) {
+        stats.recordMiss();
+        segment.put(key, 0);
+      } else {
+        stats.recordHit();
+        if (segment.get(key) < this.logCacheThreshold) {
+          segment.put(key, segment.get(key) + 1);
+        }
       }
 
-      if (LruCache.get(key) >= this.logCacheThreshold) {
+      if (segment.get(key) >= this.logCacheThreshold) {
+        stats.recordSuppressed();
         return onMismatch;
       }
       return onMatch;
+    } finally {
+      segment.lock.unlock();
     }
   }
 
+  /*
+   * Called before the event is created when configured for the whole configuration: the level of the logger is not
+   * checked yet, and isEnabled calls come without message
+   */
+  private static boolean isCounted(Logger logger, Level level, Object msg) {
+    return msg != null && (logger == null || level.isMoreSpecificThan(logger.getLevel()));
+  }
+
+  /*
+   * The hash of the format and parameters of a parameterized message, of the formatted message otherwise
+   */
+  private static long hash(Message msg) {
+    if (msg instanceof ParameterizedMessage || msg instanceof ReusableParameterizedMessage) {
+      return MessageHash.hash(msg.getFormat(), msg.getParameters(), null);
+    }
+    return MessageHash.hash(msg.getFormattedMessage(), null, null);
+  }
+
   @Override
   public Result filter(LogEvent event) {
-    return checkIfDuplicate(event.getMessage().getFormattedMessage());
+    return checkIfDuplicate(hash(event.getMessage()));
   }
 
   @Override
   public Result filter(Logger logger, Level level, Marker marker,
                        Message msg, Throwable t) {
-    return checkIfDuplicate(msg.getFormattedMessage());
+    if (!isCounted(logger, level, msg)) {
+      return Result.NEUTRAL;
+    }
+    return checkIfDuplicate(hash(msg));
   }
 
   @Override
   public Result filter(Logger logger, Level level, Marker marker,
                        Object msg, Throwable t) {
-    return checkIfDuplicate(msg.toString());
+    if (!isCounted(logger, level, msg)) {
+      return Result.NEUTRAL;
+    }
+    return checkIfDuplicate(MessageHash.hash(msg.toString(), null, null));
   }
 
   @Override
   public Result filter(Logger logger, Level level, Marker marker,
                        String msg, Object... params) {
-    return checkIfDuplicate(msg);
+    if (!isCounted(logger, level, msg)) {
+      return Result.NEUTRAL;
+    }
+    // keyed on the format and the parameters like the events, so "disk {} full" is not one message for every disk,
+    // without formatting a duplicate
+    return checkIfDuplicate(MessageHash.hash(msg, params, null));
   }
 
   @Override
@@ -164,30 +331,72 @@ public class DedupFilter extends AbstractFilter {
 
   @Override
   public String toString() {
-    return "cacheSize = " + this.logCacheSize + " threshold " + this.logCacheThreshold;
+    return "name = " + this.name + " cacheSize = " + this.logCacheSize + " threshold " + this.logCacheThreshold;
   }
 
   /**
    * Create a DedupFilter.
    *
+   * @param name      The name used to publish the filter statistics through JMX, numbered when null or empty
    * @param cacheSize The size for message cache
    * @param threshold The number of time that the same message will be accepted before getting rejected by the filter
    * @param match     Action to perform if the input message is not consider to be duplicated.
    * @param mismatch  Action to perform if the message appears number of time less or equal to threshold value
    * @return A DedupFilter.
    */
+  public static DedupFilter createFilter(final String name, final Integer cacheSize, final Integer threshold,
+                                         final Result match, final Result mismatch) {
+    return createFilter(name, cacheSize, threshold, match, mismatch, null, null, null, null);
+  }
+
+  /**
+   * Create a DedupFilter.
+   *
+   * @param name      The name used to publish the filter statistics through JMX, numbered when null or empty
+   * @param cacheSize The size for message cache
+   * @param threshold The number of time that the same message will be accepted before getting rejected by the filter
+   * @param match     Action to perform if the input message is not consider to be duplicated.
+   * @param mismatch  Action to perform if the message appears number of time less or equal to threshold value
+   * @param policy    "tokenBucket" or "slidingWindow" to rate limit every message instead of the threshold
+   * @param rate      The occurrences per second allowed by the token bucket, or per window by the sliding window
+   * @param burst     The occurrences allowed at once by the token bucket, rate by default
+   * @param window    The duration of the sliding window in milliseconds, 1000 by default
+   * @return A DedupFilter.
+   */
   @PluginFactory
   public static DedupFilter createFilter(
+      @PluginAttribute("name") final String name,
       @PluginAttribute("cacheSize") final Integer cacheSize,
       @PluginAttribute("threshold") final Integer threshold,
       @PluginAttribute("onMatch") final Result match,
-      @PluginAttribute("onMismatch") final Result mismatch) {
+      @PluginAttribute("onMismatch") final Result mismatch,
+      @PluginAttribute("policy") final String policy,
+      @PluginAttribute("rate") final Double rate,
+      @PluginAttribute("burst") final Integer burst,
+      @PluginAttribute("window") final Long window) {
     final int logCacheSize = cacheSize != null && cacheSize > 0 ? cacheSize : DEFAULT_LOG_CACHE_SIZE;
     final int logCacheThreshold = threshold != null && threshold >= 1 ? threshold : DEFAULT_LOG_CACHE_THRESHOLD;
     final Result onMatch = match == null ? Result.ACCEPT : match;
     final Result onMismatch = mismatch == null ? Result.DENY : mismatch;
-    return new DedupFilter(logCacheSize, logCacheThreshold, onMatch, onMismatch);
+    final String filterName = name == null || name.isEmpty() ? DEFAULT_NAME + "-" + UNNAMED.incrementAndGet() : name;
+    DedupFilter filter = new DedupFilter(filterName, logCacheSize, logCacheThreshold, onMatch, onMismatch);
+    if (policy != null && !policy.isEmpty()) {
+      filter.setPolicy(createPolicy(policy, rate, burst, window));
+    }
+    return filter;
   }
-}
-
 
+  private static DedupBackend createPolicy(String policy, Double rate, Integer burst, Long window) {
+    double policyRate = rate != null && rate > 0 ? rate : 1;
+    if ("tokenBucket".equalsIgnoreCase(policy)) {
+      int policyBurst = burst != null && burst >= 1 ? burst : (int) Math.max(1, policyRate);
+      return new TokenBucketPolicy(policyRate, policyBurst);
+    }
+    if ("slidingWindow".equalsIgnoreCase(policy)) {
+      long policyWindow = window != null && window >= SlidingWindowPolicy.DEFAULT_BUCKETS ? window : 1000L;
+      return new SlidingWindowPolicy((int) policyRate, policyWindow);
+    }
+    System.err.println("Unknown DedupFilter policy " + policy + ", using the threshold");
+    return null;
+  }
+}
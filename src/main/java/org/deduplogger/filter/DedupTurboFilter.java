@@ -0,0 +1,137 @@
+package org.deduplogger.filter;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.deduplogger.logger.MessageHash;
+import org.deduplogger.logger.SharedDedupTable;
+import org.deduplogger.metrics.DedupStats;
+import org.slf4j.Marker;
+
+/**
+ * A logback TurboFilter denying a message once it appeared threshold times in the current window. A TurboFilter is
+ * called before logback creates the LoggingEvent and formats the arguments, so a suppressed call costs a hash and a
+ * CAS, and allocates nothing unless an argument is hashed through its toString or a throwable through its stack.
+ *
+ * The message is keyed on its format and arguments, never on the formatted message, with {@link MessageHash}: the
+ * strings are hashed char by char and the numbers on 64 bits, throwables on their stack fingerprint and other
+ * arguments through their toString. The occurrences are counted
+ * in a lock-free {@link SharedDedupTable} allocated in the memory of the process, so two messages with the same 64-bit
+ * hash share a counter. When the table is full the message is written.
+ *
+ * In logback.xml:
+ * <pre>
+ * &lt;turboFilter class="org.deduplogger.filter.DedupTurboFilter"&gt;
+ *   &lt;name&gt;DedupTurboFilter&lt;/name&gt;
+ *   &lt;cacheSize&gt;4096&lt;/cacheSize&gt;
+ *   &lt;threshold&gt;1&lt;/threshold&gt;
+ *   &lt;window&gt;10000&lt;/window&gt;
+ * &lt;/turboFilter&gt;
+ * </pre>
+ *
+ * While started, the filter statistics are exposed through JMX as org.deduplogger:type=DedupTurboFilter,name=&lt;name&gt;
+ */
+public class DedupTurboFilter extends TurboFilter {
+
+  private static final int DEFAULT_CACHE_SIZE = 4096;
+
+  private static final int DEFAULT_THRESHOLD = 1;
+
+  private static final long DEFAULT_WINDOW = 10000L;
+
+  private static final String DEFAULT_NAME = "DedupTurboFilter";
+
+  private int cacheSize = DEFAULT_CACHE_SIZE;
+
+  private int threshold = DEFAULT_THRESHOLD;
+
+  private long window = DEFAULT_WINDOW;
+
+  private final DedupStats stats = new DedupStats();
+
+  // allocated on start
+  private volatile SharedDedupTable table;
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+    SharedDedupTable table = this.table;
+    // called before the level check of the logger, and without format by isXxxEnabled
+    if (table == null || format == null || !level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+      return FilterReply.NEUTRAL;
+    }
+    if (table.admit(MessageHash.hash(format, params, t), 1, threshold) > 0) {
+      stats.recordMiss();
+      return FilterReply.NEUTRAL;
+    }
+    stats.recordHit();
+    stats.recordSuppressed();
+    return FilterReply.DENY;
+  }
+
+  @Override
+  public void start() {
+    if (!SharedDedupTable.isSupported()) {
+      addError("Atomic operations on direct memory are not available in this JVM, " + getName() + " is not started");
+      return;
+    }
+    if (getName() == null) {
+      setName(DEFAULT_NAME);
+    }
+    table = SharedDedupTable.allocate(cacheSize, window);
+    stats.register("DedupTurboFilter", getName());
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    table = null;
+    stats.unregister();
+  }
+
+  /**
+   * @return the live statistics of this filter
+   */
+  public DedupStats getStats() {
+    return stats;
+  }
+
+  /**
+   * @param cacheSize the number of messages counted at once, rounded up to a power of two; 16 bytes each
+   */
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+  }
+
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @param threshold the number of times the same message is written per window
+   */
+  public void setThreshold(int threshold) {
+    this.threshold = threshold >= 1 ? threshold : DEFAULT_THRESHOLD;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @param window the duration of a window in milliseconds, the counters are reset every window
+   */
+  public void setWindow(long window) {
+    this.window = window > 0 ? window : DEFAULT_WINDOW;
+  }
+
+  public long getWindow() {
+    return window;
+  }
+
+  @Override
+  public String toString() {
+    return "name = " + getName() + " cacheSize = " + cacheSize + " threshold = " + threshold + " window = " + window;
+  }
+}
@@ -0,0 +1,113 @@
+package org.deduplogger.jul;
+
+import org.deduplogger.logger.DedupLogger;
+import org.slf4j.event.Level;
+
+import java.util.logging.Filter;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A java.util.logging Filter deduplicating the records with the caches of a {@link DedupLogger}, for the libraries
+ * logging through java.util.logging. Set on a JUL Logger, it drops the duplicates before they reach the handlers, so
+ * before a bridge to SLF4J formats and converts them. It only sees the records logged through that very logger: JUL
+ * does not apply the filter of a logger to the records of its children, wrap the handler in a {@link DedupJulHandler}
+ * to deduplicate a whole hierarchy of loggers.
+ *
+ * A record is keyed on its raw message pattern and its parameters, the message is never formatted. The record counts
+ * in the same domain as the messages of the DedupLogger: same cache, level and marker policies, statistics, and the
+ * summaries of the evicted messages are written through the DedupLogger.
+ *
+ * The records are counted on the thread logging them, under the lock of the DedupLogger, also when it uses a ring
+ * buffer: its consumer thread holds the same lock while it processes a batch of events.
+ */
+public class DedupJulFilter implements Filter {
+
+  private final DedupLogger dedupLogger;
+
+  // the filter set on the logger before this one, checked first
+  private final Filter next;
+
+  /**
+   * @param dedupLogger the logger whose caches count the records
+   */
+  public DedupJulFilter(DedupLogger dedupLogger) {
+    this(dedupLogger, null);
+  }
+
+  /**
+   * @param dedupLogger the logger whose caches count the records
+   * @param next        a filter checked before counting the record, may be null
+   */
+  public DedupJulFilter(DedupLogger dedupLogger, Filter next) {
+    this.dedupLogger = dedupLogger;
+    this.next = next;
+  }
+
+  /**
+   * Deduplicate the records logged through a JUL logger, after the filter it already has. The records of its child
+   * loggers are not filtered, see {@link DedupJulHandler}
+   * @param logger      the JUL logger
+   * @param dedupLogger the logger whose caches count the records
+   * @return the filter set on the logger
+   */
+  public static DedupJulFilter install(Logger logger, DedupLogger dedupLogger) {
+    DedupJulFilter filter = new DedupJulFilter(dedupLogger, logger.getFilter());
+    logger.setFilter(filter);
+    return filter;
+  }
+
+  public DedupLogger getDedupLogger() {
+    return dedupLogger;
+  }
+
+  @Override
+  public boolean isLoggable(LogRecord record) {
+    if (next != null && !next.isLoggable(record)) {
+      return false;
+    }
+    String pattern = record.getMessage();
+    if (pattern == null) {
+      return true;
+    }
+    return !dedupLogger.recordOccurrence(toLevel(record.getLevel()), null, key(pattern, record.getParameters()),
+                                         record.getThrown());
+  }
+
+  /*
+   * The raw pattern followed by the parameters, readable in the summaries without running the MessageFormat
+   */
+  private static String key(String pattern, Object[] params) {
+    if (params == null || params.length == 0) {
+      return pattern;
+    }
+    StringBuilder key = new StringBuilder(pattern).append(" [");
+    for (int i = 0; i < params.length; i++) {
+      if (i > 0) {
+        key.append(", ");
+      }
+      key.append(params[i]);
+    }
+    return key.append(']').toString();
+  }
+
+  /*
+   * Same mapping as the JUL to SLF4J bridge
+   */
+  private static Level toLevel(java.util.logging.Level level) {
+    int value = level.intValue();
+    if (value <= java.util.logging.Level.FINEST.intValue()) {
+      return Level.TRACE;
+    }
+    if (value <= java.util.logging.Level.FINE.intValue()) {
+      return Level.DEBUG;
+    }
+    if (value <= java.util.logging.Level.INFO.intValue()) {
+      return Level.INFO;
+    }
+    if (value <= java.util.logging.Level.WARNING.intValue()) {
+      return Level.WARN;
+    }
+    return Level.ERROR;
+  }
+}
@@ -0,0 +1,55 @@
+package org.deduplogger.jul;
+
+import org.deduplogger.logger.DedupLogger;
+
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A java.util.logging Handler deduplicating the records with a {@link DedupJulFilter} before it publishes them to the
+ * handler it wraps, e.g. the bridge to SLF4J. Added to a JUL Logger, it sees the records of the logger and of all its
+ * children, which the filter of the logger does not. The filter is checked here, as some handlers like the
+ * SLF4JBridgeHandler never check their own.
+ *
+ * The records below the level of this handler, or rejected by a filter set on it, are neither counted nor published.
+ */
+public class DedupJulHandler extends Handler {
+
+  private final Handler target;
+
+  private final DedupJulFilter dedupFilter;
+
+  /**
+   * @param target      the handler publishing the records that are not duplicates
+   * @param dedupLogger the logger whose caches count the records
+   */
+  public DedupJulHandler(Handler target, DedupLogger dedupLogger) {
+    this.target = target;
+    this.dedupFilter = new DedupJulFilter(dedupLogger);
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (isLoggable(record) && dedupFilter.isLoggable(record)) {
+      target.publish(record);
+    }
+  }
+
+  @Override
+  public void flush() {
+    target.flush();
+  }
+
+  @Override
+  public void close() throws SecurityException {
+    target.close();
+  }
+
+  public Handler getTarget() {
+    return target;
+  }
+
+  public DedupJulFilter getDedupFilter() {
+    return dedupFilter;
+  }
+}
@@ -0,0 +1,118 @@
+package org.deduplogger.logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learn the time expiration of every message from its inter-arrival times instead of a single fixed window.
+ *
+ * The gaps between the occurrences of a message are tracked with the estimator TCP uses for round trip times: a
+ * smoothed mean (gain 1/8) and a smoothed mean deviation (gain 1/4). The window of a message holds about
+ * {@link #SPAN} gaps plus four deviations, so a message repeated every 15 seconds is kept long enough to be
+ * deduplicated and a bursty message is not summarized between two bursts. The window stays within the min and max
+ * bounds, and is the default one until a gap was seen.
+ *
+ * The estimators survive the eviction of their message from the cache, they are kept in a bounded LRU map of their
+ * own. Not thread safe, used under the lock of the cache.
+ */
+public class AdaptiveExpiration {
+
+  // the number of mean gaps a window should hold
+  public static final int SPAN = 4;
+
+  private static final int LAST_SEEN = 0;
+
+  private static final int MEAN = 1;
+
+  private static final int DEVIATION = 2;
+
+  private final long minWindow;
+
+  private final long maxWindow;
+
+  private final long defaultWindow;
+
+  private final int maxKeys;
+
+  // message to {last seen, smoothed gap, smoothed deviation}
+  private final LinkedHashMap<String, long[]> estimators;
+
+  /**
+   * @param minWindow     the shortest time expiration in milliseconds
+   * @param maxWindow     the longest time expiration in milliseconds
+   * @param defaultWindow the time expiration of a message seen only once
+   * @param maxKeys       the number of messages whose estimator is kept
+   */
+  public AdaptiveExpiration(long minWindow, long maxWindow, long defaultWindow, int maxKeys) {
+    if (minWindow <= 0 || maxWindow < minWindow) {
+      throw new IllegalArgumentException("invalid time expiration range " + minWindow + " - " + maxWindow);
+    }
+    this.minWindow = minWindow;
+    this.maxWindow = maxWindow;
+    this.defaultWindow = Math.max(minWindow, Math.min(maxWindow, defaultWindow));
+    this.maxKeys = maxKeys;
+    this.estimators = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+        return size() > AdaptiveExpiration.this.maxKeys;
+      }
+    };
+  }
+
+  /**
+   * Record an occurrence of the message
+   * @param msg the message
+   * @param now the time of the occurrence
+   * @return the time expiration of the message, in milliseconds
+   */
+  public long onOccurrence(String msg, long now) {
+    long[] estimator = estimators.get(msg);
+    if (estimator == null) {
+      estimators.put(msg, new long[]{now, -1, 0});
+      return defaultWindow;
+    }
+    long gap = Math.max(0, now - estimator[LAST_SEEN]);
+    estimator[LAST_SEEN] = now;
+    if (gap == 0) {
+      // occurrences of a batch or of the same millisecond say nothing about the rhythm of the message
+      return window(estimator);
+    }
+    if (estimator[MEAN] < 0) {
+      estimator[MEAN] = gap;
+      estimator[DEVIATION] = gap / 2;
+    } else {
+      long error = gap - estimator[MEAN];
+      estimator[MEAN] += error / 8;
+      estimator[DEVIATION] += (Math.abs(error) - estimator[DEVIATION]) / 4;
+    }
+    return window(estimator);
+  }
+
+  private long window(long[] estimator) {
+    if (estimator[MEAN] < 0) {
+      return defaultWindow;
+    }
+    long window = SPAN * estimator[MEAN] + 4 * estimator[DEVIATION];
+    return Math.max(minWindow, Math.min(maxWindow, window));
+  }
+
+  /**
+   * @return the time expiration a new occurrence of the message would get, without recording it
+   */
+  public long getWindow(String msg) {
+    long[] estimator = estimators.get(msg);
+    return estimator == null ? defaultWindow : window(estimator);
+  }
+
+  public long getMinWindow() {
+    return minWindow;
+  }
+
+  public long getMaxWindow() {
+    return maxWindow;
+  }
+
+  public long getDefaultWindow() {
+    return defaultWindow;
+  }
+}
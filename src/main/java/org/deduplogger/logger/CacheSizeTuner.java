@@ -0,0 +1,170 @@
+package org.deduplogger.logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Choose the capacity of a LogCache from the hit ratio curve of its messages instead of a fixed cache size.
+ *
+ * Every access is given the LRU rank it hits at: for a cached message, the number of accesses since its last one,
+ * an upper bound of its rank; for a missed message still in the ghost list of recently evicted hashes, the capacity
+ * plus the number of evictions since it was evicted. The hits are counted in buckets of rank between minSize and
+ * maxSize, which gives the number of hits each extra capacity would add or each lost capacity would cost. Every period
+ * the capacity moves towards the knee of the curve: the smallest size beyond which the remaining hits are less than
+ * {@link #MIN_GAIN} of the accesses. It moves at most by a factor of 2 per period, and the history is halved so the
+ * curve follows the workload.
+ *
+ * Not thread safe, used under the lock of the cache.
+ */
+public class CacheSizeTuner {
+
+  public static final int BUCKETS = 16;
+
+  // the share of the accesses extra capacity must turn into hits to be worth its memory
+  public static final double MIN_GAIN = 0.01;
+
+  private static final int MIN_PERIOD = 1024;
+
+  private final int minSize;
+
+  private final int maxSize;
+
+  private final double bucketWidth;
+
+  private int capacity;
+
+  // hash of the evicted message to the eviction count when it was evicted
+  private final LinkedHashMap<Integer, Long> ghost;
+
+  private final long[] hitsByRank = new long[BUCKETS];
+
+  private long accesses;
+
+  private long evictions;
+
+  // accesses counted in the current curve, halved with it
+  private long periodAccesses;
+
+  private long sinceTuning;
+
+  private long ghostHits;
+
+  /**
+   * @param minSize  the smallest capacity
+   * @param maxSize  the largest capacity, also the size of the ghost list
+   * @param capacity the initial capacity
+   */
+  public CacheSizeTuner(int minSize, int maxSize, int capacity) {
+    if (minSize < 1 || maxSize <= minSize) {
+      throw new IllegalArgumentException("invalid cache size range " + minSize + " - " + maxSize);
+    }
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.capacity = Math.max(minSize, Math.min(maxSize, capacity));
+    this.bucketWidth = (double) (maxSize - minSize) / BUCKETS;
+    this.ghost = new LinkedHashMap<Integer, Long>(16, 0.75f, false) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+        return size() > CacheSizeTuner.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Record an access to a message, before it is recorded in the cache
+   * @param msg      the message
+   * @param metadata its cached metadata, null on a miss
+   */
+  public void access(String msg, LogMetadata metadata) {
+    accesses++;
+    periodAccesses++;
+    sinceTuning++;
+    if (metadata != null) {
+      recordHit(Math.min(accesses - metadata.getLastAccess(), capacity));
+      return;
+    }
+    Long evictedAt = ghost.remove(msg.hashCode());
+    if (evictedAt != null) {
+      ghostHits++;
+      recordHit(capacity + evictions - evictedAt);
+    }
+  }
+
+  /**
+   * Mark the metadata of the message just accessed
+   */
+  public void touch(LogMetadata metadata) {
+    metadata.setLastAccess(accesses);
+  }
+
+  /**
+   * Remember a message evicted because the cache was full
+   */
+  public void evicted(String msg) {
+    evictions++;
+    ghost.put(msg.hashCode(), evictions);
+  }
+
+  private void recordHit(long rank) {
+    if (rank <= minSize || rank > maxSize) {
+      // hits below the smallest size happen anyway, and the ones above the largest never
+      return;
+    }
+    hitsByRank[Math.min(BUCKETS - 1, (int) ((rank - minSize - 1) / bucketWidth))]++;
+  }
+
+  /**
+   * @return true if enough accesses were recorded since the last tuning
+   */
+  public boolean isDue() {
+    return sinceTuning >= Math.max(MIN_PERIOD, 2L * capacity);
+  }
+
+  /**
+   * Move the capacity towards the knee of the hit ratio curve
+   * @param memoryLimit the largest capacity the memory budget allows
+   * @return the new capacity
+   */
+  public int tune(long memoryLimit) {
+    long minHits = (long) (MIN_GAIN * periodAccesses);
+    int target = minSize;
+    long tail = 0;
+    for (int b = BUCKETS - 1; b >= 0; b--) {
+      tail += hitsByRank[b];
+      if (tail > minHits) {
+        target = minSize + (int) Math.ceil((b + 1) * bucketWidth);
+        break;
+      }
+    }
+    target = Math.max(target, capacity / 2);
+    target = (int) Math.min(target, 2L * capacity);
+    target = (int) Math.min(target, Math.min(maxSize, Math.max(minSize, memoryLimit)));
+    capacity = Math.max(minSize, target);
+
+    for (int b = 0; b < BUCKETS; b++) {
+      hitsByRank[b] >>= 1;
+    }
+    periodAccesses >>= 1;
+    sinceTuning = 0;
+    return capacity;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return the number of misses on messages recently evicted because the cache was full
+   */
+  public long getGhostHits() {
+    return ghostHits;
+  }
+}
@@ -0,0 +1,30 @@
+package org.deduplogger.logger;
+
+/**
+ * Where a LogCache or a DedupFilter takes its duplicate decision from, when the occurrences must be counted somewhere
+ * else than in the cache of this logger, e.g. a table shared by every JVM of the host, or decided by another rule
+ * than a fixed count, e.g. a rate limit per message.
+ *
+ * The LogCache still records the occurrences it sees for its eviction summaries, along with how many of them were
+ * written. Implementations must be thread safe.
+ */
+public interface DedupBackend {
+
+  /**
+   * Record occurrences of a message
+   * @param key       the deduplication key of the message
+   * @param count     the number of occurrences to record
+   * @param threshold the number of times a message is written before being deduplicated
+   * @return how many of these occurrences are below the threshold and must be written
+   */
+  int admit(String key, int count, int threshold);
+
+  /**
+   * Same as {@link #admit(String, int, int)} for a message keyed on the 64-bit hash of its format and arguments, see
+   * {@link MessageHash}, so it is never formatted. A message counts apart under its hash and under its String key.
+   * @param hash the hash of the message
+   */
+  default int admit(long hash, int count, int threshold) {
+    return admit(Long.toHexString(hash), count, threshold);
+  }
+}
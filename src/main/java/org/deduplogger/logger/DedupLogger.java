@@ -1,10 +1,29 @@
 package org.deduplogger.logger;
 
-import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.deduplogger.metrics.DedupLatency;
 import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.helpers.FormattingTuple;
 import org.slf4j.helpers.MessageFormatter;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
@@ -15,7 +34,7 @@ import java.util.List;
  * high latency, high deduplication result
  */
 
-public class DedupLogger implements org.slf4j.Logger {
+public class DedupLogger implements org.slf4j.Logger, AutoCloseable {
 
   private static final int DEFAULT_LOG_CACHE_SIZE = 500;
 
@@ -27,14 +46,106 @@ public class DedupLogger implements org.slf4j.Logger {
 
   public static final int timeStampMessageLengthThreshold = 65000;
 
-  private static LogCache lru;
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private final LogCache lru;
+
+  // guards lru. A ReentrantLock rather than a monitor: on Java 21+ a virtual thread blocked on it unmounts instead
+  // of pinning its carrier thread
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // tells apart the statistics of the loggers wrapping the same logger
+  private final int instance = INSTANCES.incrementAndGet();
+
+  // null unless DedupLatency.ENABLED
+  private final DedupLatency latency;
+
+  // the periodic report of the latency, null unless DedupLatency.ENABLED
+  private final ScheduledFuture<?> latencyReport;
+
+  // the governor whose report is written periodically and the scheduled report, set on the first governed message
+  // and replaced with the governor, guarded by the lock
+  private volatile OutputGovernor reportedGovernor;
+
+  private ScheduledFuture<?> governorReport;
+
+  // no governor report is scheduled once the logger is drained
+  private volatile boolean drained = false;
+
+  // drains the logger on exit, removed when the logger is closed
+  private final Thread exitHook = new Thread(this::flushMessageOnExit);
+
+  private volatile StackTraceCache stackTraces = new StackTraceCache();
+
+  private volatile SummaryFormat summaryFormat = SummaryFormat.TEXT;
+
+  // only set for the STRUCTURED format when the SLF4J binding is Log4j2
+  private volatile Log4j2SummaryWriter log4j2Writer;
+
+  // null unless the logger was created with a ring buffer
+  private final DedupPipeline pipeline;
+
+  private static final long PIPELINE_SHUTDOWN_TIMEOUT = 5000;
+
+  private static final long DEFAULT_EXIT_FLUSH_TIMEOUT = 5000;
+
+  // share of the exit flush timeout after which the summaries are rendered without their timestamps
+  private static final double EXIT_DEGRADE_SHARE = 0.8;
+
+  // number of summaries rendered by one fork-join task on exit
+  private static final int EXIT_RENDER_SEGMENT = 64;
+
+  private volatile long exitFlushTimeout = DEFAULT_EXIT_FLUSH_TIMEOUT;
+
+  // replace the variable tokens of the messages to form the cache keys
+  private volatile boolean canonicalize = false;
+
+  // written under the lock, read on the log path under the lock or on the pipeline thread
+  private volatile boolean nearDuplicates = false;
+
+  // where the cache is saved on exit, null if it is not persisted
+  private volatile Path snapshotFile;
+
+  // caches of the levels and markers with their own policy, null for the ones without dedup. Written under the lock
+  private final Map<Level, LogCache> levelCaches = new EnumMap<>(Level.class);
+
+  private final Map<Marker, LogCache> markerCaches = new LinkedHashMap<>();
+
+  // null while every message goes to lru
+  private volatile Partitions partitions;
+
+  // the settings applied to lru and to the cache of every partition, written under the lock
+  private int nearDuplicateDistance = -1;
+
+  private int adaptiveMinSize;
+
+  private int adaptiveMaxSize;
+
+  private long adaptiveMinWindow;
+
+  private long adaptiveMaxWindow;
+
+  private int evictionSamples;
 
   public final org.slf4j.Logger innerLogger;
 
+  // marker of the eviction summaries written in the STRUCTURED format
+  public static final Marker SUMMARY_MARKER = MarkerFactory.getMarker("DEDUP_SUMMARY");
+
   enum Level {
     TRACE, DEBUG, INFO, WARN, ERROR
   }
 
+  /**
+   * How the eviction summaries are written
+   */
+  public enum SummaryFormat {
+    // One free text line with the message and all its timestamps
+    TEXT,
+    // A MapMessage when running on Log4j2, otherwise a short key/value line with the DEDUP_SUMMARY marker
+    STRUCTURED
+  }
+
   public DedupLogger(org.slf4j.Logger innerLogger) {
     this(innerLogger, DEFAULT_LOG_CACHE_SIZE, DEFAULT_LOG_CACHE_THRESHOLD, DEFAULT_TIME_EXPIRATION_THRESHOLD,
          DEFAULT_TIME_EXPIRATION_THRESHOLD);
@@ -42,24 +153,445 @@ public class DedupLogger implements org.slf4j.Logger {
 
   public DedupLogger(org.slf4j.Logger innerLogger, int logCacheSize, int logCacheThreshold,
                      long timeExpireThreshold, long memoryThreshold) {
+    this(innerLogger, logCacheSize, logCacheThreshold, timeExpireThreshold, memoryThreshold, 0, null);
+  }
+
+  /**
+   * Create a DedupLogger which hands every log call to a single consumer thread through a bounded ring buffer. The
+   * caller only pays for claiming a slot and copying its MDC, the formatting, deduplication and writing happen on the
+   * consumer thread. The MDC of the caller is restored around the write, but the thread name seen by the inner logger
+   * is the one of the consumer thread.
+   *
+   * @param ringBufferSize the number of events the ring buffer can hold, 0 to deduplicate on the caller thread
+   * @param backpressure   what a log call does when the ring buffer is full
+   */
+  public DedupLogger(org.slf4j.Logger innerLogger, int logCacheSize, int logCacheThreshold,
+                     long timeExpireThreshold, long memoryThreshold, int ringBufferSize,
+                     DedupPipeline.Backpressure backpressure) {
     this.innerLogger = innerLogger;
     lru = new LogCache(logCacheSize, logCacheThreshold, timeExpireThreshold, memoryThreshold * 1024 * 1024);
+    // expose the cache statistics as org.deduplogger:type=LogCache,name=<logger name>,id=<instance>
+    lru.getStats().register("LogCache", innerLogger.getName(), instance);
+
+    if (DedupLatency.ENABLED) {
+      latency = new DedupLatency();
+      lru.setSummaryRenderHistogram(latency.getSummaryRender());
+      latencyReport = latency.scheduleReport(innerLogger::info);
+    } else {
+      latency = null;
+      latencyReport = null;
+    }
+
+    if (ringBufferSize > 0) {
+      pipeline = new DedupPipeline("dedup-pipeline-" + innerLogger.getName(), ringBufferSize,
+                                   backpressure == null ? DedupPipeline.Backpressure.BLOCK : backpressure,
+                                   this::onPipelineEvent, lock);
+    } else {
+      pipeline = null;
+    }
 
     // TODO : Implement a shutdown hook in the future to gracefully eviction the cache contents when program is interrupted
-    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      flushMessageOnExit();
-    }));
+    Runtime.getRuntime().addShutdownHook(exitHook);
   }
 
   public LogCache getLogCache() {
     return lru;
   }
 
-  private boolean checkIfLogIsDup(String msg) {
-    return lru.checkIfDuplicate(msg);
+  /**
+   * @return the ring buffer in front of this logger, null if it deduplicates on the caller thread
+   */
+  public DedupPipeline getPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * @return the latency histograms of this logger, or null when the JVM runs without
+   * -Ddeduplogger.latency.enabled=true
+   */
+  public DedupLatency getLatency() {
+    return latency;
+  }
+
+  public StackTraceCache getStackTraceCache() {
+    return stackTraces;
+  }
+
+  /**
+   * Replace the cache of rendered stack traces, e.g. to change its bounds or to enable the abbreviated form
+   * @param stackTraceCache the new cache
+   */
+  public void setStackTraceCache(StackTraceCache stackTraceCache) {
+    this.stackTraces = stackTraceCache;
+  }
+
+  /**
+   * Persist the cache across restarts: load the snapshot left by the previous run if there is one, and write a new
+   * one on exit. Messages which were deduplicated before the restart stay deduplicated during the first time window.
+   * Only the cache of the logger is persisted, not the caches of the level and marker policies.
+   * @param file the snapshot file
+   * @return true if a snapshot was loaded
+   */
+  public boolean enableSnapshot(Path file) {
+    boolean loaded = false;
+    lock.lock();
+    try {
+      if (Files.exists(file)) {
+        loaded = lru.loadSnapshot(file);
+        if (!loaded) {
+          System.err.println("Ignoring invalid dedup snapshot " + file);
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to load the dedup snapshot " + file + " : " + e);
+    } finally {
+      lock.unlock();
+    }
+    this.snapshotFile = file;
+    return loaded;
+  }
+
+  public Path getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  public boolean isCanonicalize() {
+    return canonicalize;
+  }
+
+  /**
+   * Deduplicate on the canonical form of the messages, where numbers, UUIDs, hex ids, IPs and timestamps are replaced
+   * by placeholders, see {@link MessageCanonicalizer}. The messages are still written as logged, and the eviction
+   * summaries show the canonical form with a few originals.
+   * @param canonicalize true to enable, false by default
+   */
+  public void setCanonicalize(boolean canonicalize) {
+    this.canonicalize = canonicalize;
+  }
+
+  /**
+   * Deduplicate near duplicates too: a message without exception whose SimHash is within maxDistance bits of the one
+   * of a cached message, e.g. the same error with a different SQL snippet, counts as an occurrence of the cached
+   * message. Combine with {@link #setCanonicalize} to first take the ids and numbers out. Applies to the caches of the
+   * level and marker policies too. With a ring buffer, call it before the logger is used.
+   * @param maxDistance the largest Hamming distance between near duplicates, out of 64 bits; negative to disable
+   */
+  public void setNearDuplicateDistance(int maxDistance) {
+    lock.lock();
+    try {
+      nearDuplicateDistance = maxDistance;
+      for (LogCache cache : caches()) {
+        cache.enableNearDuplicates(maxDistance, NearDuplicateIndex.DEFAULT_BANDS);
+      }
+      nearDuplicates = maxDistance >= 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Let the cache size follow the hit ratio curve of the messages instead of the configured cache size: it grows
+   * while the recently evicted messages come back and shrinks while the least recently used ones are not hit, within
+   * the memory limit. Applies to the caches of the level and marker policies too, each within its own memory limit.
+   * With a ring buffer, call it before the logger is used.
+   * @param minSize the smallest cache size
+   * @param maxSize the largest cache size, 0 to go back to the configured cache size
+   */
+  public void setAdaptiveCacheSize(int minSize, int maxSize) {
+    lock.lock();
+    try {
+      adaptiveMinSize = minSize;
+      adaptiveMaxSize = maxSize;
+      for (LogCache cache : caches()) {
+        cache.enableAdaptiveSize(minSize, maxSize);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Learn the time expiration of every message from the time between its occurrences instead of the configured time
+   * expiration, e.g. a failure repeated every 15 seconds is kept long enough to be deduplicated. The configured time
+   * expiration applies to the messages seen once. Applies to the caches of the level and marker policies too. With a
+   * ring buffer, call it before the logger is used.
+   * @param minWindow the shortest time expiration in milliseconds
+   * @param maxWindow the longest time expiration in milliseconds, 0 to go back to the configured time expiration
+   */
+  public void setAdaptiveExpiration(long minWindow, long maxWindow) {
+    lock.lock();
+    try {
+      adaptiveMinWindow = minWindow;
+      adaptiveMaxWindow = maxWindow;
+      for (LogCache cache : caches()) {
+        cache.enableAdaptiveExpiration(minWindow, maxWindow);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * When the cache is full or reaches its memory limit, evict the least valuable of the given number of least recently
+   * used messages rather than the least recently used one: the level, the occurrences and the memory held by a
+   * message weigh in, so a chronic ERROR survives a flood of unique DEBUG messages. 5 samples are usually enough.
+   * Applies to the caches of the level and marker policies too. With a ring buffer, call it before the logger is used.
+   * @param samples the number of candidates, 0 for plain LRU
+   */
+  public void setPriorityEviction(int samples) {
+    lock.lock();
+    try {
+      evictionSamples = samples;
+      for (LogCache cache : caches()) {
+        cache.setEvictionSamples(samples);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * The cache key of a message, fingerprint is only used when t is not null
+   */
+  private String dedupKey(String msg, Throwable t, long fingerprint) {
+    String key = canonicalize ? MessageCanonicalizer.canonicalize(msg) : msg;
+    return t == null ? key : StackFingerprint.key(key, t, fingerprint);
+  }
+
+  public SummaryFormat getSummaryFormat() {
+    return summaryFormat;
+  }
+
+  /**
+   * Choose how the eviction summaries are written. STRUCTURED summaries carry the reason, count, threshold, first and
+   * last seen and sampled timestamps as separate fields so they can be indexed cheaply.
+   * @param summaryFormat the format, TEXT by default
+   */
+  public void setSummaryFormat(SummaryFormat summaryFormat) {
+    this.log4j2Writer = summaryFormat == SummaryFormat.STRUCTURED ? Log4j2SummaryWriter.forLogger(innerLogger) : null;
+    this.summaryFormat = summaryFormat;
+  }
+
+  /**
+   * Deduplicate the messages of a level with their own cache, threshold, time expiration and memory limit, e.g. a
+   * small threshold for DEBUG, or not at all with {@link DedupPolicy#disabled()}. A marker policy takes precedence
+   * over the level policy. Call it before the logger is used, the summaries of a replaced cache are written right away.
+   * @param level  the level
+   * @param policy the policy, null to go back to the cache of the logger
+   */
+  public void setPolicy(org.slf4j.event.Level level, DedupPolicy policy) {
+    Level key = Level.valueOf(level.name());
+    lock.lock();
+    try {
+      if (levelCaches.containsKey(key)) {
+        flushReplaced(levelCaches.remove(key), key, null);
+      }
+      if (policy != null) {
+        levelCaches.put(key, newCache(policy, innerLogger.getName() + " " + key));
+      }
+      partitions = Partitions.build(lru, levelCaches, markerCaches);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Deduplicate the messages logged with a marker with their own cache, whatever their level, or not at all with
+   * {@link DedupPolicy#disabled()}, e.g. for audit messages. The messages of every level share the cache of the
+   * marker, there is no cache per level and marker. Markers are matched by identity, as returned by
+   * MarkerFactory.getMarker, in a linear scan meant for a handful of markers. Call it before the logger is used, the
+   * summaries of a replaced cache are written right away, like on exit at the highest level of their message when the
+   * priority eviction records it, at INFO otherwise.
+   * @param marker the marker
+   * @param policy the policy, null to go back to the level policies
+   */
+  public void setPolicy(Marker marker, DedupPolicy policy) {
+    lock.lock();
+    try {
+      if (markerCaches.containsKey(marker)) {
+        flushReplaced(markerCaches.remove(marker), null, marker);
+      }
+      if (policy != null) {
+        markerCaches.put(marker, newCache(policy, innerLogger.getName() + " " + marker.getName()));
+      }
+      partitions = Partitions.build(lru, levelCaches, markerCaches);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private LogCache newCache(DedupPolicy policy, String domain) {
+    if (!policy.isDedup()) {
+      return null;
+    }
+    LogCache cache = new LogCache(policy.getCacheSize(), policy.getThreshold(), policy.getTimeExpiration(),
+                                  policy.getMemoryLimit() * 1024 * 1024);
+    // the features enabled for the whole logger
+    if (latency != null) {
+      cache.setSummaryRenderHistogram(latency.getSummaryRender());
+    }
+    if (nearDuplicateDistance >= 0) {
+      cache.enableNearDuplicates(nearDuplicateDistance, NearDuplicateIndex.DEFAULT_BANDS);
+    }
+    if (adaptiveMaxSize > 0) {
+      cache.enableAdaptiveSize(adaptiveMinSize, adaptiveMaxSize);
+    }
+    if (adaptiveMaxWindow > 0) {
+      cache.enableAdaptiveExpiration(adaptiveMinWindow, adaptiveMaxWindow);
+    }
+    cache.setEvictionSamples(evictionSamples);
+    cache.getStats().register("LogCache", domain, instance);
+    return cache;
+  }
+
+  /*
+   * The cache of the logger and the caches of the partitions, called under the lock
+   */
+  private List<LogCache> caches() {
+    List<LogCache> caches = new ArrayList<>();
+    caches.add(lru);
+    for (LogCache cache : levelCaches.values()) {
+      if (cache != null) {
+        caches.add(cache);
+      }
+    }
+    for (LogCache cache : markerCaches.values()) {
+      if (cache != null) {
+        caches.add(cache);
+      }
+    }
+    return caches;
+  }
+
+  /*
+   * Write the summaries of a replaced cache, at the level of its partition, or at the level recorded by each entry
+   * for a marker partition
+   */
+  private void flushReplaced(LogCache cache, Level level, Marker marker) {
+    if (cache == null) {
+      return;
+    }
+    for (EvictionSummary summary : cache.flushAllSummaries()) {
+      emitSummary(summary, summaryLevel(summary, level), marker);
+    }
+    cache.getStats().unregister();
+  }
+
+  /*
+   * The cache of the messages of the level and marker, null if they are not deduplicated
+   */
+  private LogCache cacheFor(Level level, Marker marker) {
+    Partitions partitions = this.partitions;
+    return partitions == null ? lru : partitions.get(level, marker);
   }
 
   private void logMessage(String msg, Level level, Marker marker) {
+    logMessage(msg, level, marker, false);
+  }
+
+  /*
+   * Write the message unless the output governor sheds it, summary tells the governor it is an eviction summary
+   */
+  private void logMessage(String msg, Level level, Marker marker, boolean summary) {
+    if (admit(msg, level, summary)) {
+      write(msg, level, marker);
+    }
+  }
+
+  /*
+   * Write the message with its stack trace. The stack trace is only rendered once the level is known to be enabled
+   * and the output governor admitted the message, which is then charged for the rendered text
+   */
+  private void logMessage(String msg, Throwable t, long fingerprint, Level level, Marker marker) {
+    if (t == null) {
+      logMessage(msg, level, marker);
+      return;
+    }
+    if (admit(msg, level, false)) {
+      write(render(msg, t, fingerprint), level, marker);
+    }
+  }
+
+  private String render(String msg, Throwable t, long fingerprint) {
+    String text = stackTraces.render(msg, t, fingerprint);
+    charge(text.length() - msg.length());
+    return text;
+  }
+
+  /*
+   * Account for the characters of a stack trace, the message itself was admitted by the governor
+   */
+  private static void charge(int size) {
+    OutputGovernor governor = OutputGovernor.getInstalled();
+    if (governor != null) {
+      governor.charge(size);
+    }
+  }
+
+  /*
+   * Whether the message is written: its level is enabled and it fits in the budget of the output governor, if any.
+   * Writes the report of the governor when it is due
+   */
+  private boolean admit(String msg, Level level, boolean summary) {
+    if (!isEnabled(level)) {
+      return false;
+    }
+    OutputGovernor governor = OutputGovernor.getInstalled();
+    if (governor == null) {
+      return true;
+    }
+    if (governor != reportedGovernor && !drained) {
+      scheduleGovernorReport(governor);
+    }
+    String report = governor.pollReport();
+    if (report != null) {
+      innerLogger.warn(report);
+    }
+    return governor.admit(level, msg, summary);
+  }
+
+  /*
+   * Write the report of the governor periodically, so it is written even when this logger stops logging
+   */
+  private void scheduleGovernorReport(OutputGovernor governor) {
+    lock.lock();
+    try {
+      if (governor == reportedGovernor || drained) {
+        return;
+      }
+      if (governorReport != null) {
+        governorReport.cancel(false);
+      }
+      governorReport = governor.scheduleReport(innerLogger::warn);
+      reportedGovernor = governor;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * Stop the periodic report of the governor and write what was shed since the last report
+   */
+  private void flushGovernorReport() {
+    lock.lock();
+    try {
+      if (governorReport != null) {
+        governorReport.cancel(false);
+        governorReport = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    OutputGovernor governor = OutputGovernor.getInstalled();
+    if (governor != null) {
+      String report = governor.flushReport();
+      if (report != null) {
+        innerLogger.warn(report);
+      }
+    }
+  }
+
+  private void write(String msg, Level level, Marker marker) {
     switch (level) {
       case TRACE:
         if (isTraceEnabled()) {
@@ -109,26 +641,476 @@ public class DedupLogger implements org.slf4j.Logger {
     }
   }
 
+  private boolean isEnabled(Level level) {
+    switch (level) {
+      case TRACE:
+        return isTraceEnabled();
+      case DEBUG:
+        return isDebugEnabled();
+      case INFO:
+        return isInfoEnabled();
+      case WARN:
+        return isWarnEnabled();
+      default:
+        return isErrorEnabled();
+    }
+  }
+
   /*
    * Flush all the messages when the program exits or being killed.
    */
   private void flushMessageOnExit() {
-    //TODO : Replace the print with log
-    System.out.println("Flush all the messages");
-    List<String> evictionMessages = lru.flushAllMessages();
-    for (String s : evictionMessages) {
-      System.out.println(s);
+    drain(exitFlushTimeout);
+  }
+
+  /**
+   * Write the summaries of every message left in the caches, through the inner logger. Called on exit with the exit
+   * flush timeout, see {@link #setExitFlushTimeout(long)}.
+   *
+   * The summaries are rendered in parallel on the common fork-join pool. Once most of the time is spent, the remaining
+   * summaries only carry the number of occurrences and the first and last seen times, rendering every timestamp of a
+   * large cache could outlast the grace period of the process. Once the time is over, the summaries left are not
+   * written, a single WARN line reports how many there were. The statistics of the caches are removed from JMX and the
+   * latency report is cancelled. Last, the report of the lines the output governor shed since its last report is
+   * written, and its periodic report is cancelled.
+   *
+   * With the STRUCTURED format and an inner logger backed by Log4j2, the summaries are written as MapMessages one
+   * after the other, neither rendered in parallel nor degraded: a MapMessage only carries the first and last seen
+   * times and at most {@link EvictionSummary#MAX_SAMPLES} timestamps, so its cost does not grow with the number of
+   * occurrences. The time bound still applies.
+   *
+   * The drain on exit runs from a plain JVM shutdown hook, and the JVM runs the hooks concurrently, so with Log4j2 it
+   * may run after the Log4j2 shutdown hook stopped the appenders, and the summaries are lost. Registering through the
+   * Log4j2 ShutdownCallbackRegistry would not order it either, the callbacks run in registration order and the
+   * LoggerContext registers its own when it starts, before any DedupLogger exists. To keep the summaries, disable the
+   * Log4j2 hook with shutdownHook="disable" on the Configuration and call {@link #close()} before
+   * LogManager.shutdown() in the shutdown sequence of the application.
+   * @param timeoutMillis the time to drain the caches, including the shutdown of the ring buffer
+   * @return the number of summaries written
+   */
+  public int drain(long timeoutMillis) {
+    drained = true;
+    int written = drainCaches(timeoutMillis);
+    flushGovernorReport();
+    return written;
+  }
+
+  /**
+   * Drain the logger now rather than on exit, see {@link #drain(long)}, for a logger discarded before the program
+   * exits: the summaries left are written, the statistics of the caches are removed from JMX and the logger is no
+   * longer drained on exit. Nothing is done if the logger was already drained.
+   */
+  @Override
+  public void close() {
+    try {
+      Runtime.getRuntime().removeShutdownHook(exitHook);
+    } catch (IllegalStateException e) {
+      // already exiting, the hook drains the logger
+      return;
+    }
+    if (!drained) {
+      drain(exitFlushTimeout);
+    }
+  }
+
+  private int drainCaches(long timeoutMillis) {
+    long start = System.currentTimeMillis();
+    long deadline = start + timeoutMillis;
+    if (pipeline != null
+        && !pipeline.shutdown(Math.max(1L, Math.min(PIPELINE_SHUTDOWN_TIMEOUT, timeoutMillis / 2)))) {
+      // the consumer still works through the ring. It holds the lock for each batch, so the caches are only read
+      // between two batches, never while it updates them
+      System.err.println("The dedup ring buffer of " + getName() + " was not drained in time, the "
+                         + pipeline.getBacklog() + " events left are not summarized");
+    }
+    List<PendingSummary> pending = new ArrayList<>();
+    lock.lock();
+    try {
+      Path file = snapshotFile;
+      if (file != null) {
+        try {
+          lru.writeSnapshot(file);
+        } catch (IOException e) {
+          System.err.println("Failed to write the dedup snapshot " + file + " : " + e);
+        }
+      }
+      collectOnExit(lru, null, null, pending);
+      for (Map.Entry<Level, LogCache> e : levelCaches.entrySet()) {
+        collectOnExit(e.getValue(), e.getKey(), null, pending);
+      }
+      for (Map.Entry<Marker, LogCache> e : markerCaches.entrySet()) {
+        collectOnExit(e.getValue(), null, e.getKey(), pending);
+      }
+      for (LogCache cache : caches()) {
+        cache.getStats().unregister();
+      }
+      if (latencyReport != null) {
+        latencyReport.cancel(false);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (pending.isEmpty()) {
+      return 0;
+    }
+
+    SummaryFormat format = summaryFormat;
+    Log4j2SummaryWriter writer = log4j2Writer;
+    if (format == SummaryFormat.STRUCTURED && writer != null) {
+      for (int i = 0; i < pending.size(); i++) {
+        if (System.currentTimeMillis() >= deadline) {
+          reportUnwritten(pending, i, timeoutMillis);
+          return i;
+        }
+        PendingSummary summary = pending.get(i);
+        writeStructured(writer, summary.summary, summary.level, summary.marker);
+      }
+      return pending.size();
+    }
+    PendingSummary[] summaries = pending.toArray(new PendingSummary[0]);
+    long degradeAt = start + (long) (timeoutMillis * EXIT_DEGRADE_SHARE);
+    ForkJoinTask<Void> task =
+        ForkJoinPool.commonPool().submit(new RenderTask(summaries, 0, summaries.length, format, degradeAt));
+    try {
+      task.get(Math.max(0L, degradeAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | ExecutionException e) {
+      task.cancel(true);
+    } catch (InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+    }
+
+    EvictionSummaryRenderer renderer = new EvictionSummaryRenderer();
+    for (int i = 0; i < summaries.length; i++) {
+      if (System.currentTimeMillis() >= deadline) {
+        reportUnwritten(pending, i, timeoutMillis);
+        return i;
+      }
+      PendingSummary summary = summaries[i];
+      String text = summary.text;
+      if (text == null) {
+        // not rendered in time
+        text = format == SummaryFormat.STRUCTURED ? renderer.renderKeyValues(summary.summary)
+                                                  : renderer.renderCount(summary.summary);
+      }
+      logMessage(text, summary.level, format == SummaryFormat.STRUCTURED ? summaryMarker(summary.marker)
+                                                                        : summary.marker, true);
+    }
+    return summaries.length;
+  }
+
+  /*
+   * Write a single line for the summaries from the given index on, once the time of the drain is over
+   */
+  private void reportUnwritten(List<PendingSummary> pending, int from, long timeoutMillis) {
+    long occurrences = 0;
+    for (int i = from; i < pending.size(); i++) {
+      occurrences += pending.get(i).summary.getCount();
+    }
+    logMessage("Dedup flush of " + getName() + " timed out after " + timeoutMillis + "ms, "
+               + (pending.size() - from) + " summaries of " + occurrences + " occurrences in total were not written",
+               Level.WARN, null);
+  }
+
+  /*
+   * Take the summaries of a cache, at the level of its partition, or at least INFO like the messages flushed on exit
+   * used to be printed
+   */
+  private static void collectOnExit(LogCache cache, Level level, Marker marker, List<PendingSummary> pending) {
+    if (cache == null) {
+      return;
+    }
+    for (EvictionSummary summary : cache.flushAllSummaries()) {
+      pending.add(new PendingSummary(summary, summaryLevel(summary, level), marker));
     }
   }
 
+  /*
+   * The level of the partition if it has one, else the highest level the message was logged at as recorded by the
+   * priority eviction, and at least INFO
+   */
+  private static Level summaryLevel(EvictionSummary summary, Level level) {
+    if (level != null) {
+      return level;
+    }
+    return Level.values()[Math.max(Level.INFO.ordinal(), summary.getMetadata().getPriority())];
+  }
+
+  public long getExitFlushTimeout() {
+    return exitFlushTimeout;
+  }
+
+  /**
+   * Bound the time spent writing the summaries on exit, so they are written within the grace period of the process
+   * @param timeoutMillis the time to drain the caches, 5000 by default
+   */
+  public void setExitFlushTimeout(long timeoutMillis) {
+    this.exitFlushTimeout = timeoutMillis > 0 ? timeoutMillis : DEFAULT_EXIT_FLUSH_TIMEOUT;
+  }
+
   /*
    * Logic to handle cache eviction when cache size is full or when the message exceeds the time expiration limit
    */
-  private void updateCache(String msg, Level level, Marker marker) {
+  private void updateCache(LogCache cache, String msg, Level level, Marker marker) {
+    if (DedupLatency.ENABLED) {
+      long start = System.nanoTime();
+      List<EvictionSummary> evictionSummary = cache.generateEvictionSummaries(msg, level.ordinal());
+      long generated = System.nanoTime();
+      latency.getCacheUpdate().recordValue(generated - start);
+      if (!evictionSummary.isEmpty()) {
+        for (EvictionSummary summary : evictionSummary) {
+          emitSummary(summary, level, marker);
+        }
+        latency.getSummaryEmit().recordValue(System.nanoTime() - generated);
+      }
+      return;
+    }
     // Print all the evicted message
-    List<String> evictionSummary = lru.generateSummaryMessage(msg);
-    for (String str : evictionSummary) {
-      logMessage(str, level, marker);
+    List<EvictionSummary> evictionSummary = cache.generateEvictionSummaries(msg, level.ordinal());
+    for (EvictionSummary summary : evictionSummary) {
+      emitSummary(summary, level, marker);
+    }
+  }
+
+  /*
+   * Write one eviction summary in the configured format
+   */
+  private void emitSummary(EvictionSummary summary, Level level, Marker marker) {
+    if (summaryFormat == SummaryFormat.TEXT) {
+      logMessage(lru.renderSummary(summary), level, marker, true);
+      return;
+    }
+    Log4j2SummaryWriter writer = log4j2Writer;
+    if (writer != null) {
+      writeStructured(writer, summary, level, marker);
+    } else {
+      logMessage(lru.renderStructuredSummary(summary), level, summaryMarker(marker), true);
+    }
+  }
+
+  /*
+   * Write the summary as a Log4j2 MapMessage, through the same level check and output governor as the other lines.
+   * The governor accounts for the summarized message, the other fields are short
+   */
+  private void writeStructured(Log4j2SummaryWriter writer, EvictionSummary summary, Level level, Marker marker) {
+    if (admit(summary.getMessage(), level, true)) {
+      writer.write(summary, level, marker);
+    }
+  }
+
+  private static Marker summaryMarker(Marker marker) {
+    if (marker == null) {
+      return SUMMARY_MARKER;
+    }
+    Marker combined = MarkerFactory.getDetachedMarker(SUMMARY_MARKER.getName());
+    combined.add(marker);
+    return combined;
+  }
+
+  /*
+   * Log the message unless it is a duplicate, then record it in the cache and print the eviction summaries
+   */
+  private void dedupAndLog(String msg, Level level, Marker marker) {
+    dedupAndLog(msg, null, level, marker);
+  }
+
+  /*
+   * Messages with an exception are deduplicated on the message plus the stack fingerprint, the stack trace is only
+   * rendered when the message is actually written
+   */
+  private void dedupAndLog(String msg, Throwable t, Level level, Marker marker) {
+    DedupPipeline pipeline = this.pipeline;
+    // once the pipeline is shut down, fall back to deduplicating on the caller thread
+    if (pipeline != null && (pipeline.publish(level, marker, msg, null, t) || pipeline.isRunning())) {
+      return;
+    }
+    long fingerprint = t == null ? 0L : StackFingerprint.fingerprint(t);
+    dedupAndLog(dedupKey(msg, t, fingerprint), msg, t, fingerprint, level, marker);
+  }
+
+  /*
+   * Format the message, with the ring buffer the formatting is deferred to the consumer thread
+   */
+  private void formatAndLog(Level level, Marker marker, String format, Object[] args) {
+    DedupPipeline pipeline = this.pipeline;
+    if (pipeline != null && (pipeline.publish(level, marker, format, args, null) || pipeline.isRunning())) {
+      return;
+    }
+    FormattingTuple tuple = MessageFormatter.arrayFormat(format, args);
+    dedupAndLog(tuple.getMessage(), tuple.getThrowable(), level, marker);
+  }
+
+  private void dedupAndLog(String key, String msg, Throwable t, long fingerprint, Level level, Marker marker) {
+    long waitStart = DedupLatency.ENABLED ? System.nanoTime() : 0L;
+    lock.lock();
+    try {
+      if (DedupLatency.ENABLED) {
+        latency.getMonitorWait().recordValue(System.nanoTime() - waitStart);
+      }
+      dedupAndLogUnlocked(key, msg, t, fingerprint, level, marker, true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * The deduplication itself, the caller must hold the lock, directly or as the pipeline consumer thread. With write
+   * false the message is only counted, the caller writes it itself unless it is a duplicate
+   */
+  private boolean dedupAndLogUnlocked(String key, String msg, Throwable t, long fingerprint, Level level,
+                                      Marker marker, boolean write) {
+    LogCache cache = cacheFor(level, marker);
+    if (cache == null) {
+      if (write) {
+        logMessage(msg, t, fingerprint, level, marker);
+      }
+      return false;
+    }
+    if (t == null && nearDuplicates) {
+      key = cache.resolveNearDuplicate(key);
+    }
+    boolean dup = cache.checkIfDuplicate(key);
+    if (dup || !write) {
+      // Do Nothing
+    } else {
+      logMessage(msg, t, fingerprint, level, marker);
+    }
+    updateCache(cache, key, level, marker);
+    // the key only starts with the message when it was neither canonicalized nor mapped to a near duplicate
+    if (!key.startsWith(msg)) {
+      cache.addOriginal(key, msg);
+    }
+    return dup;
+  }
+
+  /*
+   * Consumer side of the ring buffer, called under the lock
+   */
+  private boolean onPipelineEvent(Level level, Marker marker, String format, Object[] args, Throwable t) {
+    String msg = format;
+    Throwable thrown = t;
+    if (args != null) {
+      FormattingTuple tuple = MessageFormatter.arrayFormat(format, args);
+      msg = tuple.getMessage();
+      thrown = tuple.getThrowable();
+    }
+    long fingerprint = thrown == null ? 0L : StackFingerprint.fingerprint(thrown);
+    return dedupAndLogUnlocked(dedupKey(msg, thrown, fingerprint), msg, thrown, fingerprint, level, marker, true);
+  }
+
+  /**
+   * Count an occurrence of a message written through another logging framework, e.g. java.util.logging, in the caches
+   * of this logger, so both share the same policies and statistics. Only the summaries of the evicted messages are
+   * written through this logger, the caller writes the message itself unless it is a duplicate. With a ring buffer
+   * the occurrence is counted on the calling thread, under the lock the consumer thread holds while it processes a
+   * batch, so it may be counted before messages published earlier through this logger.
+   * @param level the level of the message
+   * @param marker the marker of the message, may be null
+   * @param msg   the message, or any text identifying it such as its pattern and parameters
+   * @param t     the throwable of the message, may be null
+   * @return true if the message is a duplicate and must be dropped
+   */
+  public boolean recordOccurrence(org.slf4j.event.Level level, Marker marker, String msg, Throwable t) {
+    long fingerprint = t == null ? 0L : StackFingerprint.fingerprint(t);
+    String key = dedupKey(msg, t, fingerprint);
+    lock.lock();
+    try {
+      return dedupAndLogUnlocked(key, msg, t, fingerprint, Level.valueOf(level.name()), marker, false);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return a new empty batch, to be logged with {@link #log(LogBatch)}
+   */
+  public LogBatch newBatch() {
+    return new LogBatch();
+  }
+
+  /**
+   * Log every message of the collection at the given level, see {@link #log(LogBatch)}
+   */
+  public void logAll(org.slf4j.event.Level level, Collection<String> messages) {
+    log(new LogBatch().addAll(level, messages));
+  }
+
+  /**
+   * Log a batch of messages. The batch is applied under a single lock acquisition with a single clock read: each
+   * distinct message updates the cache once, whatever its number of occurrences, and the eviction summaries are written
+   * after the whole batch. With a ring buffer every occurrence is published as a separate event.
+   * @param batch the messages to log, left untouched
+   */
+  public void log(LogBatch batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    DedupPipeline pipeline = this.pipeline;
+    if (pipeline != null && pipeline.isRunning()) {
+      for (LogBatch.Entry entry : batch.entries()) {
+        for (int i = 0; i < entry.count; i++) {
+          dedupAndLog(entry.msg, entry.throwable, entry.level, entry.marker);
+        }
+      }
+      return;
+    }
+
+    List<EvictionSummary> summaries = new ArrayList<>();
+    // the entry whose update caused each summary, summaries are written at its level and with its marker
+    List<LogBatch.Entry> causes = new ArrayList<>();
+    LogBatch.Entry last = null;
+    // the caches updated by the batch, usually only lru
+    List<LogCache> updated = new ArrayList<>(1);
+    long waitStart = DedupLatency.ENABLED ? System.nanoTime() : 0L;
+    lock.lock();
+    try {
+      if (DedupLatency.ENABLED) {
+        latency.getMonitorWait().recordValue(System.nanoTime() - waitStart);
+      }
+      long now = System.currentTimeMillis();
+      for (LogBatch.Entry entry : batch.entries()) {
+        LogCache cache = cacheFor(entry.level, entry.marker);
+        int toWrite = entry.count;
+        if (cache != null) {
+          String key = canonicalize ? dedupKey(entry.msg, entry.throwable, entry.fingerprint) : entry.key;
+          if (entry.throwable == null && nearDuplicates) {
+            key = cache.resolveNearDuplicate(key);
+          }
+          toWrite = cache.recordBatchOccurrences(key, entry.count, entry.level.ordinal(), now, summaries);
+          if (!key.startsWith(entry.msg)) {
+            cache.addOriginal(key, entry.msg);
+          }
+          if (!updated.contains(cache)) {
+            updated.add(cache);
+          }
+        }
+        // the stack trace is rendered once, for the first occurrence admitted
+        String text = entry.throwable == null ? entry.msg : null;
+        for (int i = 0; i < toWrite; i++) {
+          if (!admit(entry.msg, entry.level, false)) {
+            continue;
+          }
+          if (text == null) {
+            text = render(entry.msg, entry.throwable, entry.fingerprint);
+          } else if (entry.throwable != null) {
+            charge(text.length() - entry.msg.length());
+          }
+          write(text, entry.level, entry.marker);
+        }
+        while (causes.size() < summaries.size()) {
+          causes.add(entry);
+        }
+        last = entry;
+      }
+      for (LogCache cache : updated) {
+        cache.expireEntries(now, summaries);
+      }
+      for (int i = 0; i < summaries.size(); i++) {
+        LogBatch.Entry cause = i < causes.size() ? causes.get(i) : last;
+        emitSummary(summaries.get(i), cause.level, cause.marker);
+      }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -158,15 +1140,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.TRACE, null);
-      }
-      updateCache(msg, Level.TRACE, null);
-    }
+    dedupAndLog(msg, Level.TRACE, null);
   }
 
   /**
@@ -180,7 +1154,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(String format, Object arg) {
-    trace(MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.TRACE, null, format, new Object[]{arg});
   }
 
   /**
@@ -195,7 +1169,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(String format, Object arg1, Object arg2) {
-    trace(MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.TRACE, null, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -213,7 +1187,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(String format, Object... arguments) {
-    trace(MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.TRACE, null, format, arguments);
   }
 
   /**
@@ -224,7 +1198,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(String msg, Throwable t) {
-    trace(String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.TRACE, null);
   }
 
   /**
@@ -246,15 +1220,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(Marker marker, String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.TRACE, marker);
-      }
-      updateCache(msg, Level.TRACE, marker);
-    }
+    dedupAndLog(msg, Level.TRACE, marker);
   }
 
   /**
@@ -267,7 +1233,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(Marker marker, String format, Object arg) {
-    trace(marker, MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.TRACE, marker, format, new Object[]{arg});
   }
 
   /**
@@ -281,7 +1247,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(Marker marker, String format, Object arg1, Object arg2) {
-    trace(marker, MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.TRACE, marker, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -294,7 +1260,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(Marker marker, String format, Object... argArray) {
-    trace(marker, MessageFormatter.arrayFormat(format, argArray).getMessage());
+    formatAndLog(Level.TRACE, marker, format, argArray);
   }
 
   /**
@@ -307,7 +1273,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @since 1.4
    */
   public void trace(Marker marker, String msg, Throwable t) {
-    trace(marker, String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.TRACE, marker);
   }
 
   /**
@@ -325,15 +1291,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg the message string to be logged
    */
   public void debug(String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.DEBUG, null);
-      }
-      updateCache(msg, Level.DEBUG, null);
-    }
+    dedupAndLog(msg, Level.DEBUG, null);
   }
 
   /**
@@ -346,7 +1304,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void debug(String format, Object arg) {
-    debug(MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.DEBUG, null, format, new Object[]{arg});
   }
 
   /**
@@ -360,7 +1318,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void debug(String format, Object arg1, Object arg2) {
-    debug(MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.DEBUG, null, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -377,7 +1335,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void debug(String format, Object... arguments) {
-    debug(MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.DEBUG, null, format, arguments);
   }
 
   /**
@@ -387,7 +1345,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t   the exception (throwable) to log
    */
   public void debug(String msg, Throwable t) {
-    debug(String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.DEBUG, null);
   }
 
   /**
@@ -407,15 +1365,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg    the message string to be logged
    */
   public void debug(Marker marker, String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.DEBUG, marker);
-      }
-      updateCache(msg, Level.DEBUG, marker);
-    }
+    dedupAndLog(msg, Level.DEBUG, marker);
   }
 
   /**
@@ -427,7 +1377,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void debug(Marker marker, String format, Object arg) {
-    debug(marker, MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.DEBUG, marker, format, new Object[]{arg});
   }
 
   /**
@@ -440,7 +1390,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void debug(Marker marker, String format, Object arg1, Object arg2) {
-    debug(marker, MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.DEBUG, marker, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -452,7 +1402,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void debug(Marker marker, String format, Object... arguments) {
-    debug(marker, MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.DEBUG, marker, format, arguments);
   }
 
   /**
@@ -464,7 +1414,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t      the exception (throwable) to log
    */
   public void debug(Marker marker, String msg, Throwable t) {
-    debug(marker, String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.DEBUG, marker);
   }
 
   /**
@@ -482,15 +1432,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg the message string to be logged
    */
   public void info(String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.INFO, null);
-      }
-      updateCache(msg, Level.INFO, null);
-    }
+    dedupAndLog(msg, Level.INFO, null);
   }
 
   /**
@@ -503,7 +1445,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void info(String format, Object arg) {
-    info(MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.INFO, null, format, new Object[]{arg});
   }
 
   /**
@@ -517,7 +1459,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void info(String format, Object arg1, Object arg2) {
-    info(MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.INFO, null, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -533,7 +1475,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void info(String format, Object... arguments) {
-    info(MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.INFO, null, format, arguments);
   }
 
   /**
@@ -543,7 +1485,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t   the exception (throwable) to log
    */
   public void info(String msg, Throwable t) {
-    info(String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.INFO, null);
   }
 
   /**
@@ -563,15 +1505,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg    the message string to be logged
    */
   public void info(Marker marker, String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.INFO, marker);
-      }
-      updateCache(msg, Level.INFO, marker);
-    }
+    dedupAndLog(msg, Level.INFO, marker);
   }
 
   /**
@@ -583,7 +1517,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void info(Marker marker, String format, Object arg) {
-    info(marker, MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.INFO, marker, format, new Object[]{arg});
   }
 
   /**
@@ -596,7 +1530,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void info(Marker marker, String format, Object arg1, Object arg2) {
-    info(marker, MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.INFO, marker, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -608,7 +1542,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void info(Marker marker, String format, Object... arguments) {
-    info(marker, MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.INFO, marker, format, arguments);
   }
 
   /**
@@ -620,7 +1554,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t      the exception (throwable) to log
    */
   public void info(Marker marker, String msg, Throwable t) {
-    info(marker, String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.INFO, marker);
   }
 
   /**
@@ -638,15 +1572,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg the message string to be logged
    */
   public void warn(String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.WARN, null);
-      }
-      updateCache(msg, Level.WARN, null);
-    }
+    dedupAndLog(msg, Level.WARN, null);
   }
 
   /**
@@ -659,7 +1585,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void warn(String format, Object arg) {
-    warn(MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.WARN, null, format, new Object[]{arg});
   }
 
   /**
@@ -675,7 +1601,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void warn(String format, Object... arguments) {
-    warn(MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.WARN, null, format, arguments);
   }
 
   /**
@@ -689,7 +1615,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void warn(String format, Object arg1, Object arg2) {
-    warn(MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.WARN, null, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -699,7 +1625,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t   the exception (throwable) to log
    */
   public void warn(String msg, Throwable t) {
-    warn(String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.WARN, null);
   }
 
   /**
@@ -719,15 +1645,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg    the message string to be logged
    */
   public void warn(Marker marker, String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.WARN, marker);
-      }
-      updateCache(msg, Level.WARN, marker);
-    }
+    dedupAndLog(msg, Level.WARN, marker);
   }
 
   /**
@@ -739,7 +1657,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void warn(Marker marker, String format, Object arg) {
-    warn(marker, MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.WARN, marker, format, new Object[]{arg});
   }
 
   /**
@@ -752,7 +1670,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void warn(Marker marker, String format, Object arg1, Object arg2) {
-    warn(marker, MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.WARN, marker, format, new Object[]{arg1, arg2});
 //    warn(marker, String.format(format, arg1, arg2));
   }
 
@@ -765,7 +1683,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void warn(Marker marker, String format, Object... arguments) {
-    warn(marker, MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.WARN, marker, format, arguments);
   }
 
   /**
@@ -777,7 +1695,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t      the exception (throwable) to log
    */
   public void warn(Marker marker, String msg, Throwable t) {
-    warn(marker, String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.WARN, marker);
   }
 
   /**
@@ -795,15 +1713,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg the message string to be logged
    */
   public void error(String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.ERROR, null);
-      }
-      updateCache(msg, Level.ERROR, null);
-    }
+    dedupAndLog(msg, Level.ERROR, null);
   }
 
   /**
@@ -816,7 +1726,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void error(String format, Object arg) {
-    error(MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.ERROR, null, format, new Object[]{arg});
   }
 
   /**
@@ -830,7 +1740,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void error(String format, Object arg1, Object arg2) {
-    error(MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.ERROR, null, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -847,7 +1757,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void error(String format, Object... arguments) {
-    error(MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.ERROR, null, format, arguments);
   }
 
   /**
@@ -857,7 +1767,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t   the exception (throwable) to log
    */
   public void error(String msg, Throwable t) {
-    error(String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.ERROR, null);
   }
 
   /**
@@ -877,15 +1787,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param msg    the message string to be logged
    */
   public void error(Marker marker, String msg) {
-    synchronized (this) {
-      boolean dup = checkIfLogIsDup(msg);
-      if (dup) {
-        // Do Nothing
-      } else {
-        logMessage(msg, Level.ERROR, marker);
-      }
-      updateCache(msg, Level.ERROR, marker);
-    }
+    dedupAndLog(msg, Level.ERROR, marker);
   }
 
   /**
@@ -897,7 +1799,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg    the argument
    */
   public void error(Marker marker, String format, Object arg) {
-    error(marker, MessageFormatter.format(format, arg).getMessage());
+    formatAndLog(Level.ERROR, marker, format, new Object[]{arg});
   }
 
   /**
@@ -910,7 +1812,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arg2   the second argument
    */
   public void error(Marker marker, String format, Object arg1, Object arg2) {
-    error(marker, MessageFormatter.format(format, arg1, arg2).getMessage());
+    formatAndLog(Level.ERROR, marker, format, new Object[]{arg1, arg2});
   }
 
   /**
@@ -922,7 +1824,7 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param arguments a list of 3 or more arguments
    */
   public void error(Marker marker, String format, Object... arguments) {
-    error(marker, MessageFormatter.arrayFormat(format, arguments).getMessage());
+    formatAndLog(Level.ERROR, marker, format, arguments);
   }
 
   /**
@@ -934,7 +1836,127 @@ public class DedupLogger implements org.slf4j.Logger {
    * @param t      the exception (throwable) to log
    */
   public void error(Marker marker, String msg, Throwable t) {
-    error(marker, String.format("%s\n%s", msg, ExceptionUtils.getStackTrace(t)));
+    dedupAndLog(msg, t, Level.ERROR, marker);
+  }
+
+
+  /*
+   * A summary taken from a cache on exit, with where to write it
+   */
+  private static final class PendingSummary {
+
+    private final EvictionSummary summary;
+
+    private final Level level;
+
+    private final Marker marker;
+
+    // set by the render task
+    private volatile String text;
+
+    private PendingSummary(EvictionSummary summary, Level level, Marker marker) {
+      this.summary = summary;
+      this.level = level;
+      this.marker = marker;
+    }
+  }
+
+  /*
+   * Render a segment of the summaries on exit, splitting it until each task has EXIT_RENDER_SEGMENT summaries
+   */
+  private static final class RenderTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PendingSummary[] summaries;
+
+    private final int from;
+
+    private final int to;
+
+    private final SummaryFormat format;
+
+    private final long degradeAt;
+
+    private RenderTask(PendingSummary[] summaries, int from, int to, SummaryFormat format, long degradeAt) {
+      this.summaries = summaries;
+      this.from = from;
+      this.to = to;
+      this.format = format;
+      this.degradeAt = degradeAt;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > EXIT_RENDER_SEGMENT) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new RenderTask(summaries, from, middle, format, degradeAt),
+                  new RenderTask(summaries, middle, to, format, degradeAt));
+        return;
+      }
+      // the renderers are not thread safe, one per task
+      EvictionSummaryRenderer renderer = new EvictionSummaryRenderer();
+      for (int i = from; i < to; i++) {
+        EvictionSummary summary = summaries[i].summary;
+        if (format == SummaryFormat.STRUCTURED) {
+          summaries[i].text = renderer.renderKeyValues(summary);
+        } else if (System.currentTimeMillis() < degradeAt) {
+          summaries[i].text = renderer.render(summary);
+        } else {
+          summaries[i].text = renderer.renderCount(summary);
+        }
+      }
+    }
   }
 
+  /*
+   * The caches of the level and marker partitions, in an array indexed by marker slot and level. Slot 0 is for the
+   * messages without a marker with a policy, the levels of a marker slot all hold the cache of the marker. Immutable,
+   * replaced when a policy changes
+   */
+  private static final class Partitions {
+
+    private static final int LEVELS = Level.values().length;
+
+    private final Marker[] markers;
+
+    private final LogCache[] caches;
+
+    private Partitions(Marker[] markers, LogCache[] caches) {
+      this.markers = markers;
+      this.caches = caches;
+    }
+
+    static Partitions build(LogCache lru, Map<Level, LogCache> levelCaches, Map<Marker, LogCache> markerCaches) {
+      if (levelCaches.isEmpty() && markerCaches.isEmpty()) {
+        return null;
+      }
+      Partitions partitions = new Partitions(markerCaches.keySet().toArray(new Marker[0]),
+                                             new LogCache[LEVELS * (markerCaches.size() + 1)]);
+      for (Level level : Level.values()) {
+        partitions.caches[level.ordinal()] = levelCaches.containsKey(level) ? levelCaches.get(level) : lru;
+      }
+      int slot = 1;
+      for (LogCache cache : markerCaches.values()) {
+        for (int i = 0; i < LEVELS; i++) {
+          partitions.caches[slot * LEVELS + i] = cache;
+        }
+        slot++;
+      }
+      return partitions;
+    }
+
+    LogCache get(Level level, Marker marker) {
+      int slot = 0;
+      if (marker != null) {
+        for (int i = 0; i < markers.length; i++) {
+          if (markers[i] == marker) {
+            slot = i + 1;
+            break;
+          }
+        }
+      }
+      return caches[slot * LEVELS + level.ordinal()];
+    }
+  }
 }
@@ -0,0 +1,335 @@
+package org.deduplogger.logger;
+
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multi-producer / single-consumer ring buffer in front of a DedupLogger.
+ *
+ * Log calls only claim a pre-allocated slot with a single CAS and copy the level, marker, format, arguments, throwable
+ * and a copy of the MDC of the caller into it. A single consumer thread formats the events, runs the deduplication
+ * against the LogCache and writes to the inner logger, with the MDC of the caller restored around each event. The
+ * thread of the written events is the consumer thread, not the caller. The consumer holds the lock of the logger while it processes a batch of events. The lock
+ * is uncontended while the pipeline runs, but configuration changes, and the log calls falling back to the caller
+ * thread once the pipeline is shut down, never touch the cache at the same time as the consumer.
+ *
+ * Arguments are formatted on the consumer thread, so they must not be mutated after the log call.
+ */
+public class DedupPipeline {
+
+  /**
+   * What a log call does when the ring buffer is full
+   */
+  public enum Backpressure {
+    // wait until the consumer frees a slot
+    BLOCK,
+    // drop the event being logged
+    DROP_NEWEST,
+    // drop the event if the same message, format and arguments, was recently suppressed as a duplicate by the
+    // consumer, wait otherwise
+    DROP_DUPLICATES_FIRST
+  }
+
+  /**
+   * The consumer side of the pipeline
+   */
+  interface EventHandler {
+    /**
+     * @return true if the event was a duplicate
+     */
+    boolean onEvent(DedupLogger.Level level, Marker marker, String format, Object[] args, Throwable t);
+  }
+
+  private static final int HOT_MESSAGES_SIZE = 1024;
+
+  private static final long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private static final class Slot {
+    // Vyukov sequence: equal to the position when free, position + 1 when published
+    final AtomicLong sequence;
+    DedupLogger.Level level;
+    Marker marker;
+    String format;
+    Object[] args;
+    Throwable throwable;
+    // the MDC of the caller, null if it was empty
+    Map<String, String> context;
+
+    Slot(long initialSequence) {
+      this.sequence = new AtomicLong(initialSequence);
+    }
+
+    void clear() {
+      marker = null;
+      format = null;
+      args = null;
+      throwable = null;
+      context = null;
+    }
+  }
+
+  private final Slot[] slots;
+
+  private final int mask;
+
+  private final Backpressure backpressure;
+
+  private final EventHandler handler;
+
+  // guards the cache of the logger, held while processing events
+  private final Lock lock;
+
+  private final AtomicLong tail = new AtomicLong();
+
+  // only written under the lock, by the consumer thread or after shutdown by a producer
+  private volatile long head = 0;
+
+  // MessageHash of the messages recently suppressed by the consumer, read by producers for DROP_DUPLICATES_FIRST
+  private final AtomicLongArray hotMessages = new AtomicLongArray(HOT_MESSAGES_SIZE);
+
+  private final LongAdder dropped = new LongAdder();
+
+  private final LongAdder droppedDuplicates = new LongAdder();
+
+  private final Thread consumer;
+
+  private volatile boolean consumerParked = false;
+
+  private volatile boolean running = true;
+
+  /**
+   * @param name         the name of the consumer thread
+   * @param capacity     the number of slots, rounded up to a power of two
+   * @param backpressure what to do when the buffer is full
+   * @param handler      the consumer of the events
+   * @param lock         the lock guarding what the handler touches
+   */
+  DedupPipeline(String name, int capacity, Backpressure backpressure, EventHandler handler, Lock lock) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.slots = new Slot[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot(i);
+    }
+    this.mask = size - 1;
+    this.backpressure = backpressure;
+    this.handler = handler;
+    this.lock = lock;
+    this.consumer = new Thread(this::consume, name);
+    this.consumer.setDaemon(true);
+    this.consumer.start();
+  }
+
+  /**
+   * Publish an event. Never blocks unless the buffer is full and the backpressure policy says so.
+   * @return false if the event was dropped
+   */
+  boolean publish(DedupLogger.Level level, Marker marker, String format, Object[] args, Throwable t) {
+    if (!running) {
+      return false;
+    }
+    Slot slot;
+    long pos;
+    while (true) {
+      pos = tail.get();
+      slot = slots[(int) (pos & mask)];
+      long diff = slot.sequence.get() - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+      } else if (diff < 0) {
+        // full
+        boolean hot = backpressure == Backpressure.DROP_DUPLICATES_FIRST && isHot(format, args, t);
+        if (!running || backpressure == Backpressure.DROP_NEWEST || hot) {
+          dropped.increment();
+          if (hot) {
+            droppedDuplicates.increment();
+          }
+          return false;
+        }
+        wakeConsumer();
+        LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+      }
+    }
+    slot.level = level;
+    slot.marker = marker;
+    slot.format = format;
+    slot.args = args;
+    slot.throwable = t;
+    slot.context = context();
+    // a volatile write, ordered with the read of running below against the shutdown of the consumer
+    slot.sequence.set(pos + 1);
+    if (!running) {
+      // shut down after the slot was claimed, the consumer may have done its last drain already
+      drainAvailable();
+      return true;
+    }
+    if (consumerParked) {
+      wakeConsumer();
+    }
+    return true;
+  }
+
+  private void wakeConsumer() {
+    LockSupport.unpark(consumer);
+  }
+
+  private void consume() {
+    while (true) {
+      if (!drainAvailable()) {
+        if (!running) {
+          return;
+        }
+        consumerParked = true;
+        // re-check after announcing we park, a producer may have published in between
+        if (!isEventAvailable() && running) {
+          LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+        }
+        consumerParked = false;
+      }
+    }
+  }
+
+  private boolean isEventAvailable() {
+    return slots[(int) (head & mask)].sequence.get() == head + 1;
+  }
+
+  /*
+   * Process every published event, return false if there was none
+   */
+  private boolean drainAvailable() {
+    lock.lock();
+    try {
+      return drainAvailableLocked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean drainAvailableLocked() {
+    boolean any = false;
+    // the MDC of the thread draining, a producer once the pipeline is shut down
+    Map<String, String> own = null;
+    while (isEventAvailable()) {
+      Slot slot = slots[(int) (head & mask)];
+      if (!any) {
+        own = MDC.getCopyOfContextMap();
+      }
+      try {
+        setContext(slot.context);
+        boolean dup = handler.onEvent(slot.level, slot.marker, slot.format, slot.args, slot.throwable);
+        if (backpressure == Backpressure.DROP_DUPLICATES_FIRST) {
+          markMessage(slot.format, slot.args, slot.throwable, dup);
+        }
+      } catch (Throwable e) {
+        // never let a bad event kill the consumer
+        System.err.println("DedupPipeline failed to process an event : " + e);
+      }
+      slot.clear();
+      slot.sequence.lazySet(head + slots.length);
+      head++;
+      any = true;
+    }
+    if (any) {
+      setContext(own);
+    }
+    return any;
+  }
+
+  private static Map<String, String> context() {
+    Map<String, String> context = MDC.getCopyOfContextMap();
+    return context == null || context.isEmpty() ? null : context;
+  }
+
+  private static void setContext(Map<String, String> context) {
+    if (context == null) {
+      MDC.clear();
+    } else {
+      MDC.setContextMap(context);
+    }
+  }
+
+  private void markMessage(String format, Object[] args, Throwable t, boolean dup) {
+    if (format == null) {
+      return;
+    }
+    // never 0, so an empty bucket never matches
+    long hash = MessageHash.hash(format, args, t);
+    int idx = (int) hash & (HOT_MESSAGES_SIZE - 1);
+    if (dup) {
+      if (hotMessages.get(idx) != hash) {
+        hotMessages.lazySet(idx, hash);
+      }
+    } else if (hotMessages.get(idx) == hash) {
+      hotMessages.lazySet(idx, 0);
+    }
+  }
+
+  private boolean isHot(String format, Object[] args, Throwable t) {
+    if (format == null) {
+      return false;
+    }
+    long hash = MessageHash.hash(format, args, t);
+    return hotMessages.get((int) hash & (HOT_MESSAGES_SIZE - 1)) == hash;
+  }
+
+  /**
+   * Stop accepting events, process the ones already published and wait for the consumer thread to finish
+   * @param timeoutMillis the maximum time to wait
+   * @return true if every published event was processed
+   */
+  public boolean shutdown(long timeoutMillis) {
+    running = false;
+    wakeConsumer();
+    try {
+      consumer.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (consumer.isAlive()) {
+      return false;
+    }
+    // the events published while the consumer was exiting
+    drainAvailable();
+    return true;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /**
+   * @return the approximate number of events waiting for the consumer
+   */
+  public long getBacklog() {
+    return Math.max(0, tail.get() - head);
+  }
+
+  /**
+   * @return the number of events dropped because the buffer was full
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * @return the number of dropped events whose message was recently suppressed as a duplicate
+   */
+  public long getDroppedDuplicates() {
+    return droppedDuplicates.sum();
+  }
+}
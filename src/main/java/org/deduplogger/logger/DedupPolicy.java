@@ -0,0 +1,77 @@
+package org.deduplogger.logger;
+
+/**
+ * How the messages of a level or of a marker are deduplicated by a DedupLogger: with their own cache, threshold, time
+ * expiration and memory limit, or not at all, e.g. for audit messages.
+ *
+ * See {@link DedupLogger#setPolicy(org.slf4j.event.Level, DedupPolicy)}.
+ */
+public final class DedupPolicy {
+
+  private static final DedupPolicy DISABLED = new DedupPolicy(false, 0, 0, 0L, 0L);
+
+  private final boolean dedup;
+
+  private final int cacheSize;
+
+  private final int threshold;
+
+  private final long timeExpiration;
+
+  private final long memoryLimit;
+
+  /**
+   * @param cacheSize      the size of the cache of the partition
+   * @param threshold      the number of times a message is logged before being deduplicated
+   * @param timeExpiration the time expiration in milliseconds
+   * @param memoryLimit    the memory the cache of the partition can use, in MB
+   */
+  public DedupPolicy(int cacheSize, int threshold, long timeExpiration, long memoryLimit) {
+    this(true, cacheSize, threshold, timeExpiration, memoryLimit);
+    if (cacheSize < 1 || threshold < 1 || timeExpiration <= 0 || memoryLimit <= 0) {
+      throw new IllegalArgumentException("invalid dedup policy " + this);
+    }
+  }
+
+  private DedupPolicy(boolean dedup, int cacheSize, int threshold, long timeExpiration, long memoryLimit) {
+    this.dedup = dedup;
+    this.cacheSize = cacheSize;
+    this.threshold = threshold;
+    this.timeExpiration = timeExpiration;
+    this.memoryLimit = memoryLimit;
+  }
+
+  /**
+   * @return the policy writing every message, without cache
+   */
+  public static DedupPolicy disabled() {
+    return DISABLED;
+  }
+
+  public boolean isDedup() {
+    return dedup;
+  }
+
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  public long getTimeExpiration() {
+    return timeExpiration;
+  }
+
+  public long getMemoryLimit() {
+    return memoryLimit;
+  }
+
+  @Override
+  public String toString() {
+    return dedup ? "cacheSize = " + cacheSize + " threshold = " + threshold + " timeExpiration = " + timeExpiration
+                   + " memoryLimit = " + memoryLimit
+                 : "no dedup";
+  }
+}
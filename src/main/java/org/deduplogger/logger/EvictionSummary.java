@@ -0,0 +1,92 @@
+package org.deduplogger.logger;
+
+import java.util.List;
+
+/**
+ * The summary of a message evicted from the LogCache: why it was evicted, how many times it appeared and when.
+ *
+ * A summary only references the metadata of the evicted entry, nothing is rendered until it is written.
+ */
+public class EvictionSummary {
+
+  // number of timestamps reported as samples in the structured form
+  public static final int MAX_SAMPLES = 10;
+
+  private final String reason;
+
+  private final String message;
+
+  private final LogMetadata metadata;
+
+  private final int threshold;
+
+  public EvictionSummary(String reason, String message, LogMetadata metadata, int threshold) {
+    this.reason = reason;
+    this.message = message;
+    this.metadata = metadata;
+    this.threshold = threshold;
+  }
+
+  /**
+   * @return the eviction reason, e.g. "Cache Full"
+   */
+  public String getReason() {
+    return reason;
+  }
+
+  /**
+   * @return the evicted message
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  public LogMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * @return the number of times the message was logged before being deduplicated
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @return the number of times the message appeared
+   */
+  public int getCount() {
+    return metadata.getTimeStamp().size();
+  }
+
+  public long getFirstSeen() {
+    return metadata.getTimeStamp().get(0);
+  }
+
+  public long getLastSeen() {
+    List<Long> timestamps = metadata.getTimeStamp();
+    return timestamps.get(timestamps.size() - 1);
+  }
+
+  /**
+   * @return a few original messages when the message is a canonical form, null otherwise
+   */
+  public List<String> getOriginals() {
+    return metadata.getOriginals();
+  }
+
+  /**
+   * @return up to {@link #MAX_SAMPLES} timestamps evenly spread between the first and the last one
+   */
+  public long[] getSampledTimestamps() {
+    List<Long> timestamps = metadata.getTimeStamp();
+    int count = timestamps.size();
+    int samples = Math.min(count, MAX_SAMPLES);
+    long[] result = new long[samples];
+    for (int i = 0; i < samples; i++) {
+      int idx = samples == 1 ? 0 : (int) ((long) i * (count - 1) / (samples - 1));
+      result[i] = timestamps.get(idx);
+    }
+    return result;
+  }
+}
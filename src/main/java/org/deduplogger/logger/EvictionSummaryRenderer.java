@@ -0,0 +1,223 @@
+package org.deduplogger.logger;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Render eviction summaries into a reusable StringBuilder.
+ *
+ * Timestamps are written as "yyyy-MM-dd HH:mm:ss,SSS". The "yyyy-MM-dd HH:mm:ss," prefix is formatted once per
+ * distinct second and only the millis are appended for every timestamp, so summarizing a hot message costs a few
+ * appends per timestamp instead of a formatter per timestamp.
+ *
+ * Not thread safe, each LogCache owns its renderer and only uses it under its lock.
+ */
+public class EvictionSummaryRenderer {
+
+  private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  public static final int MAX_STRUCTURED_MESSAGE_LENGTH = 256;
+
+  // do not keep a huge builder around after summarizing a very hot message
+  private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+  private final ZoneId zone;
+
+  private StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+
+  private long cachedSecond = Long.MIN_VALUE;
+
+  private String cachedPrefix;
+
+  public EvictionSummaryRenderer() {
+    this(ZoneId.systemDefault());
+  }
+
+  public EvictionSummaryRenderer(ZoneId zone) {
+    this.zone = zone;
+  }
+
+  /**
+   * Render the summary of an evicted message
+   * @param header    the eviction reason
+   * @param msg       the evicted message
+   * @param metadata  the timestamps of the message
+   * @param threshold the number of times the message was logged before being deduplicated
+   * @return the summary
+   */
+  public String render(String header, String msg, LogMetadata metadata, int threshold) {
+    if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+      builder = new StringBuilder(INITIAL_CAPACITY);
+    }
+    builder.setLength(0);
+    renderTo(builder, header, msg, metadata, threshold);
+    return builder.toString();
+  }
+
+  /**
+   * Render the full text form of the summary
+   */
+  public String render(EvictionSummary summary) {
+    return render(summary.getReason(), summary.getMessage(), summary.getMetadata(), summary.getThreshold());
+  }
+
+  /**
+   * Render the summary with the first and last timestamps only, whatever the number of occurrences:
+   * "Program Exit : Evict Msg '...'. This Message Appears 42 Time(s) In Total and Was Logged 1 Time(s) Before
+   * First Seen at ..., Last Seen at ..."
+   */
+  public String renderCount(EvictionSummary summary) {
+    return renderCount(summary.getReason(), summary.getMessage(), summary.getCount(), summary.getThreshold(),
+                       summary.getFirstSeen(), summary.getLastSeen());
+  }
+
+  /**
+   * Render the summary of a message only counted, without its timestamps, in the same form as
+   * {@link #renderCount(EvictionSummary)}
+   */
+  public String renderCount(String reason, String msg, int count, int threshold, long firstSeen, long lastSeen) {
+    if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+      builder = new StringBuilder(INITIAL_CAPACITY);
+    }
+    builder.setLength(0);
+    builder.append(reason).append(" : Evict Msg '").append(msg)
+        .append("'. This Message Appears ").append(count).append(" Time(s) In Total and Was Logged ")
+        .append(threshold).append(" Time(s) Before\nFirst Seen at ");
+    appendTimestamp(builder, firstSeen);
+    builder.append(", Last Seen at ");
+    appendTimestamp(builder, lastSeen);
+    return builder.toString();
+  }
+
+  /**
+   * Render the short key/value form of the summary, used for structured summaries:
+   * reason="Cache Full" count=42 threshold=1 firstSeen=... lastSeen=... samples=[...] msg="..." [originals=[...]]
+   *
+   * The messages are cut after {@link #MAX_STRUCTURED_MESSAGE_LENGTH} characters.
+   */
+  public String renderKeyValues(EvictionSummary summary) {
+    if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+      builder = new StringBuilder(INITIAL_CAPACITY);
+    }
+    builder.setLength(0);
+    builder.append("Dedup summary reason=\"").append(summary.getReason())
+        .append("\" count=").append(summary.getCount())
+        .append(" threshold=").append(summary.getThreshold()).append(" firstSeen=\"");
+    appendTimestamp(builder, summary.getFirstSeen());
+    builder.append("\" lastSeen=\"");
+    appendTimestamp(builder, summary.getLastSeen());
+    builder.append("\" samples=[");
+    long[] samples = summary.getSampledTimestamps();
+    for (int i = 0; i < samples.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(samples[i]);
+    }
+    builder.append("] msg=\"");
+    appendEscaped(builder, summary.getMessage());
+    builder.append('"');
+    List<String> originals = summary.getOriginals();
+    if (originals != null && !originals.isEmpty()) {
+      builder.append(" originals=[");
+      for (int i = 0; i < originals.size(); i++) {
+        if (i > 0) {
+          builder.append(',');
+        }
+        builder.append('"');
+        appendEscaped(builder, originals.get(i));
+        builder.append('"');
+      }
+      builder.append(']');
+    }
+    return builder.toString();
+  }
+
+  /*
+   * Append the message escaped for a quoted value, cut after MAX_STRUCTURED_MESSAGE_LENGTH characters
+   */
+  private static void appendEscaped(StringBuilder out, String msg) {
+    for (int i = 0; i < msg.length() && i < MAX_STRUCTURED_MESSAGE_LENGTH; i++) {
+      char c = msg.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+    if (msg.length() > MAX_STRUCTURED_MESSAGE_LENGTH) {
+      out.append("...");
+    }
+  }
+
+  /**
+   * Same as {@link #render} but append the summary to the given builder
+   */
+  public void renderTo(StringBuilder out, String header, String msg, LogMetadata metadata, int threshold) {
+    List<Long> timestamps = metadata.getTimeStamp();
+    int count = timestamps.size();
+    out.append(header).append(" : Evict Msg '").append(msg).append("'. This Message Appears ").append(count)
+        .append(" Time(s) In Total and Was Logged ").append(threshold).append(" Time(s) Before\nTimestamps at ");
+
+    //The limit for messages bing logged into log4j can no longer large than 65446
+    //characters. Here the timeStampMessageLengthThreshold is set to 65000 characters.
+    //"..." will be printed when there are too many timestamps
+    int start = out.length();
+    for (int i = 0; i < count - 1; i++) {
+      if (out.length() - start + msg.length() <= LogCache.timeStampMessageLengthThreshold) {
+        appendTimestamp(out, timestamps.get(i));
+        out.append(", ");
+      } else {
+        out.append("...");
+        break;
+      }
+    }
+    appendTimestamp(out, timestamps.get(count - 1));
+
+    List<String> originals = metadata.getOriginals();
+    if (originals != null && !originals.isEmpty()) {
+      out.append("\nOriginal Messages ");
+      for (int i = 0; i < originals.size(); i++) {
+        if (i > 0) {
+          out.append(", ");
+        }
+        out.append('\'').append(originals.get(i)).append('\'');
+      }
+    }
+  }
+
+  /**
+   * Append the timestamp as "yyyy-MM-dd HH:mm:ss,SSS"
+   */
+  public void appendTimestamp(StringBuilder out, long timestamp) {
+    long second = Math.floorDiv(timestamp, 1000L);
+    int millis = (int) Math.floorMod(timestamp, 1000L);
+    if (second != cachedSecond) {
+      cachedPrefix = SECOND_FORMAT.format(Instant.ofEpochSecond(second).atZone(zone)) + ',';
+      cachedSecond = second;
+    }
+    out.append(cachedPrefix);
+    if (millis < 100) {
+      out.append('0');
+    }
+    if (millis < 10) {
+      out.append('0');
+    }
+    out.append(millis);
+  }
+
+  /**
+   * Format a single timestamp as "yyyy-MM-dd HH:mm:ss,SSS" in the default time zone. Thread safe.
+   */
+  public static String formatTimestamp(long timestamp) {
+    StringBuilder out = new StringBuilder(23);
+    new EvictionSummaryRenderer().appendTimestamp(out, timestamp);
+    return out.toString();
+  }
+}
@@ -0,0 +1,81 @@
+package org.deduplogger.logger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.message.MapMessage;
+
+/**
+ * Write eviction summaries as Log4j2 MapMessages, so every field of the summary reaches the layouts and appenders
+ * as a separate key.
+ *
+ * Only used when the SLF4J binding of the inner logger is log4j-slf4j-impl.
+ */
+final class Log4j2SummaryWriter {
+
+  private static final String LOG4J_SLF4J_LOGGER = "org.apache.logging.slf4j.Log4jLogger";
+
+  private static final Marker SUMMARY_MARKER = MarkerManager.getMarker(DedupLogger.SUMMARY_MARKER.getName());
+
+  private final Logger logger;
+
+  private Log4j2SummaryWriter(Logger logger) {
+    this.logger = logger;
+  }
+
+  /**
+   * @param innerLogger the logger wrapped by the DedupLogger
+   * @return a writer to the Log4j2 logger behind innerLogger, or null if innerLogger is not backed by Log4j2
+   */
+  static Log4j2SummaryWriter forLogger(org.slf4j.Logger innerLogger) {
+    if (!LOG4J_SLF4J_LOGGER.equals(innerLogger.getClass().getName())) {
+      return null;
+    }
+    return new Log4j2SummaryWriter(LogManager.getLogger(innerLogger.getName()));
+  }
+
+  void write(EvictionSummary summary, DedupLogger.Level level, org.slf4j.Marker marker) {
+    org.apache.logging.log4j.Level log4jLevel = toLog4jLevel(level);
+    if (!logger.isEnabled(log4jLevel, SUMMARY_MARKER)) {
+      return;
+    }
+    MapMessage message = new MapMessage();
+    message.put("reason", summary.getReason());
+    message.put("count", Integer.toString(summary.getCount()));
+    message.put("threshold", Integer.toString(summary.getThreshold()));
+    message.put("firstSeen", Long.toString(summary.getFirstSeen()));
+    message.put("lastSeen", Long.toString(summary.getLastSeen()));
+    StringBuilder samples = new StringBuilder();
+    for (long timestamp : summary.getSampledTimestamps()) {
+      if (samples.length() > 0) {
+        samples.append(',');
+      }
+      samples.append(timestamp);
+    }
+    message.put("samples", samples.toString());
+    message.put("msg", summary.getMessage());
+    if (summary.getOriginals() != null) {
+      message.put("originals", String.join("\n", summary.getOriginals()));
+    }
+    if (marker != null) {
+      message.put("marker", marker.getName());
+    }
+    logger.log(log4jLevel, SUMMARY_MARKER, message);
+  }
+
+  private static org.apache.logging.log4j.Level toLog4jLevel(DedupLogger.Level level) {
+    switch (level) {
+      case TRACE:
+        return org.apache.logging.log4j.Level.TRACE;
+      case DEBUG:
+        return org.apache.logging.log4j.Level.DEBUG;
+      case INFO:
+        return org.apache.logging.log4j.Level.INFO;
+      case WARN:
+        return org.apache.logging.log4j.Level.WARN;
+      default:
+        return org.apache.logging.log4j.Level.ERROR;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package org.deduplogger.logger;
+
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A batch of log messages, aggregated locally before being applied to a DedupLogger with
+ * {@link DedupLogger#log(LogBatch)} in a single locked pass with a single clock read.
+ *
+ * Identical messages (same level, marker and text, or same stack fingerprint for exceptions) are stored once with
+ * their number of occurrences. Formatting happens when a message is added, on the caller thread. A batch is not
+ * thread safe.
+ */
+public class LogBatch {
+
+  static final class Entry {
+    final DedupLogger.Level level;
+    final Marker marker;
+    // the deduplication key
+    final String key;
+    final String msg;
+    final Throwable throwable;
+    final long fingerprint;
+    int count;
+
+    Entry(DedupLogger.Level level, Marker marker, String key, String msg, Throwable throwable, long fingerprint) {
+      this.level = level;
+      this.marker = marker;
+      this.key = key;
+      this.msg = msg;
+      this.throwable = throwable;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry other = (Entry) o;
+      return level == other.level && Objects.equals(marker, other.marker) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() * 31 + level.hashCode();
+    }
+  }
+
+  private final Map<Entry, Entry> entries = new LinkedHashMap<>();
+
+  private int size = 0;
+
+  /**
+   * Add a message
+   * @param level the level of the message
+   * @param msg   the message
+   * @return this batch
+   */
+  public LogBatch add(Level level, String msg) {
+    return add(level, null, msg, null);
+  }
+
+  /**
+   * Add a message with a marker
+   */
+  public LogBatch add(Level level, Marker marker, String msg) {
+    return add(level, marker, msg, null);
+  }
+
+  /**
+   * Add a message with an exception
+   */
+  public LogBatch add(Level level, String msg, Throwable t) {
+    return add(level, null, msg, t);
+  }
+
+  /**
+   * Add a message formatted with the SLF4J syntax. A trailing Throwable argument is logged as the exception.
+   */
+  public LogBatch add(Level level, String format, Object... arguments) {
+    FormattingTuple tuple = MessageFormatter.arrayFormat(format, arguments);
+    return add(level, null, tuple.getMessage(), tuple.getThrowable());
+  }
+
+  /**
+   * Add every message of the collection at the same level
+   */
+  public LogBatch addAll(Level level, Collection<String> messages) {
+    for (String msg : messages) {
+      add(level, null, msg, null);
+    }
+    return this;
+  }
+
+  /**
+   * Add a message with a marker and an exception, both may be null
+   */
+  public LogBatch add(Level level, Marker marker, String msg, Throwable t) {
+    DedupLogger.Level dedupLevel = DedupLogger.Level.valueOf(level.name());
+    Entry entry;
+    if (t == null) {
+      entry = new Entry(dedupLevel, marker, msg, msg, null, 0L);
+    } else {
+      long fingerprint = StackFingerprint.fingerprint(t);
+      entry = new Entry(dedupLevel, marker, StackFingerprint.key(msg, t, fingerprint), msg, t, fingerprint);
+    }
+    Entry existing = entries.putIfAbsent(entry, entry);
+    (existing == null ? entry : existing).count++;
+    size++;
+    return this;
+  }
+
+  /**
+   * @return the number of messages added
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of distinct messages
+   */
+  public int distinctSize() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  Collection<Entry> entries() {
+    return entries.values();
+  }
+}
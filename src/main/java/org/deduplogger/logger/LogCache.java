@@ -1,11 +1,19 @@
 package org.deduplogger.logger;
 
+import org.deduplogger.metrics.DedupLatency;
+import org.deduplogger.metrics.DedupStats;
+import org.deduplogger.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class LogCache {
@@ -26,14 +34,60 @@ public class LogCache {
 
   public static final int timeStampMessageLengthThreshold = 65000;
 
-  private long LRU_MEMORY_USAGE = 0;
+  // volatile so the JMX gauges can read them without taking the cache lock
+  private volatile long LRU_MEMORY_USAGE = 0;
+
+  private volatile long PQ_MEMORY_USAGE = 0;
+
+  private final DedupStats stats = new DedupStats();
+
+  private final EvictionSummaryRenderer summaryRenderer = new EvictionSummaryRenderer();
+
+  // a ReentrantLock rather than a monitor, so a virtual thread flushing the cache does not pin its carrier
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  // only set when DedupLatency.ENABLED
+  private LatencyHistogram summaryRenderHistogram;
+
+  // takes the duplicate decision instead of the local counts when set, e.g. a table shared by the JVMs of the host
+  private volatile DedupBackend backend;
+
+  // null unless the time expiration is adaptive, then the deadlines of the entries are kept in a heap. A deadline is
+  // not removed when it changes or when its entry is evicted, it is skipped when it no longer matches the entry
+  private AdaptiveExpiration adaptiveExpiration;
+
+  private PriorityQueue<Deadline> deadlines;
+
+  // null unless the cache size is adaptive
+  private CacheSizeTuner sizeTuner;
+
+  // null unless near duplicates are deduplicated, holds the keys of the cache
+  private NearDuplicateIndex nearDuplicates;
+
+  // entries of the previous run, consulted on a miss during the first time window after loading
+  private LogCacheSnapshot snapshot;
+
+  private long snapshotDeadline;
+
+  // when the restored entries expire, at their last occurrence in the previous run plus the time expiration
+  private final PriorityQueue<Deadline> restoredDeadlines = new PriorityQueue<>();
 
-  private long PQ_MEMORY_USAGE = 0;
+  // entry restored from the snapshot by the last lookup, inserted by the following recordOccurrences
+  private String restoredMsg;
+
+  private LogMetadata restoredMetadata;
+
+  // the decision of the backend for the last checked message, recorded with its next occurrence
+  private String admittedMsg;
+  private int admittedCount;
 
   private final int LONG_SIZE = 8;
 
   private final int STRING_HEADER_SIZE = 36;
 
+  // original messages kept per entry when the keys are canonical forms
+  public static final int MAX_ORIGINALS = 3;
+
   enum MESSAGE {
     SIZE_EVICTION {
       public String toString() {
@@ -66,12 +120,30 @@ public class LogCache {
     this.LOG_CACHE_SIZE = logCacheSize;
     this.LOG_CACHE_THRESHOLD = logCacheThreshold;
     this.LOG_TIME_THRESHOLD = timeExpireThreshold;
+
+    stats.setEntryCountGauge(() -> cache.size());
+    stats.setMemoryUsageGauges(() -> LRU_MEMORY_USAGE, () -> PQ_MEMORY_USAGE);
   }
 
   public LruCache getLruCache() {
     return this.cache;
   }
 
+  /**
+   * @return the live statistics of this cache, which can be exposed through JMX with {@link DedupStats#register}
+   */
+  public DedupStats getStats() {
+    return this.stats;
+  }
+
+  /**
+   * Record the rendering time of every eviction summary into the given histogram. Only used when
+   * {@link DedupLatency#ENABLED} is set.
+   */
+  public void setSummaryRenderHistogram(LatencyHistogram histogram) {
+    this.summaryRenderHistogram = histogram;
+  }
+
   /*
    * PriorityQueue put
    */
@@ -123,17 +195,250 @@ public class LogCache {
    * @return true if the input message is duplicate, false otherwise
    */
   public boolean checkIfDuplicate(String msg) {
-    return cache.get(msg) != null && cache.get(msg).getTimeStamp().size() >= this.LOG_CACHE_THRESHOLD;
+    LogMetadata metadata = lookup(msg);
+    DedupBackend backend = this.backend;
+    if (backend != null) {
+      if (metadata == null) {
+        stats.recordMiss();
+      } else {
+        stats.recordHit();
+      }
+      int admitted = backend.admit(msg, 1, LOG_CACHE_THRESHOLD);
+      admittedMsg = msg;
+      admittedCount = admitted;
+      boolean dup = admitted == 0;
+      if (dup) {
+        stats.recordSuppressed();
+      }
+      return dup;
+    }
+    if (metadata == null) {
+      stats.recordMiss();
+      return false;
+    }
+    stats.recordHit();
+    if (metadata.getTimeStamp().size() + metadata.getCarried() >= this.LOG_CACHE_THRESHOLD) {
+      stats.recordSuppressed();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * Get the metadata of the message from the cache, or from the snapshot of the previous run. A restored entry is
+   * kept aside until the message is recorded, so it goes through the usual size eviction.
+   */
+  private LogMetadata lookup(String msg) {
+    LogMetadata metadata = cache.get(msg);
+    if (metadata != null || snapshot == null) {
+      return metadata;
+    }
+    if (System.currentTimeMillis() > snapshotDeadline) {
+      // the first window after startup is over, release the mapping
+      snapshot = null;
+      return null;
+    }
+    metadata = snapshot.restore(msg, LOG_CACHE_THRESHOLD, LOG_TIME_THRESHOLD, System.currentTimeMillis());
+    if (metadata != null) {
+      restoredMsg = msg;
+      restoredMetadata = metadata;
+    }
+    return metadata;
+  }
+
+  /**
+   * Keep an original message of an entry whose key is a canonical form, for the eviction summary. At most
+   * {@link #MAX_ORIGINALS} distinct originals are kept per entry.
+   * @param key      the key of the entry, already recorded
+   * @param original the message as logged
+   */
+  public void addOriginal(String key, String original) {
+    LogMetadata metadata = cache.get(key);
+    if (metadata != null) {
+      metadata.addOriginal(original, MAX_ORIGINALS);
+    }
+  }
+
+  /**
+   * Deduplicate near duplicates: a message whose SimHash is within maxDistance bits of the one of a cached message
+   * counts as an occurrence of that message, see {@link NearDuplicateIndex}. Must be called under the cache lock.
+   * @param maxDistance the largest Hamming distance between near duplicates, out of 64 bits; negative to disable
+   * @param bands       the number of bands of the LSH index
+   */
+  public void enableNearDuplicates(int maxDistance, int bands) {
+    if (maxDistance < 0) {
+      nearDuplicates = null;
+      return;
+    }
+    nearDuplicates = new NearDuplicateIndex(maxDistance, bands);
+    for (String key : cache.keySet()) {
+      nearDuplicates.add(key, NearDuplicateIndex.simHash(key));
+    }
+  }
+
+  /**
+   * Let the capacity of the cache follow the hit ratio curve of the messages between minSize and maxSize, within the
+   * memory limit, see {@link CacheSizeTuner}. Must be called under the cache lock.
+   * @param minSize the smallest capacity
+   * @param maxSize the largest capacity, 0 to go back to the configured cache size
+   */
+  public void enableAdaptiveSize(int minSize, int maxSize) {
+    if (maxSize <= 0) {
+      sizeTuner = null;
+      cache.setCapacity(LOG_CACHE_SIZE);
+      return;
+    }
+    sizeTuner = new CacheSizeTuner(minSize, maxSize, cache.getCapacity());
+    cache.setCapacity(sizeTuner.getCapacity());
+  }
+
+  /**
+   * Learn the time expiration of every message from its inter-arrival times, between minWindow and maxWindow, see
+   * {@link AdaptiveExpiration}. Must be called under the cache lock.
+   * @param minWindow the shortest time expiration in milliseconds
+   * @param maxWindow the longest time expiration in milliseconds, 0 to go back to the fixed time expiration
+   */
+  public void enableAdaptiveExpiration(long minWindow, long maxWindow) {
+    if (maxWindow <= 0) {
+      adaptiveExpiration = null;
+      deadlines = null;
+      return;
+    }
+    adaptiveExpiration = new AdaptiveExpiration(minWindow, maxWindow, LOG_TIME_THRESHOLD,
+                                                Math.max(cache.getCapacity(), 1024) * 4);
+    deadlines = new PriorityQueue<>();
+    for (Entry<String, Long> e : pq.entrySet()) {
+      LogMetadata metadata = cache.get(e.getKey());
+      if (metadata != null) {
+        metadata.setExpiresAt(e.getValue() + adaptiveExpiration.getDefaultWindow());
+        deadlines.add(new Deadline(metadata.getExpiresAt(), e.getKey()));
+      }
+    }
+  }
+
+  public AdaptiveExpiration getAdaptiveExpiration() {
+    return adaptiveExpiration;
+  }
+
+  /**
+   * Under memory pressure or when the cache is full, evict the least valuable of a few least recently used messages
+   * instead of the least recently used or oldest one, so a chronic ERROR message is not pushed out by a flood of
+   * DEBUG messages, see {@link LruCache#value}. Must be called under the cache lock.
+   * @param samples the number of least recently used messages the victim is chosen from, 0 to disable
+   */
+  public void setEvictionSamples(int samples) {
+    cache.setEvictionSamples(samples);
+  }
+
+  public CacheSizeTuner getSizeTuner() {
+    return sizeTuner;
+  }
+
+  public NearDuplicateIndex getNearDuplicates() {
+    return nearDuplicates;
+  }
+
+  /**
+   * @param msg the message to log
+   * @return the cached message msg is a near duplicate of, or msg itself. Always msg unless
+   * {@link #enableNearDuplicates} was called
+   */
+  public String resolveNearDuplicate(String msg) {
+    return nearDuplicates == null ? msg : nearDuplicates.resolve(msg);
+  }
+
+  private void unindex(String msg) {
+    if (nearDuplicates != null) {
+      nearDuplicates.remove(msg);
+    }
+  }
+
+  /**
+   * Take the duplicate decision from a backend instead of the occurrences seen by this cache, e.g. a
+   * {@link SharedDedupTable} shared by every JVM of the host, or a rate limit per message. The cache still records
+   * the occurrences for the eviction summaries, which report how many of them the backend let through.
+   * @param backend the backend, null to go back to the local counts
+   */
+  public void setBackend(DedupBackend backend) {
+    this.backend = backend;
+  }
+
+  public DedupBackend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Write the entries of the cache to a memory-mapped snapshot file, to be loaded by the next run with
+   * {@link #loadSnapshot(Path)}. Must be called under the cache lock, before the cache is flushed.
+   * @param file the snapshot file, replaced atomically
+   * @return the number of entries written
+   */
+  public int writeSnapshot(Path file) throws IOException {
+    flushLock.lock();
+    try {
+      return LogCacheSnapshot.write(cache, file);
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  /**
+   * Map the snapshot written by a previous run. Its entries are restored lazily, when their message is logged again
+   * within the time expiration of their last occurrence in the previous run, and expire at that deadline. A snapshot
+   * written longer than the time expiration ago has nothing left to restore and is not kept.
+   * @param file the snapshot file
+   * @return false if the file is not a valid snapshot
+   */
+  public boolean loadSnapshot(Path file) throws IOException {
+    LogCacheSnapshot loaded = LogCacheSnapshot.open(file);
+    if (loaded == null) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    // no entry of the snapshot was seen after it was written
+    long deadline = Math.min(loaded.getCreatedAt(), now) + LOG_TIME_THRESHOLD;
+    snapshot = deadline > now ? loaded : null;
+    snapshotDeadline = deadline;
+    return true;
+  }
+
+  /**
+   * @return the snapshot being restored, null if none was loaded or its window is over
+   */
+  public LogCacheSnapshot getSnapshot() {
+    return snapshot;
   }
 
   /*
    * if cache memory usage exceeds the allocated limit, flush some messages to reduce memory consumption to 50%
    */
-  private List<String> flushMessageIfOutOfMemory(List<String> evictionMessages) {
+  private List<EvictionSummary> flushMessageIfOutOfMemory(List<EvictionSummary> evictionMessages) {
     if (PQ_MEMORY_USAGE + LRU_MEMORY_USAGE >= MEMORY_LIMIT) {
 //      System.out.printf("Reach Memory Limit, Starting to flush the messages LRU : %d kb, PQ : %d kb\n",
 //                              LRU_MEMORY_USAGE / 1024, PQ_MEMORY_USAGE / 1024);
       int targetSize = pq.size() / 2;
+      if (cache.getEvictionSamples() > 0) {
+        // evict the least valuable of a few least recently used entries at a time
+        while (pq.size() > targetSize) {
+          Entry<String, LogMetadata> victim = cache.sampleVictim(null);
+          if (victim == null) {
+            break;
+          }
+          String victimMsg = victim.getKey();
+          LogMetadata metadata = victim.getValue();
+          PQ_MEMORY_USAGE -= calculateStringSize(victimMsg) + LONG_SIZE;
+          LRU_MEMORY_USAGE -= calculateStringSize(victimMsg) + metadata.getTimeStamp().size() * LONG_SIZE;
+          stats.recordMemoryEviction();
+          if (hasSuppressed(metadata)) {
+            evictionMessages.add(generateSingleEvictionSummary(victimMsg, MESSAGE.MEMORY_EVICTION.toString(),
+                                                               metadata));
+          }
+          cache.remove(victimMsg);
+          unindex(victimMsg);
+          pq.remove(victimMsg);
+        }
+        return evictionMessages;
+      }
       String msg;
       Iterator<Entry<String, Long>> itr = pq.entrySet().iterator();
 
@@ -146,10 +451,12 @@ public class LogCache {
         LRU_MEMORY_USAGE = LRU_MEMORY_USAGE - calculateStringSize(msg) - cache.get(msg).getTimeStamp().size() * LONG_SIZE;
         // Remove from cache and pq
         LogMetadata metadata = cache.get(msg);
-        if (metadata.getTimeStamp().size() > LOG_CACHE_THRESHOLD) {
+        stats.recordMemoryEviction();
+        if (hasSuppressed(metadata)) {
           evictionMessages.add(generateSingleEvictionSummary(msg, MESSAGE.MEMORY_EVICTION.toString(), metadata));
         }
         cache.remove(msg);
+        unindex(msg);
         itr.remove();
       }
     }
@@ -162,94 +469,328 @@ public class LogCache {
    * @return A list of eviction message
    */
   public List<String> generateSummaryMessage(String msg) {
-    List<String> evictionMessages = new ArrayList<>();
-    Long currentTime;
-    currentTime = System.currentTimeMillis();
+    List<EvictionSummary> summaries = generateEvictionSummaries(msg);
+    List<String> evictionMessages = new ArrayList<>(summaries.size());
+    for (EvictionSummary summary : summaries) {
+      evictionMessages.add(renderSummary(summary));
+    }
+    return evictionMessages;
+  }
+
+  /**
+   * Record the message in the cache and collect the summaries of the evicted messages, without rendering them
+   * @param msg the msg to be checked against the cache
+   * @return A list of eviction summaries
+   */
+  public List<EvictionSummary> generateEvictionSummaries(String msg) {
+    return generateEvictionSummaries(msg, 0);
+  }
+
+  /**
+   * Same as {@link #generateEvictionSummaries(String)}, for a message logged at the given priority
+   * @param priority the level of the message, from 0 for TRACE to 4 for ERROR, weighs in the priority eviction
+   */
+  public List<EvictionSummary> generateEvictionSummaries(String msg, int priority) {
+    List<EvictionSummary> evictionMessages = new ArrayList<>();
+    int written = -1;
+    if (admittedMsg != null) {
+      if (admittedMsg.equals(msg)) {
+        written = admittedCount;
+      }
+      admittedMsg = null;
+    }
+    recordOccurrences(msg, 1, written, priority, System.currentTimeMillis(), evictionMessages);
+    return expireEntries(System.currentTimeMillis(), evictionMessages);
+  }
+
+  /**
+   * Apply one aggregated entry of a batch: count occurrences of the message seen at the same time. Call
+   * {@link #expireEntries} once after the last entry of the batch.
+   * @param msg              the message
+   * @param count            the number of occurrences in the batch
+   * @param now              the time of the batch
+   * @param evictionMessages where to add the summaries of the evicted messages
+   * @return how many of the occurrences are below the threshold and must be written
+   */
+  public int recordBatchOccurrences(String msg, int count, long now, List<EvictionSummary> evictionMessages) {
+    return recordBatchOccurrences(msg, count, 0, now, evictionMessages);
+  }
 
-    LRU_MEMORY_USAGE =
-        cache.containsKey(msg) ? LRU_MEMORY_USAGE + LONG_SIZE : LRU_MEMORY_USAGE + calculateStringSize(msg) + LONG_SIZE;
-    boolean evicted = cache.put(msg, currentTime);
+  /**
+   * Same as {@link #recordBatchOccurrences(String, int, long, List)}, for a message logged at the given priority
+   * @param priority the level of the message, from 0 for TRACE to 4 for ERROR, weighs in the priority eviction
+   */
+  public int recordBatchOccurrences(String msg, int count, int priority, long now,
+                                    List<EvictionSummary> evictionMessages) {
+    LogMetadata metadata = lookup(msg);
+    int seen = metadata == null ? 0 : metadata.getTimeStamp().size() + metadata.getCarried();
+    DedupBackend backend = this.backend;
+    int toWrite = backend != null ? backend.admit(msg, count, LOG_CACHE_THRESHOLD)
+                                  : Math.max(0, Math.min(count, LOG_CACHE_THRESHOLD - seen));
+    if (metadata == null) {
+      stats.recordMiss();
+      stats.recordHits(count - 1);
+    } else {
+      stats.recordHits(count);
+    }
+    stats.recordSuppressed(count - toWrite);
+    recordOccurrences(msg, count, backend != null ? toWrite : -1, priority, now, evictionMessages);
+    return toWrite;
+  }
+
+  /*
+   * Add count timestamps to the message and evict the least recently used message if the cache is full. written is
+   * the number of them the backend let through, -1 without backend
+   */
+  private void recordOccurrences(String msg, int count, int written, int priority, long currentTime,
+                                 List<EvictionSummary> evictionMessages) {
+    LogMetadata restored = null;
+    if (restoredMsg != null) {
+      if (restoredMsg.equals(msg)) {
+        restored = restoredMetadata;
+      }
+      restoredMsg = null;
+      restoredMetadata = null;
+    }
+    if (restored != null) {
+      LRU_MEMORY_USAGE += calculateStringSize(msg) + LONG_SIZE * (restored.getTimeStamp().size() + count);
+    } else {
+      LRU_MEMORY_USAGE = cache.containsKey(msg) ? LRU_MEMORY_USAGE + LONG_SIZE * count
+                                                : LRU_MEMORY_USAGE + calculateStringSize(msg) + LONG_SIZE * count;
+    }
+    CacheSizeTuner tuner = sizeTuner;
+    if (tuner != null) {
+      tuner.access(msg, cache.get(msg));
+    }
+    if (restored != null) {
+      restoredDeadlines.add(new Deadline(restored.getExpiresAt(), msg));
+    }
+    boolean evicted = cache.put(msg, restored, currentTime, count);
+    boolean prioritized = priority > 0 && cache.getEvictionSamples() > 0;
+    if (written >= 0 || tuner != null || prioritized) {
+      LogMetadata current = cache.get(msg);
+      if (written >= 0) {
+        current.addWritten(written);
+      }
+      if (tuner != null) {
+        tuner.touch(current);
+      }
+      if (prioritized) {
+        current.raisePriority(priority);
+      }
+    }
 
     String evictedMsg = cache.getEvictedMsg();
     LogMetadata metadata = cache.getEvictedMsgData();
 
     // add the timestamp of the first occurrence of the message to the priorityQueue
-    if (!pq.containsKey(msg)) {
+    Long firstSeen = pq.get(msg);
+    if (firstSeen == null) {
+      firstSeen = currentTime;
       pq.put(msg, currentTime);
       PQ_MEMORY_USAGE += calculateStringSize(msg) + LONG_SIZE;
     }
+    if (adaptiveExpiration != null) {
+      updateDeadline(msg, firstSeen, adaptiveExpiration.onOccurrence(msg, currentTime));
+    }
 
     // Cache Full, evict the message from the cache and update the priorityQueue
     if (evicted) {
-      if (metadata.getTimeStamp().size() > this.LOG_CACHE_THRESHOLD) {
-        String
-            msgToLog =
-            generateSingleEvictionSummary(evictedMsg, MESSAGE.SIZE_EVICTION.toString(), metadata);
-        assert (msgToLog != null);
-        evictionMessages.add(msgToLog);
-      }
-      LRU_MEMORY_USAGE -= metadata.getTimeStamp().size() * LONG_SIZE + calculateStringSize(evictedMsg) ;
-      PQ_MEMORY_USAGE -= calculateStringSize(evictedMsg) + LONG_SIZE;
-
-      // update the priorityQueue;
-      pq.remove(evictedMsg);
+      recordSizeEviction(evictedMsg, metadata, evictionMessages);
     }
 
-    // Time Eviction, expire the old entries
-    currentTime = System.currentTimeMillis();
-    Entry<String, Long> top = getEarliestTimestamp();
-    while (true) {
-      if (top == null || currentTime - top.getValue() < LOG_TIME_THRESHOLD || pq.size() == 0) {
-        break;
+    if (tuner != null) {
+      if (tuner.isDue()) {
+        cache.setCapacity(tuner.tune(capacityForMemory()));
       }
-      LogMetadata metadata1 = cache.get(top.getKey());
-
-      if (metadata1.getTimeStamp().size() > this.LOG_CACHE_THRESHOLD) {
-        String
-            msgToLog1 =
-            generateSingleEvictionSummary(top.getKey(), MESSAGE.TIME_EVICTION.toString(), metadata1);
-        assert (msgToLog1 != null);
-        evictionMessages.add(msgToLog1);
+      // after shrinking, evict messages down to the new capacity
+      while (cache.size() > cache.getCapacity()) {
+        Entry<String, LogMetadata> victim = cache.sampleVictim(msg);
+        if (victim == null) {
+          break;
+        }
+        cache.remove(victim.getKey());
+        recordSizeEviction(victim.getKey(), victim.getValue(), evictionMessages);
       }
+    }
+  }
+
+  /*
+   * Move the deadline of the entry to its first occurrence plus its current time expiration
+   */
+  private void updateDeadline(String msg, long firstSeen, long window) {
+    LogMetadata metadata = cache.get(msg);
+    long expiresAt = firstSeen + window;
+    if (metadata == null || metadata.getExpiresAt() == expiresAt) {
+      return;
+    }
+    metadata.setExpiresAt(expiresAt);
+    deadlines.add(new Deadline(expiresAt, msg));
+    if (deadlines.size() > 2 * cache.size() + 64) {
+      // too many outdated deadlines
+      compactDeadlines();
+    }
+  }
+
+  /*
+   * Keep the deadlines of the entries of the cache only
+   */
+  private void compactDeadlines() {
+    PriorityQueue<Deadline> current = new PriorityQueue<>(cache.size() + 64);
+    for (Entry<String, LogMetadata> e : cache.entrySet()) {
+      current.add(new Deadline(e.getValue().getExpiresAt(), e.getKey()));
+    }
+    deadlines = current;
+  }
+
+  /*
+   * Update the counters and the priorityQueue of a message evicted because the cache is full, already removed from
+   * the cache
+   */
+  private void recordSizeEviction(String evictedMsg, LogMetadata metadata, List<EvictionSummary> evictionMessages) {
+    stats.recordSizeEviction();
+    if (hasSuppressed(metadata)) {
+      EvictionSummary
+          msgToLog =
+          generateSingleEvictionSummary(evictedMsg, MESSAGE.SIZE_EVICTION.toString(), metadata);
+      assert (msgToLog != null);
+      evictionMessages.add(msgToLog);
+    }
+    LRU_MEMORY_USAGE -= metadata.getTimeStamp().size() * LONG_SIZE + calculateStringSize(evictedMsg) ;
+    PQ_MEMORY_USAGE -= calculateStringSize(evictedMsg) + LONG_SIZE;
+
+    // update the priorityQueue;
+    pq.remove(evictedMsg);
+    unindex(evictedMsg);
+    if (sizeTuner != null) {
+      sizeTuner.evicted(evictedMsg);
+    }
+  }
 
-      // Remove the evicted message from the cache and pq, update the memory count
-      PQ_MEMORY_USAGE -= LONG_SIZE + calculateStringSize(top.getKey());
-      LRU_MEMORY_USAGE -= cache.get(top.getKey()).getTimeStamp().size() * LONG_SIZE +  calculateStringSize(top.getKey());
+  /*
+   * The number of entries of the current average size that fit in half of the memory limit, so the adaptive size
+   * does not run into the memory flush
+   */
+  private long capacityForMemory() {
+    int size = cache.size();
+    if (size == 0) {
+      return Long.MAX_VALUE;
+    }
+    long average = Math.max(1L, LRU_MEMORY_USAGE / size);
+    return MEMORY_LIMIT / 2 / average;
+  }
 
-      removeEarliestTimestamp();
-      cache.remove(top.getKey());
-      top = getEarliestTimestamp();
+  /**
+   * Expire the entries older than the time expiration threshold, then flush messages if the memory limit is reached
+   * @param currentTime      the current time
+   * @param evictionMessages where to add the summaries of the evicted messages
+   * @return evictionMessages
+   */
+  public List<EvictionSummary> expireEntries(long currentTime, List<EvictionSummary> evictionMessages) {
+    // the entries restored from the snapshot expire with the window of their last occurrence in the previous run, only
+    // a restored entry carries occurrences
+    Deadline restoredDeadline = restoredDeadlines.peek();
+    while (restoredDeadline != null && restoredDeadline.time <= currentTime) {
+      restoredDeadlines.poll();
+      LogMetadata metadata = cache.get(restoredDeadline.msg);
+      if (metadata != null && metadata.getCarried() > 0) {
+        expireEntry(restoredDeadline.msg, metadata, evictionMessages);
+      }
+      restoredDeadline = restoredDeadlines.peek();
+    }
+
+    if (adaptiveExpiration != null) {
+      // Time Eviction, expire the entries whose deadline passed
+      Deadline deadline = deadlines.peek();
+      while (deadline != null && deadline.time <= currentTime) {
+        deadlines.poll();
+        LogMetadata metadata = cache.get(deadline.msg);
+        if (metadata != null && metadata.getExpiresAt() == deadline.time) {
+          expireEntry(deadline.msg, metadata, evictionMessages);
+        }
+        deadline = deadlines.peek();
+      }
+    } else {
+      // Time Eviction, expire the old entries
+      Entry<String, Long> top = getEarliestTimestamp();
+      while (top != null && currentTime - top.getValue() >= LOG_TIME_THRESHOLD) {
+        expireEntry(top.getKey(), cache.get(top.getKey()), evictionMessages);
+        top = getEarliestTimestamp();
+      }
     }
 
     // check the memory limit and flush the messages if necessary
-    List<String> result = flushMessageIfOutOfMemory(evictionMessages);
+    List<EvictionSummary> result = flushMessageIfOutOfMemory(evictionMessages);
     return result;
   }
 
-  private String generateSingleEvictionSummary(String msg, String header, LogMetadata logMetadata) {
-    //append all the timestamps to a string
-    StringBuffer timestampCollection = new StringBuffer();
+  private void expireEntry(String msg, LogMetadata metadata, List<EvictionSummary> evictionMessages) {
+    stats.recordTimeEviction();
 
-    for (int i = 0; i < logMetadata.getTimeStamp().size() - 1; i++) {
-      //The limit for messages bing logged into log4j can no longer large than 65446
-      //characters. Here the timeStampMessageLengthThreshold is set to 65000 characters.
-      //"..." will be printed when there are too many timestamps
-      if (timestampCollection.length() + msg.length()
-          <= timeStampMessageLengthThreshold) {
-        timestampCollection.append(logMetadata.getTimeStampInDateFormat(i) + ", ");
-      } else {
-        timestampCollection.append("...");
-        break;
-      }
+    if (hasSuppressed(metadata)) {
+      EvictionSummary
+          msgToLog =
+          generateSingleEvictionSummary(msg, MESSAGE.TIME_EVICTION.toString(), metadata);
+      assert (msgToLog != null);
+      evictionMessages.add(msgToLog);
+    }
+
+    // Remove the evicted message from the cache and pq, update the memory count
+    PQ_MEMORY_USAGE -= LONG_SIZE + calculateStringSize(msg);
+    LRU_MEMORY_USAGE -= metadata.getTimeStamp().size() * LONG_SIZE + calculateStringSize(msg);
+
+    pq.remove(msg);
+    cache.remove(msg);
+    unindex(msg);
+  }
+
+  /*
+   * Only the entries with suppressed occurrences get a summary. The threshold decides how many occurrences were
+   * written, less the ones the previous run wrote, unless a backend did and the entry counted them
+   */
+  private boolean hasSuppressed(LogMetadata metadata) {
+    return metadata.getTimeStamp().size() > writtenCount(metadata);
+  }
+
+  private int writtenCount(LogMetadata metadata) {
+    int written = metadata.getWritten();
+    return written >= 0 ? written : Math.max(0, this.LOG_CACHE_THRESHOLD - metadata.getCarried());
+  }
+
+  private EvictionSummary generateSingleEvictionSummary(String msg, String header, LogMetadata logMetadata) {
+    return new EvictionSummary(header, msg, logMetadata, writtenCount(logMetadata));
+  }
+
+  /**
+   * Render the full text form of the summary. Must be called under the same lock as
+   * {@link #generateEvictionSummaries(String)}
+   * @param summary the summary to render
+   * @return the summary text
+   */
+  public String renderSummary(EvictionSummary summary) {
+    if (DedupLatency.ENABLED && summaryRenderHistogram != null) {
+      long start = System.nanoTime();
+      String text = summaryRenderer.render(summary);
+      summaryRenderHistogram.recordValue(System.nanoTime() - start);
+      return text;
     }
+    return summaryRenderer.render(summary);
+  }
 
-    //Append the last timestamps and return the Evicted Message as a String
-    timestampCollection.append(logMetadata.getTimeStampInDateFormat(logMetadata.getTimeStamp().size() - 1));
-    String msgToLog = String.format(
-        "%s : Evict Msg \'%s\'. This Message Appears %d Time(s) In Total and Was Logged %d Time(s) Before"
-        + "\nTimestamps at %s", header, msg, logMetadata.getTimeStamp().size(), this.LOG_CACHE_THRESHOLD,
-        timestampCollection);
-    return msgToLog;
+  /**
+   * Render the short key/value form of the summary. Must be called under the same lock as
+   * {@link #generateEvictionSummaries(String)}
+   * @param summary the summary to render
+   * @return the summary text
+   */
+  public String renderStructuredSummary(EvictionSummary summary) {
+    if (DedupLatency.ENABLED && summaryRenderHistogram != null) {
+      long start = System.nanoTime();
+      String text = summaryRenderer.renderKeyValues(summary);
+      summaryRenderHistogram.recordValue(System.nanoTime() - start);
+      return text;
+    }
+    return summaryRenderer.renderKeyValues(summary);
   }
 
   /**
@@ -257,8 +798,24 @@ public class LogCache {
    * @return  a list of evicted messages
    */
   public List<String> flushAllMessages() {
-    synchronized (cache) {
-      List<String> result = new ArrayList<>();
+    List<EvictionSummary> summaries = flushAllSummaries();
+    List<String> result = new ArrayList<>(summaries.size());
+    // runs on the shutdown hook, do not share the renderer of the log path
+    EvictionSummaryRenderer renderer = new EvictionSummaryRenderer();
+    for (EvictionSummary summary : summaries) {
+      result.add(renderer.render(summary));
+    }
+    return result;
+  }
+
+  /**
+   * Flush all the messages inside the cache
+   * @return  the summaries of the evicted messages
+   */
+  public List<EvictionSummary> flushAllSummaries() {
+    flushLock.lock();
+    try {
+      List<EvictionSummary> result = new ArrayList<>();
       long now = System.currentTimeMillis();
       Iterator<Entry<String, LogMetadata>> itr = cache.entrySet().iterator();
       while (itr.hasNext()) {
@@ -267,17 +824,44 @@ public class LogCache {
         if (e.getKey() != null) {
           //Print the log summary with time expiration info for the message if it stays in the cache more than
           //LOG_TIME_THRESHOLD and it appears more than 'LOG_CACHE_THRESHOLD' times
-          if (metadata.getTimeStamp().size() > LOG_CACHE_THRESHOLD) {
+          if (hasSuppressed(metadata)) {
             result.add(generateSingleEvictionSummary(e.getKey(), MESSAGE.EXIT.toString(), metadata));
             itr.remove();
+            // the cache stays in use when the application drains it before exiting
+            pq.remove(e.getKey());
+            PQ_MEMORY_USAGE -= calculateStringSize(e.getKey()) + LONG_SIZE;
+            LRU_MEMORY_USAGE -= calculateStringSize(e.getKey()) + metadata.getTimeStamp().size() * LONG_SIZE;
+            unindex(e.getKey());
+            stats.recordExitEviction();
           }
         }
       }
+      if (deadlines != null && !result.isEmpty()) {
+        compactDeadlines();
+      }
       return result;
+    } finally {
+      flushLock.unlock();
     }
   }
-}
 
+  /*
+   * The time an entry expires at, ordered by time in the heap of deadlines
+   */
+  private static final class Deadline implements Comparable<Deadline> {
+
+    private final long time;
 
+    private final String msg;
 
+    private Deadline(long time, String msg) {
+      this.time = time;
+      this.msg = msg;
+    }
 
+    @Override
+    public int compareTo(Deadline other) {
+      return Long.compare(time, other.time);
+    }
+  }
+}
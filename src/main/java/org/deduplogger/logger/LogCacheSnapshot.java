@@ -0,0 +1,229 @@
+package org.deduplogger.logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of the entries of a LogCache, written on shutdown and memory-mapped on startup so the
+ * messages that were already being deduplicated stay deduplicated across a restart.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   header : int magic, int version, long createdAt, int entryCount, int tableSize
+ *   table  : tableSize slots of (long keyHash, int entryOffset), open addressing, offset 0 for an empty slot
+ *   entries: int keyLength, char[keyLength] key, int count, long firstSeen, long lastSeen,
+ *            int sampleCount, long[sampleCount] samples
+ * </pre>
+ *
+ * Loading only maps the file and checks the header. An entry is only read, and its LogMetadata only created, when
+ * its message is logged again. Each entry is restored at most once, with only the number of occurrences the previous
+ * run wrote: the timestamps stay in the file, so the summaries of the new run only report its own occurrences. An
+ * entry whose last occurrence is older than the time expiration is not restored, and a restored entry expires at its
+ * last occurrence plus the time expiration, as it would have in the previous run. Not thread safe, used under the
+ * LogCache lock.
+ */
+public class LogCacheSnapshot {
+
+  private static final int MAGIC = 0x44445331;  // "DDS1"
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+  private static final int SLOT_SIZE = 8 + 4;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private final ByteBuffer buffer;
+
+  private final long createdAt;
+
+  private final int entryCount;
+
+  private final int tableSize;
+
+  // slots already restored
+  private final BitSet restored;
+
+  private LogCacheSnapshot(ByteBuffer buffer, long createdAt, int entryCount, int tableSize) {
+    this.buffer = buffer;
+    this.createdAt = createdAt;
+    this.entryCount = entryCount;
+    this.tableSize = tableSize;
+    this.restored = new BitSet(tableSize);
+  }
+
+  /**
+   * Write the entries of the cache to the file, replacing it atomically
+   * @param cache the entries to write, message to timestamps
+   * @param file  the snapshot file
+   * @return the number of entries written
+   */
+  public static int write(Map<String, LogMetadata> cache, Path file) throws IOException {
+    int count = cache.size();
+    int tableSize = Integer.highestOneBit(Math.max(8, count) * 2 - 1) << 1;
+    long size = HEADER_SIZE + (long) tableSize * SLOT_SIZE;
+    List<long[]> samples = new ArrayList<>(count);
+    for (Map.Entry<String, LogMetadata> e : cache.entrySet()) {
+      long[] sampled = new EvictionSummary(null, e.getKey(), e.getValue(), 0).getSampledTimestamps();
+      samples.add(sampled);
+      size += 4 + 2L * e.getKey().length() + 4 + 8 + 8 + 4 + 8L * sampled.length;
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large: " + size + " bytes");
+    }
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      out.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(count).putInt(tableSize);
+      int position = HEADER_SIZE + tableSize * SLOT_SIZE;
+      int i = 0;
+      for (Map.Entry<String, LogMetadata> e : cache.entrySet()) {
+        String key = e.getKey();
+        List<Long> timestamps = e.getValue().getTimeStamp();
+        long[] sampled = samples.get(i++);
+
+        long hash = hash(key);
+        int slot = (int) hash & (tableSize - 1);
+        while (out.getInt(slotOffset(slot) + 8) != 0) {
+          slot = (slot + 1) & (tableSize - 1);
+        }
+        out.putLong(slotOffset(slot), hash);
+        out.putInt(slotOffset(slot) + 8, position);
+
+        out.position(position);
+        out.putInt(key.length());
+        for (int c = 0; c < key.length(); c++) {
+          out.putChar(key.charAt(c));
+        }
+        out.putInt(timestamps.size()).putLong(timestamps.get(0)).putLong(timestamps.get(timestamps.size() - 1));
+        out.putInt(sampled.length);
+        for (long sample : sampled) {
+          out.putLong(sample);
+        }
+        position = out.position();
+      }
+      out.force();
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Map a snapshot file. Nothing but the header is read.
+   * @return the snapshot, or null if the file is not a valid snapshot
+   */
+  public static LogCacheSnapshot open(Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // the mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return null;
+    }
+    int entryCount = buffer.getInt(16);
+    int tableSize = buffer.getInt(20);
+    if (Integer.bitCount(tableSize) != 1 || entryCount < 0 || entryCount >= tableSize
+        || HEADER_SIZE + (long) tableSize * SLOT_SIZE > buffer.capacity()) {
+      return null;
+    }
+    return new LogCacheSnapshot(buffer, buffer.getLong(8), entryCount, tableSize);
+  }
+
+  /**
+   * Restore the entry of a message, at most once
+   * @param msg       the message
+   * @param threshold the number of occurrences written before the message is deduplicated
+   * @param window    the time expiration in milliseconds
+   * @param now       the current time
+   * @return the metadata of the message without timestamps, carrying min(count, threshold) written occurrences so it
+   * keeps being deduplicated, and expiring at the last occurrence plus the window; null if the message is not in the
+   * snapshot, was already restored or expired since
+   */
+  public LogMetadata restore(String msg, int threshold, long window, long now) {
+    long hash = hash(msg);
+    int slot = (int) hash & (tableSize - 1);
+    for (int probes = 0; probes < tableSize; probes++) {
+      int offset = buffer.getInt(slotOffset(slot) + 8);
+      if (offset == 0) {
+        return null;
+      }
+      if (buffer.getLong(slotOffset(slot)) == hash && keyEquals(offset, msg)) {
+        if (restored.get(slot)) {
+          return null;
+        }
+        restored.set(slot);
+        return readMetadata(offset + 4 + 2 * msg.length(), threshold, window, now);
+      }
+      slot = (slot + 1) & (tableSize - 1);
+    }
+    return null;
+  }
+
+  private boolean keyEquals(int offset, String msg) {
+    if (buffer.getInt(offset) != msg.length()) {
+      return false;
+    }
+    int position = offset + 4;
+    for (int c = 0; c < msg.length(); c++, position += 2) {
+      if (buffer.getChar(position) != msg.charAt(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private LogMetadata readMetadata(int offset, int threshold, long window, long now) {
+    long expiresAt = buffer.getLong(offset + 4 + 8) + window;
+    if (expiresAt <= now) {
+      return null;
+    }
+    LogMetadata metadata = new LogMetadata();
+    metadata.setCarried(Math.min(buffer.getInt(offset), threshold));
+    metadata.setExpiresAt(expiresAt);
+    return metadata;
+  }
+
+  private static int slotOffset(int slot) {
+    return HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static long hash(String key) {
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < key.length(); i++) {
+      hash = StackFingerprint.mix(hash, key.charAt(i));
+    }
+    return hash;
+  }
+
+  /**
+   * @return when the snapshot was written
+   */
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * @return the number of entries restored so far
+   */
+  public int getRestoredCount() {
+    return restored.cardinality();
+  }
+}
@@ -1,8 +1,6 @@
 package org.deduplogger.logger;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 // A java class to store all the metadata for the dedupLogger
@@ -10,6 +8,24 @@ public class LogMetadata {
 
   private List<Long> timestamps;
 
+  // a few original messages, only kept when the cache key is a canonical form of the messages
+  private List<String> originals;
+
+  // the number of occurrences written when a backend decides, -1 when the threshold decides
+  private int written = -1;
+
+  // access count of the cache at the last occurrence, only kept when the cache size is adaptive
+  private long lastAccess;
+
+  // when the entry expires, only kept when the time expiration is adaptive
+  private long expiresAt;
+
+  // the highest level the message was logged at, only kept for the priority eviction
+  private byte priority;
+
+  // occurrences written by the previous run, only kept for an entry restored from a snapshot
+  private int carried;
+
   public LogMetadata() {
     this.timestamps = new ArrayList<>();
   }
@@ -18,9 +34,77 @@ public class LogMetadata {
     return this.timestamps;
   }
 
+  /**
+   * Keep an original message of the entry, up to max distinct ones
+   */
+  public void addOriginal(String original, int max) {
+    if (originals == null) {
+      originals = new ArrayList<>(max);
+    }
+    if (originals.size() < max && !originals.contains(original)) {
+      originals.add(original);
+    }
+  }
+
+  /**
+   * @return the original messages kept for the entry, null if none
+   */
+  public List<String> getOriginals() {
+    return originals;
+  }
+
+  /**
+   * Count occurrences actually written, when a backend rather than the threshold decides
+   */
+  public void addWritten(int count) {
+    written = Math.max(written, 0) + count;
+  }
+
+  /**
+   * @return the number of occurrences written, -1 if not tracked
+   */
+  public int getWritten() {
+    return written;
+  }
+
+  public long getLastAccess() {
+    return lastAccess;
+  }
+
+  public void setLastAccess(long lastAccess) {
+    this.lastAccess = lastAccess;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public void raisePriority(int priority) {
+    if (priority > this.priority) {
+      this.priority = (byte) priority;
+    }
+  }
+
+  /**
+   * @return the number of occurrences the previous run wrote, counted toward the threshold but never reported
+   */
+  public int getCarried() {
+    return carried;
+  }
+
+  public void setCarried(int carried) {
+    this.carried = carried;
+  }
+
   public String getTimeStampInDateFormat(int idx) {
-    SimpleDateFormat sdf = new SimpleDateFormat("YYYY-MM-dd HH:mm:ss,SSS");
-    Date current = new Date(this.timestamps.get(idx));
-    return sdf.format(current);
+    return EvictionSummaryRenderer.formatTimestamp(this.timestamps.get(idx));
   }
 }
\ No newline at end of file
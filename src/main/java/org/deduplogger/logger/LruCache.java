@@ -1,5 +1,6 @@
 package org.deduplogger.logger;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -7,11 +8,20 @@ import java.util.Map;
 //A customized LRU cache implementation using the LinkedHashMap
 public class LruCache extends LinkedHashMap<String, LogMetadata> {
 
-  private final int capacity;
+  private int capacity;
   private String msg;
   private LogMetadata evictedEntry;
   private boolean evicted;
 
+  // the number of least recently used entries the victim is chosen from, 0 to evict the least recently used one
+  private int evictionSamples;
+
+  // the key being put, never chosen as the victim
+  private String putKey;
+
+  // the weight of the priorities of the entries, TRACE to ERROR
+  private static final int[] PRIORITY_WEIGHTS = {1, 1, 2, 4, 8};
+
   public LruCache(int size) {
     super(size, 0.75f, true);
     this.capacity = size;
@@ -22,13 +32,31 @@ public class LruCache extends LinkedHashMap<String, LogMetadata> {
   }
 
   public boolean put(String key, long timestamp) {
+    return put(key, timestamp, 1);
+  }
+
+  /*
+   * Record count occurrences of the key at the same timestamp
+   */
+  public boolean put(String key, long timestamp, int count) {
+    return put(key, null, timestamp, count);
+  }
+
+  /*
+   * Same as put(key, timestamp, count), starting from the given metadata if the key is not in the cache
+   */
+  public boolean put(String key, LogMetadata initial, long timestamp, int count) {
     this.evicted = false;
     LogMetadata val = get(key);
     if (val == null) {
-      val = new LogMetadata();
+      val = initial != null ? initial : new LogMetadata();
+    }
+    for (int i = 0; i < count; i++) {
+      val.getTimeStamp().add(timestamp);
     }
-    val.getTimeStamp().add(timestamp);
+    putKey = key;
     super.put(key, val);
+    putKey = null;
     return evicted;
   }
 
@@ -44,6 +72,60 @@ public class LruCache extends LinkedHashMap<String, LogMetadata> {
     return this.capacity;
   }
 
+  /*
+   * Change the capacity, a smaller capacity only evicts on the next put. The caller trims the cache if needed
+   */
+  public void setCapacity(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Evict the entry worth the least among the given number of least recently used entries instead of the least
+   * recently used one, see {@link #value}
+   * @param samples the number of candidates, 0 for plain LRU
+   */
+  public void setEvictionSamples(int samples) {
+    this.evictionSamples = samples;
+  }
+
+  public int getEvictionSamples() {
+    return evictionSamples;
+  }
+
+  /**
+   * The value of keeping an entry: the weight of its level times its occurrences per byte held. A message logged at
+   * ERROR many times is worth more than a DEBUG message seen once.
+   */
+  public static double value(String key, LogMetadata metadata) {
+    int count = metadata.getTimeStamp().size();
+    long bytes = 36L + 2L * key.length() + 8L * count;
+    return PRIORITY_WEIGHTS[Math.min(metadata.getPriority(), PRIORITY_WEIGHTS.length - 1)] * (double) count / bytes;
+  }
+
+  /**
+   * @param exclude a key not to choose, may be null
+   * @return the least valuable of the evictionSamples least recently used entries, null if the cache is empty
+   */
+  public Map.Entry<String, LogMetadata> sampleVictim(String exclude) {
+    Map.Entry<String, LogMetadata> victim = null;
+    double lowest = Double.MAX_VALUE;
+    int sampled = 0;
+    Iterator<Map.Entry<String, LogMetadata>> itr = entrySet().iterator();
+    while (sampled < Math.max(1, evictionSamples) && itr.hasNext()) {
+      Map.Entry<String, LogMetadata> e = itr.next();
+      if (e.getKey().equals(exclude)) {
+        continue;
+      }
+      sampled++;
+      double value = value(e.getKey(), e.getValue());
+      if (value < lowest) {
+        lowest = value;
+        victim = e;
+      }
+    }
+    return victim;
+  }
+
   public void clear() {
     super.clear();
   }
@@ -54,6 +136,17 @@ public class LruCache extends LinkedHashMap<String, LogMetadata> {
    */
   @Override
   protected boolean removeEldestEntry(Map.Entry<String, LogMetadata> eldest) {
+    if (size() > capacity && evictionSamples > 0) {
+      Map.Entry<String, LogMetadata> victim = sampleVictim(putKey);
+      if (victim != null) {
+        this.msg = victim.getKey();
+        this.evictedEntry = victim.getValue();
+        this.evicted = true;
+        // removing the victim directly is allowed, as long as false is returned
+        super.remove(victim.getKey());
+        return false;
+      }
+    }
     if (size() > capacity) {
       this.msg = eldest.getKey();
       this.evictedEntry = eldest.getValue();
@@ -0,0 +1,264 @@
+package org.deduplogger.logger;
+
+/**
+ * Replace the variable tokens of a message with placeholders, so "request 8f2c41d0 failed after 1532ms on host-17"
+ * and "request 77ab03e9 failed after 98ms on host-3" share the key "request &lt;hex&gt; failed after &lt;num&gt;ms on
+ * host-&lt;num&gt;".
+ *
+ * A single pass hand-written scanner, no regex. Only tokens starting at a word boundary are considered, in this
+ * order: UUIDs, timestamps (ISO dates with an optional time, or times), IPv4 addresses, hex ids (0x prefixed, or 8+
+ * hex characters mixing digits and letters) and numbers. Digits inside a word, like "log4j", are kept. A message
+ * without any variable token is returned as is, without allocation.
+ */
+public class MessageCanonicalizer {
+
+  public static final String NUMBER = "<num>";
+
+  public static final String UUID = "<uuid>";
+
+  public static final String HEX = "<hex>";
+
+  public static final String IP = "<ip>";
+
+  public static final String TIMESTAMP = "<ts>";
+
+  private static final int MIN_HEX_ID_LENGTH = 8;
+
+  private static final byte DIGIT = 1;
+
+  private static final byte HEX_LETTER = 2;
+
+  private static final byte LETTER = 4;
+
+  // class of every ASCII character, 0 for the characters which are not letters or digits
+  private static final byte[] CLASSES = new byte[128];
+
+  static {
+    for (char c = '0'; c <= '9'; c++) {
+      CLASSES[c] = DIGIT;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      CLASSES[c] = c <= 'f' ? HEX_LETTER | LETTER : LETTER;
+      CLASSES[Character.toUpperCase(c)] = CLASSES[c];
+    }
+  }
+
+  private MessageCanonicalizer() {
+  }
+
+  /**
+   * @param msg the message
+   * @return the message with its variable tokens replaced by placeholders
+   */
+  public static String canonicalize(String msg) {
+    int length = msg.length();
+    // only allocated at the first placeholder
+    StringBuilder out = null;
+    int copied = 0;
+    int i = 0;
+    while (i < length) {
+      if (!isAlnum(msg.charAt(i))) {
+        i++;
+        continue;
+      }
+      // start of a word, as the loop always moves past a whole word or token. Measure its leading hex and digit runs
+      // once, then only try the tokens they allow
+      int hexEnd = i;
+      int digitEnd = -1;
+      boolean letter = false;
+      while (hexEnd < length && isHex(msg.charAt(hexEnd))) {
+        if (!isDigit(msg.charAt(hexEnd))) {
+          if (digitEnd < 0) {
+            digitEnd = hexEnd;
+          }
+          letter = true;
+        }
+        hexEnd++;
+      }
+      if (digitEnd < 0) {
+        digitEnd = hexEnd;
+      }
+      int digitCount = digitEnd - i;
+      int end = -1;
+      String placeholder = null;
+      if (hexEnd - i == 8 && charAt(msg, hexEnd, '-') && (end = matchUuid(msg, i)) > 0) {
+        placeholder = UUID;
+      } else if (digitCount > 0) {
+        if (((digitCount == 4 && charAt(msg, digitEnd, '-')) || (digitCount == 2 && charAt(msg, digitEnd, ':')))
+            && (end = matchTimestamp(msg, i)) > 0) {
+          placeholder = TIMESTAMP;
+        } else if (digitCount <= 3 && charAt(msg, digitEnd, '.') && (end = matchIp(msg, i)) > 0) {
+          placeholder = IP;
+        } else if ((end = matchHex(msg, i, hexEnd, letter)) > 0) {
+          placeholder = HEX;
+        } else {
+          end = matchNumber(msg, digitEnd);
+          placeholder = NUMBER;
+        }
+      } else if (letter && (end = matchHex(msg, i, hexEnd, hasDigit(msg, i, hexEnd))) > 0) {
+        placeholder = HEX;
+      }
+      if (placeholder != null) {
+        if (out == null) {
+          out = new StringBuilder(length + 16);
+        }
+        out.append(msg, copied, i).append(placeholder);
+        copied = end;
+        i = end;
+        continue;
+      }
+      // not a variable token, skip the rest of the word
+      i = hexEnd;
+      while (i < length && isAlnum(msg.charAt(i))) {
+        i++;
+      }
+    }
+    if (out == null) {
+      return msg;
+    }
+    return out.append(msg, copied, length).toString();
+  }
+
+  private static boolean isDigit(char c) {
+    return c < 128 && (CLASSES[c] & DIGIT) != 0;
+  }
+
+  private static boolean isHex(char c) {
+    return c < 128 && (CLASSES[c] & (DIGIT | HEX_LETTER)) != 0;
+  }
+
+  private static boolean isAlnum(char c) {
+    return c < 128 && CLASSES[c] != 0;
+  }
+
+  /*
+   * true if the token ending at end is not glued to more letters or digits
+   */
+  private static boolean endsWord(String s, int end) {
+    return end >= s.length() || !isAlnum(s.charAt(end));
+  }
+
+  /*
+   * Number of consecutive digits from i, at most max
+   */
+  private static int digits(String s, int i, int max) {
+    int n = 0;
+    while (n < max && i + n < s.length() && isDigit(s.charAt(i + n))) {
+      n++;
+    }
+    return n;
+  }
+
+  private static boolean charAt(String s, int i, char c) {
+    return i < s.length() && s.charAt(i) == c;
+  }
+
+  // 8-4-4-4-12
+  private static int matchUuid(String s, int i) {
+    int end = i + 36;
+    if (end > s.length()) {
+      return -1;
+    }
+    for (int p = 0; p < 36; p++) {
+      char c = s.charAt(i + p);
+      if (p == 8 || p == 13 || p == 18 || p == 23) {
+        if (c != '-') {
+          return -1;
+        }
+      } else if (!isHex(c)) {
+        return -1;
+      }
+    }
+    return endsWord(s, end) ? end : -1;
+  }
+
+  // yyyy-MM-dd[(T| )HH:mm:ss[(.|,)S+][Z|(+|-)HH[:]mm]] or HH:mm:ss[(.|,)S+]
+  private static int matchTimestamp(String s, int i) {
+    int end;
+    if (digits(s, i, 5) == 4 && charAt(s, i + 4, '-') && digits(s, i + 5, 3) == 2 && charAt(s, i + 7, '-')
+        && digits(s, i + 8, 3) == 2) {
+      end = i + 10;
+      if ((charAt(s, end, 'T') || charAt(s, end, ' ')) && matchTime(s, end + 1) > 0) {
+        end = matchTime(s, end + 1);
+        if (charAt(s, end, 'Z')) {
+          end++;
+        } else if ((charAt(s, end, '+') || charAt(s, end, '-')) && digits(s, end + 1, 3) == 2) {
+          int zone = end + 3;
+          if (charAt(s, zone, ':')) {
+            zone++;
+          }
+          if (digits(s, zone, 3) == 2) {
+            end = zone + 2;
+          }
+        }
+      }
+    } else {
+      end = matchTime(s, i);
+    }
+    return end > 0 && endsWord(s, end) ? end : -1;
+  }
+
+  private static int matchTime(String s, int i) {
+    if (digits(s, i, 3) != 2 || !charAt(s, i + 2, ':') || digits(s, i + 3, 3) != 2 || !charAt(s, i + 5, ':')
+        || digits(s, i + 6, 3) != 2) {
+      return -1;
+    }
+    int end = i + 8;
+    if ((charAt(s, end, '.') || charAt(s, end, ',')) && digits(s, end + 1, 1) == 1) {
+      end += 1 + digits(s, end + 1, Integer.MAX_VALUE);
+    }
+    return end;
+  }
+
+  // four groups of 1 to 3 digits
+  private static int matchIp(String s, int i) {
+    int end = i;
+    for (int group = 0; group < 4; group++) {
+      if (group > 0) {
+        if (!charAt(s, end, '.')) {
+          return -1;
+        }
+        end++;
+      }
+      int n = digits(s, end, 4);
+      if (n == 0 || n > 3) {
+        return -1;
+      }
+      end += n;
+    }
+    return endsWord(s, end) && !(charAt(s, end, '.') && digits(s, end + 1, 1) == 1) ? end : -1;
+  }
+
+  /*
+   * 0x prefixed hex, or a run of at least MIN_HEX_ID_LENGTH hex characters mixing digits and letters. hexEnd is the
+   * end of the run of hex characters starting at i, mixed tells if it has both digits and letters.
+   */
+  private static int matchHex(String s, int i, int hexEnd, boolean mixed) {
+    if (s.charAt(i) == '0' && (charAt(s, i + 1, 'x') || charAt(s, i + 1, 'X'))) {
+      int end = i + 2;
+      while (end < s.length() && isHex(s.charAt(end))) {
+        end++;
+      }
+      return end > i + 2 && endsWord(s, end) ? end : -1;
+    }
+    return hexEnd - i >= MIN_HEX_ID_LENGTH && mixed && endsWord(s, hexEnd) ? hexEnd : -1;
+  }
+
+  private static boolean hasDigit(String s, int from, int to) {
+    for (int p = from; p < to; p++) {
+      if (isDigit(s.charAt(p))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the fraction of a number whose digits end at digitEnd, units may follow as in "1532ms"
+  private static int matchNumber(String s, int digitEnd) {
+    int end = digitEnd;
+    if (charAt(s, end, '.') && digits(s, end + 1, 1) == 1) {
+      end += 1 + digits(s, end + 1, Integer.MAX_VALUE);
+    }
+    return end;
+  }
+}
@@ -0,0 +1,76 @@
+package org.deduplogger.logger;
+
+/**
+ * Compute a 64 bit hash of a message from its format and arguments, without formatting it, so filters called before
+ * the message is formatted can key on it.
+ *
+ * The format and string arguments are hashed char by char, integral numbers on their 64 bits and floating point
+ * numbers on the 64 bits of their double value, so messages whose arguments share a 32-bit hashCode still get
+ * distinct keys. Throwables are hashed on their {@link StackFingerprint}, other arguments through their toString.
+ */
+public final class MessageHash {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private MessageHash() {
+  }
+
+  /**
+   * @param format the format of the message
+   * @param params the arguments of the message, may be null
+   * @param t      the throwable logged with the message, may be null
+   * @return the hash of the message, never 0
+   */
+  public static long hash(String format, Object[] params, Throwable t) {
+    long hash = mix(FNV_OFFSET, format);
+    if (params != null) {
+      for (Object param : params) {
+        hash = mix(hash, param);
+      }
+    }
+    if (t != null) {
+      hash = mix(hash, StackFingerprint.fingerprint(t));
+    }
+    // 0 marks an empty slot of the tables
+    return hash == 0 ? 1 : hash;
+  }
+
+  private static long mix(long hash, Object param) {
+    if (param == null) {
+      return StackFingerprint.mix(hash, 0);
+    }
+    if (param instanceof String) {
+      return mix(hash, (String) param);
+    }
+    if (param instanceof Long || param instanceof Integer || param instanceof Short || param instanceof Byte) {
+      return mix(hash, ((Number) param).longValue());
+    }
+    if (param instanceof Double || param instanceof Float) {
+      return mix(hash, Double.doubleToLongBits(((Number) param).doubleValue()));
+    }
+    if (param instanceof Boolean || param instanceof Character) {
+      return StackFingerprint.mix(hash, param.hashCode());
+    }
+    if (param instanceof Enum) {
+      return mix(hash, ((Enum<?>) param).name());
+    }
+    if (param instanceof Throwable) {
+      return mix(hash, StackFingerprint.fingerprint((Throwable) param));
+    }
+    return mix(hash, String.valueOf(param));
+  }
+
+  /**
+   * Mix a string char by char, and its length so the boundaries of consecutive strings count
+   */
+  private static long mix(long hash, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hash = StackFingerprint.mix(hash, value.charAt(i));
+    }
+    return StackFingerprint.mix(hash, value.length());
+  }
+
+  private static long mix(long hash, long value) {
+    return StackFingerprint.mix(StackFingerprint.mix(hash, (int) value), (int) (value >>> 32));
+  }
+}
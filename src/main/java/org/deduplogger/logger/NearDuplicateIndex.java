@@ -0,0 +1,177 @@
+package org.deduplogger.logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Find the cache entry a message is a near duplicate of, e.g. the same error with a different SQL snippet.
+ *
+ * Every key gets a 64-bit SimHash of its words: similar messages get signatures at a small Hamming distance. The
+ * signatures are split in bands indexed in hash tables, and only the keys sharing at least one band with the message
+ * are compared, so a lookup costs a few bucket scans instead of a scan of the whole cache. A near duplicate within
+ * maxDistance is always found when maxDistance is lower than the number of bands, and with a high probability
+ * otherwise.
+ *
+ * Not thread safe, the LogCache keeps it in sync with its entries under its lock.
+ */
+public class NearDuplicateIndex {
+
+  public static final int DEFAULT_BANDS = 8;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int maxDistance;
+
+  private final int bands;
+
+  private final int bandBits;
+
+  private final Map<String, Long> signatures = new HashMap<>();
+
+  private final List<Map<Integer, List<String>>> buckets;
+
+  /**
+   * @param maxDistance the largest Hamming distance between the signatures of near duplicates, out of 64 bits
+   * @param bands       the number of bands the signatures are split in, between 2 and 32. More bands find more
+   *                    distant near duplicates, but put more keys in each bucket
+   */
+  public NearDuplicateIndex(int maxDistance, int bands) {
+    if (bands < 2 || bands > 32) {
+      throw new IllegalArgumentException("bands must be between 2 and 32 : " + bands);
+    }
+    this.maxDistance = maxDistance;
+    this.bands = bands;
+    this.bandBits = 64 / bands;
+    this.buckets = new ArrayList<>(bands);
+    for (int i = 0; i < bands; i++) {
+      buckets.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * @return the 64-bit SimHash of the words of the message
+   */
+  public static long simHash(String msg) {
+    int[] weights = new int[64];
+    int length = msg.length();
+    int i = 0;
+    while (i < length) {
+      if (!Character.isLetterOrDigit(msg.charAt(i))) {
+        i++;
+        continue;
+      }
+      long hash = FNV_OFFSET;
+      while (i < length && Character.isLetterOrDigit(msg.charAt(i))) {
+        hash = (hash ^ msg.charAt(i)) * FNV_PRIME;
+        i++;
+      }
+      // spread the FNV bits before using every one of them
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      for (int bit = 0; bit < 64; bit++) {
+        weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+      }
+    }
+    long signature = 0;
+    for (int bit = 0; bit < 64; bit++) {
+      if (weights[bit] > 0) {
+        signature |= 1L << bit;
+      }
+    }
+    return signature;
+  }
+
+  /**
+   * Map a message to the indexed key it is a near duplicate of. A message without near duplicate is indexed as a
+   * new key.
+   * @return the nearest indexed key, or msg itself
+   */
+  public String resolve(String msg) {
+    if (signatures.containsKey(msg)) {
+      return msg;
+    }
+    long signature = simHash(msg);
+    String near = findNear(signature);
+    if (near != null) {
+      return near;
+    }
+    add(msg, signature);
+    return msg;
+  }
+
+  /**
+   * @return the indexed key nearest to the signature within maxDistance, null if there is none
+   */
+  public String findNear(long signature) {
+    String nearest = null;
+    int nearestDistance = maxDistance + 1;
+    for (int band = 0; band < bands; band++) {
+      List<String> bucket = buckets.get(band).get(band(signature, band));
+      if (bucket == null) {
+        continue;
+      }
+      for (String key : bucket) {
+        int distance = Long.bitCount(signatures.get(key) ^ signature);
+        if (distance < nearestDistance) {
+          nearest = key;
+          nearestDistance = distance;
+        }
+      }
+    }
+    return nearest;
+  }
+
+  public void add(String key, long signature) {
+    if (signatures.put(key, signature) != null) {
+      return;
+    }
+    for (int band = 0; band < bands; band++) {
+      buckets.get(band).computeIfAbsent(band(signature, band), b -> new ArrayList<>(2)).add(key);
+    }
+  }
+
+  /**
+   * Remove a key evicted from the cache
+   */
+  public void remove(String key) {
+    Long signature = signatures.remove(key);
+    if (signature == null) {
+      return;
+    }
+    for (int band = 0; band < bands; band++) {
+      Map<Integer, List<String>> table = buckets.get(band);
+      int value = band(signature, band);
+      List<String> bucket = table.get(value);
+      if (bucket != null) {
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+          table.remove(value);
+        }
+      }
+    }
+  }
+
+  private int band(long signature, int band) {
+    return (int) ((signature >>> (band * bandBits)) & ((1L << bandBits) - 1));
+  }
+
+  public int size() {
+    return signatures.size();
+  }
+
+  public int getMaxDistance() {
+    return maxDistance;
+  }
+
+  public void clear() {
+    signatures.clear();
+    for (Map<Integer, List<String>> table : buckets) {
+      table.clear();
+    }
+  }
+}
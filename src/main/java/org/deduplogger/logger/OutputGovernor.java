@@ -0,0 +1,280 @@
+package org.deduplogger.logger;
+
+import org.deduplogger.logger.DedupLogger.Level;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A process-wide budget of lines and bytes per second for everything the DedupLoggers write, so a cascading failure
+ * producing many distinct messages cannot saturate the disk or the forwarder.
+ *
+ * Every level may only use the budget up to a ceiling: TRACE and DEBUG are shed first, at half of the budget left to
+ * the non ERROR levels, then INFO at 80% of it, then WARN. ERROR may use the whole budget, so it always gets at least
+ * the reserved errorShare. Shed INFO messages are collapsed into counts per message, truncated, and a "shed N lines"
+ * report of bounded size is written at most once per report interval, by the next log call or by a periodic task
+ * once nothing is logged anymore, and the last one when the DedupLogger is drained. Eviction summaries share the
+ * budget of their level but are counted apart: they are never collapsed, each of them is distinct.
+ *
+ * The accounting is lock free: one counter of lines and one of bytes for the current second, reset by the first
+ * caller of the next second. A caller racing with the reset may be counted in either second.
+ */
+public class OutputGovernor {
+
+  // distinct shed INFO messages counted between two reports
+  public static final int MAX_COLLAPSED = 100;
+
+  // characters of a shed INFO message kept in the report
+  public static final int MAX_COLLAPSED_LENGTH = 200;
+
+  // characters of a report, the collapsed messages beyond are only counted
+  public static final int MAX_REPORT_LENGTH = 8192;
+
+  private static final Level[] LEVELS = Level.values();
+
+  // the shortest period of the task writing the report
+  private static final long MIN_REPORT_PERIOD = 100L;
+
+  private static volatile OutputGovernor installed;
+
+  private static volatile ScheduledExecutorService reporter;
+
+  private final long linesPerSecond;
+
+  private final long bytesPerSecond;
+
+  // by Level ordinal
+  private final long[] lineCeilings = new long[LEVELS.length];
+
+  private final long[] byteCeilings = new long[LEVELS.length];
+
+  private final long reportInterval;
+
+  private final long origin = System.nanoTime();
+
+  private final AtomicLong second = new AtomicLong();
+
+  private final AtomicLong lines = new AtomicLong();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final LongAdder[] shed = new LongAdder[LEVELS.length];
+
+  private final LongAdder totalShed = new LongAdder();
+
+  private final LongAdder shedSummaries = new LongAdder();
+
+  private final Map<String, LongAdder> collapsed = new ConcurrentHashMap<>();
+
+  private final AtomicLong nextReport;
+
+  /**
+   * @param linesPerSecond       the lines written per second by all the loggers, 0 for no limit
+   * @param bytesPerSecond       the characters written per second by all the loggers, 0 for no limit
+   * @param errorShare           the share of the budget reserved to ERROR, between 0 and 1
+   * @param reportIntervalMillis the minimum time between two "shed N lines" reports
+   */
+  public OutputGovernor(long linesPerSecond, long bytesPerSecond, double errorShare, long reportIntervalMillis) {
+    if (errorShare < 0 || errorShare > 1) {
+      throw new IllegalArgumentException("errorShare must be between 0 and 1");
+    }
+    this.linesPerSecond = linesPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    double[] shares = new double[LEVELS.length];
+    shares[Level.TRACE.ordinal()] = (1 - errorShare) * 0.5;
+    shares[Level.DEBUG.ordinal()] = (1 - errorShare) * 0.5;
+    shares[Level.INFO.ordinal()] = (1 - errorShare) * 0.8;
+    shares[Level.WARN.ordinal()] = 1 - errorShare;
+    shares[Level.ERROR.ordinal()] = 1;
+    for (int i = 0; i < LEVELS.length; i++) {
+      lineCeilings[i] = linesPerSecond > 0 ? (long) (linesPerSecond * shares[i]) : Long.MAX_VALUE;
+      byteCeilings[i] = bytesPerSecond > 0 ? (long) (bytesPerSecond * shares[i]) : Long.MAX_VALUE;
+      shed[i] = new LongAdder();
+    }
+    this.reportInterval = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+    this.nextReport = new AtomicLong(reportInterval);
+  }
+
+  /**
+   * Govern the output of every DedupLogger of the process
+   * @param governor the governor, null to remove the budget
+   */
+  public static void install(OutputGovernor governor) {
+    installed = governor;
+  }
+
+  public static OutputGovernor getInstalled() {
+    return installed;
+  }
+
+  /**
+   * Account for a line about to be written
+   * @return true if it fits in the budget of its level, false if it must be shed
+   */
+  boolean admit(Level level, String msg) {
+    return admit(level, msg, false);
+  }
+
+  /**
+   * Same as {@link #admit(Level, String)}, for an eviction summary when summary is true
+   */
+  boolean admit(Level level, String msg, boolean summary) {
+    int size = msg.length();
+    long now = System.nanoTime() - origin;
+    long current = now / 1_000_000_000L;
+    long previous = second.get();
+    if (current != previous && second.compareAndSet(previous, current)) {
+      lines.set(0);
+      bytes.set(0);
+    }
+    int index = level.ordinal();
+    long usedLines = lines.incrementAndGet();
+    long usedBytes = bytes.addAndGet(size);
+    if (usedLines <= lineCeilings[index] && usedBytes <= byteCeilings[index]) {
+      return true;
+    }
+    lines.decrementAndGet();
+    bytes.addAndGet(-size);
+    shed[index].increment();
+    totalShed.increment();
+    if (summary) {
+      shedSummaries.increment();
+    } else if (level == Level.INFO) {
+      String key = msg.length() > MAX_COLLAPSED_LENGTH ? msg.substring(0, MAX_COLLAPSED_LENGTH) + "..." : msg;
+      LongAdder count = collapsed.get(key);
+      if (count == null && collapsed.size() < MAX_COLLAPSED) {
+        count = collapsed.computeIfAbsent(key, k -> new LongAdder());
+      }
+      if (count != null) {
+        count.increment();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Account for characters added to a line already admitted, e.g. its stack trace rendered after the admission. They
+   * count toward the budget of the following lines, the line itself is never shed
+   * @param size the number of characters added
+   */
+  void charge(int size) {
+    if (size > 0) {
+      bytes.addAndGet(size);
+    }
+  }
+
+  /**
+   * Take the report of the lines shed since the last one, at most once per report interval
+   * @return the report, null if it is not due or nothing was shed
+   */
+  String pollReport() {
+    long now = System.nanoTime() - origin;
+    long due = nextReport.get();
+    if (now < due || !nextReport.compareAndSet(due, now + reportInterval)) {
+      return null;
+    }
+    return takeReport();
+  }
+
+  /**
+   * Take the report of the lines shed since the last one, due or not, e.g. when the logger is drained
+   * @return the report, null if nothing was shed
+   */
+  String flushReport() {
+    nextReport.set(System.nanoTime() - origin + reportInterval);
+    return takeReport();
+  }
+
+  /**
+   * Periodically write the report when it is due, from a shared daemon thread, so the report of the last lines shed is
+   * written even if nothing is logged after them
+   * @param sink where to write the report, e.g. the inner logger
+   * @return the scheduled report, to cancel once the sink is closed
+   */
+  ScheduledFuture<?> scheduleReport(Consumer<String> sink) {
+    long period = Math.max(MIN_REPORT_PERIOD, TimeUnit.NANOSECONDS.toMillis(reportInterval));
+    return getReporter().scheduleAtFixedRate(() -> {
+      String report = pollReport();
+      if (report != null) {
+        sink.accept(report);
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService getReporter() {
+    if (reporter == null) {
+      synchronized (OutputGovernor.class) {
+        if (reporter == null) {
+          ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dedup-governor-reporter");
+            t.setDaemon(true);
+            return t;
+          });
+          // a cancelled report releases its sink right away
+          executor.setRemoveOnCancelPolicy(true);
+          reporter = executor;
+        }
+      }
+    }
+    return reporter;
+  }
+
+  private String takeReport() {
+    long[] counts = new long[LEVELS.length];
+    long total = 0;
+    for (int i = 0; i < LEVELS.length; i++) {
+      counts[i] = shed[i].sumThenReset();
+      total += counts[i];
+    }
+    if (total == 0) {
+      return null;
+    }
+    StringBuilder report = new StringBuilder("Output budget exceeded, shed ").append(total).append(" lines (");
+    for (int i = 0; i < LEVELS.length; i++) {
+      report.append(i == 0 ? "" : ", ").append(LEVELS[i]).append('=').append(counts[i]);
+    }
+    report.append(')');
+    long summaries = shedSummaries.sumThenReset();
+    if (summaries > 0) {
+      report.append(", ").append(summaries).append(" of them eviction summaries");
+    }
+    int omitted = 0;
+    Iterator<Map.Entry<String, LongAdder>> itr = collapsed.entrySet().iterator();
+    while (itr.hasNext()) {
+      Map.Entry<String, LongAdder> e = itr.next();
+      if (report.length() + e.getKey().length() + 32 <= MAX_REPORT_LENGTH) {
+        report.append("\nINFO '").append(e.getKey()).append("' x ").append(e.getValue().sum());
+      } else {
+        omitted++;
+      }
+      itr.remove();
+    }
+    if (omitted > 0) {
+      report.append("\nand ").append(omitted).append(" more INFO messages");
+    }
+    return report.toString();
+  }
+
+  /**
+   * @return the number of lines shed since the governor was created
+   */
+  public long getShed() {
+    return totalShed.sum();
+  }
+
+  public long getLinesPerSecond() {
+    return linesPerSecond;
+  }
+
+  public long getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+}
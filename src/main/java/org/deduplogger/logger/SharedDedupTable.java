@@ -0,0 +1,340 @@
+package org.deduplogger.logger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A dedup table shared by every JVM of a host through a memory-mapped file, so a DNS or disk-full error emitted by
+ * a sidecar, a worker and the main service is only written a threshold number of times per window for the whole
+ * host. No daemon and no network: every process maps the same file and updates it with CAS on the mapped memory.
+ *
+ * The table has a fixed number of slots, open addressed by the 64-bit hash of the message. A slot holds the hash and
+ * one word packing the window number (high 32 bits) and the number of occurrences in that window (low 32 bits), so a
+ * counter is reset and incremented with a single CAS. Slots whose window is over are reclaimed by new messages. When
+ * no slot can be found the message is written, the table fails open.
+ *
+ * Counts are approximate: two messages with the same 64-bit hash share a counter, and a slot reclaimed while another
+ * process increments it may lose that occurrence.
+ *
+ * The same table can be allocated in the memory of a single process, as a lock-free counter for logging threads.
+ *
+ * The atomic operations are the ones of sun.misc.Unsafe, looked up by reflection when the class is loaded and called
+ * through constant method handles, so the table compiles against any JDK and the JIT still inlines them.
+ */
+public class SharedDedupTable implements DedupBackend {
+
+  private static final long MAGIC = 0x4444555053484d31L;  // "DDUPSHM1"
+
+  private static final int VERSION = 1;
+
+  // magic, version, capacity, window
+  private static final int HEADER_SIZE = 64;
+
+  private static final int SLOT_SIZE = 16;
+
+  private static final int MAX_PROBES = 32;
+
+  private static final long MAX_COUNT = 0xffffffffL;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  // Unsafe methods bound to the Unsafe instance, all null if it is not available
+  private static final MethodHandle GET_LONG;
+
+  private static final MethodHandle GET_LONG_VOLATILE;
+
+  private static final MethodHandle PUT_LONG_VOLATILE;
+
+  private static final MethodHandle COMPARE_AND_SWAP_LONG;
+
+  private static final long ADDRESS_OFFSET;
+
+  static {
+    MethodHandle getLong = null;
+    MethodHandle getLongVolatile = null;
+    MethodHandle putLongVolatile = null;
+    MethodHandle compareAndSwapLong = null;
+    long offset = -1;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      offset = (long) unsafeClass.getMethod("objectFieldOffset", Field.class)
+          .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+      getLong = lookup.unreflect(unsafeClass.getMethod("getLong", Object.class, long.class)).bindTo(unsafe);
+      getLongVolatile =
+          lookup.unreflect(unsafeClass.getMethod("getLongVolatile", Object.class, long.class)).bindTo(unsafe);
+      putLongVolatile = lookup.unreflect(unsafeClass.getMethod("putLongVolatile", Object.class, long.class,
+                                                               long.class)).bindTo(unsafe);
+      compareAndSwapLong = lookup.unreflect(unsafeClass.getMethod("compareAndSwapLong", Object.class, long.class,
+                                                                  long.class, long.class)).bindTo(unsafe);
+    } catch (Exception | LinkageError e) {
+      getLong = null;
+      getLongVolatile = null;
+      putLongVolatile = null;
+      compareAndSwapLong = null;
+    }
+    GET_LONG = getLong;
+    GET_LONG_VOLATILE = getLongVolatile;
+    PUT_LONG_VOLATILE = putLongVolatile;
+    COMPARE_AND_SWAP_LONG = compareAndSwapLong;
+    ADDRESS_OFFSET = offset;
+  }
+
+  // keeps the mapping alive
+  private final ByteBuffer buffer;
+
+  private final long slots;
+
+  private final int capacity;
+
+  private final long windowMillis;
+
+  private final LongAdder tableFull = new LongAdder();
+
+  private SharedDedupTable(ByteBuffer buffer, int capacity, long windowMillis) {
+    this.buffer = buffer;
+    this.slots = addressOf(buffer) + HEADER_SIZE;
+    this.capacity = capacity;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * @return false if this JVM cannot do atomic operations on mapped memory
+   */
+  public static boolean isSupported() {
+    return COMPARE_AND_SWAP_LONG != null;
+  }
+
+  /**
+   * Map the table, creating the file if it does not exist. The first process creating the file decides the capacity
+   * and the window, the values of the others are ignored.
+   * @param file         the table file, the same path for every JVM of the host
+   * @param capacity     the number of slots, rounded up to a power of two; 16 bytes each
+   * @param windowMillis the duration of a window, the counters are reset every window
+   */
+  public static SharedDedupTable open(Path file, int capacity, long windowMillis) throws IOException {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Atomic operations on mapped memory are not available in this JVM");
+    }
+    int slotCount = slotCount(capacity);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE)) {
+      // the file lock only serializes the creation of the header between processes
+      FileLock lock = channel.lock();
+      try {
+        return map(file, channel, slotCount, windowMillis);
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /*
+   * Create or check the header, then map the slots; called with the file lock held
+   */
+  private static SharedDedupTable map(Path file, FileChannel channel, int slotCount, long windowMillis)
+      throws IOException {
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    if (header.getLong(0) == 0) {
+      header.putInt(8, VERSION);
+      header.putInt(12, slotCount);
+      header.putLong(16, windowMillis);
+      header.putLong(0, MAGIC);
+      header.force();
+    } else if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+      throw new IOException(file + " is not a shared dedup table");
+    }
+    slotCount = header.getInt(12);
+    long window = header.getLong(16);
+    MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+    return new SharedDedupTable(buffer, slotCount, window);
+  }
+
+  /**
+   * Allocate a table in the memory of this process only, off heap.
+   * @param capacity     the number of slots, rounded up to a power of two; 16 bytes each
+   * @param windowMillis the duration of a window, the counters are reset every window
+   */
+  public static SharedDedupTable allocate(int capacity, long windowMillis) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Atomic operations on direct memory are not available in this JVM");
+    }
+    int slotCount = slotCount(capacity);
+    // zeroed, every slot is empty
+    ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + slotCount * SLOT_SIZE);
+    return new SharedDedupTable(buffer, slotCount, windowMillis);
+  }
+
+  private static int slotCount(int capacity) {
+    return Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+  }
+
+  @Override
+  public int admit(String key, int count, int threshold) {
+    return admit(hash(key), count, threshold);
+  }
+
+  /**
+   * Same as {@link #admit(String, int, int)} for a message already hashed by the caller, so the message is never
+   * built when it is suppressed.
+   * @param hash the 64-bit hash of the message, 0 is reserved for the empty slots
+   */
+  @Override
+  public int admit(long hash, int count, int threshold) {
+    if (hash == 0) {
+      hash = 1;
+    }
+    long window = currentWindow();
+    long slot = findSlot(hash, window);
+    if (slot < 0) {
+      tableFull.increment();
+      return count;
+    }
+    while (true) {
+      long word = getLongVolatile(slot + 8);
+      long seen = (word >>> 32) == window ? word & MAX_COUNT : 0;
+      long updated = (window << 32) | Math.min(MAX_COUNT, seen + count);
+      if (compareAndSwapLong(slot + 8, word, updated)) {
+        return (int) Math.max(0, Math.min(count, threshold - seen));
+      }
+    }
+  }
+
+  /**
+   * @return the number of occurrences of the message in the current window, for every process of the host
+   */
+  public long getCount(String key) {
+    long hash = hash(key);
+    long window = currentWindow();
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      long slot = slots + ((hash + probe) & (capacity - 1)) * SLOT_SIZE;
+      long current = getLongVolatile(slot);
+      if (current == 0) {
+        return 0;
+      }
+      if (current == hash) {
+        long word = getLongVolatile(slot + 8);
+        return (word >>> 32) == window ? word & MAX_COUNT : 0;
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * Find or claim the slot of the hash, return its address or -1 if the neighbourhood is full of live messages. The
+   * whole neighbourhood is probed for the hash before a slot is claimed, so a message keeps a single slot
+   */
+  private long findSlot(long hash, long window) {
+    long previous = (window - 1) & MAX_COUNT;
+    while (true) {
+      long empty = -1;
+      long stale = -1;
+      long staleHash = 0;
+      for (int probe = 0; probe < MAX_PROBES; probe++) {
+        long slot = slots + ((hash + probe) & (capacity - 1)) * SLOT_SIZE;
+        long current = getLongVolatile(slot);
+        if (current == hash) {
+          return slot;
+        }
+        if (current == 0) {
+          // slots are never emptied, the hash is not further
+          empty = slot;
+          break;
+        }
+        // a slot not used during this window or the previous one can be reclaimed
+        long slotWindow = getLongVolatile(slot + 8) >>> 32;
+        if (stale < 0 && slotWindow != window && slotWindow != previous) {
+          stale = slot;
+          staleHash = current;
+        }
+      }
+      long slot = stale >= 0 ? stale : empty;
+      if (slot < 0) {
+        return -1;
+      }
+      // publish the hash with a single CAS: the counter of a reclaimed slot holds an old window, which every process
+      // reads as no occurrence, so it needs no reset before the slot is visible
+      if (compareAndSwapLong(slot, stale >= 0 ? staleHash : 0, hash)) {
+        return slot;
+      }
+      // another process claimed the slot, maybe for the same hash, probe again
+    }
+  }
+
+  /*
+   * The Unsafe operations on an absolute address, the method handles are constants so invokeExact is inlined
+   */
+  private static long addressOf(ByteBuffer buffer) {
+    try {
+      return (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static long getLongVolatile(long address) {
+    try {
+      return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static void putLongVolatile(long address, long value) {
+    try {
+      PUT_LONG_VOLATILE.invokeExact((Object) null, address, value);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private static boolean compareAndSwapLong(long address, long expected, long updated) {
+    try {
+      return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, updated);
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private long currentWindow() {
+    return (System.currentTimeMillis() / windowMillis) & MAX_COUNT;
+  }
+
+  private static long hash(String key) {
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < key.length(); i++) {
+      hash = StackFingerprint.mix(hash, key.charAt(i));
+    }
+    // 0 marks an empty slot
+    return hash == 0 ? 1 : hash;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  /**
+   * @return the number of messages written without checking the table because no slot was available
+   */
+  public long getTableFull() {
+    return tableFull.sum();
+  }
+}
@@ -0,0 +1,76 @@
+package org.deduplogger.logger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Compute a 64 bit fingerprint of a throwable straight from its class and StackTraceElements, including the cause
+ * chain, so exceptions can be deduplicated without rendering their stack trace.
+ *
+ * The exception message is deliberately not part of the fingerprint: the same failure at the same place is a
+ * duplicate even if its message carries a different id or value.
+ */
+public final class StackFingerprint {
+
+  // bound the cause chain, it can be arbitrarily long or even cyclic
+  static final int MAX_CAUSE_DEPTH = 16;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private StackFingerprint() {
+  }
+
+  /**
+   * @param t the throwable to fingerprint
+   * @return a hash of the class and stack frames of t and of its causes
+   */
+  public static long fingerprint(Throwable t) {
+    long hash = FNV_OFFSET;
+    Throwable current = t;
+    for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+      hash = mix(hash, current.getClass().getName().hashCode());
+      for (StackTraceElement element : current.getStackTrace()) {
+        hash = mix(hash, element.getClassName().hashCode());
+        hash = mix(hash, element.getMethodName().hashCode());
+        hash = mix(hash, element.getLineNumber());
+      }
+      Throwable cause = current.getCause();
+      current = cause == current ? null : cause;
+    }
+    return hash;
+  }
+
+  /**
+   * Build the key used to deduplicate a message logged with a throwable. The key is short and readable, it is also
+   * the text printed in the eviction summaries.
+   *
+   * @param msg the message accompanying the exception
+   * @param t   the exception
+   * @return "msg\n&lt;exception class&gt; #&lt;fingerprint&gt;"
+   */
+  public static String key(String msg, Throwable t) {
+    return key(msg, t, fingerprint(t));
+  }
+
+  /**
+   * Same as {@link #key(String, Throwable)} with a fingerprint that has already been computed
+   */
+  public static String key(String msg, Throwable t, long fingerprint) {
+    return msg + "\n" + t.getClass().getName() + " #" + Long.toHexString(fingerprint);
+  }
+
+  /**
+   * Render the full message with the stack trace, as written to the inner logger
+   */
+  public static String render(String msg, Throwable t) {
+    return msg + "\n" + ExceptionUtils.getStackTrace(t);
+  }
+
+  /**
+   * Mix a value into a FNV-1a hash
+   */
+  public static long mix(long hash, int value) {
+    return (hash ^ value) * FNV_PRIME;
+  }
+}
@@ -0,0 +1,199 @@
+package org.deduplogger.logger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded LRU cache of rendered stack traces keyed by stack fingerprint, so an exception that keeps recurring
+ * across expiration windows costs a hash lookup instead of a full walk and render.
+ *
+ * Only the frames are cached: the header line is always rendered from the current throwable, and the messages of the
+ * causes and the fingerprints and messages of the suppressed exceptions are part of the cache key, so a cached
+ * rendering is identical to a fresh one.
+ *
+ * When abbreviate is set, a trace that is still in the cache is replaced by "(stack trace seen before, see trace id
+ * X)" and the full rendering is tagged with its trace id.
+ */
+public class StackTraceCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  public static final long DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+  private final int maxEntries;
+
+  private final long maxChars;
+
+  private final boolean abbreviate;
+
+  private final LinkedHashMap<Long, String> traces;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private long chars = 0;
+
+  private long hits = 0;
+
+  private long misses = 0;
+
+  public StackTraceCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS, false);
+  }
+
+  /**
+   * @param maxEntries the maximum number of rendered traces to keep, 0 disables the cache
+   * @param maxChars   the maximum number of characters held by all the rendered traces
+   * @param abbreviate print a reference to the trace id instead of a trace that was rendered before
+   */
+  public StackTraceCache(int maxEntries, long maxChars, boolean abbreviate) {
+    this.maxEntries = maxEntries;
+    this.maxChars = maxChars;
+    this.abbreviate = abbreviate;
+    this.traces = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Render the message followed by the stack trace of t
+   * @param msg         the message accompanying the exception
+   * @param t           the exception
+   * @param fingerprint the {@link StackFingerprint#fingerprint} of t
+   * @return the text to write
+   */
+  public String render(String msg, Throwable t, long fingerprint) {
+    if (maxEntries <= 0) {
+      return StackFingerprint.render(msg, t);
+    }
+    long key = cacheKey(t, fingerprint);
+    String traceId = Long.toHexString(key);
+    String frames;
+    lock.lock();
+    try {
+      frames = traces.get(key);
+      if (frames != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (frames != null) {
+      if (abbreviate) {
+        return msg + "\n" + t + " (stack trace seen before, see trace id " + traceId + ")";
+      }
+      return msg + "\n" + t + frames;
+    }
+    // render outside of the lock
+    String rendered = ExceptionUtils.getStackTrace(t);
+    // everything after the header line, which is t.toString()
+    String header = t.toString();
+    if (rendered.startsWith(header)) {
+      lock.lock();
+      try {
+        put(key, rendered.substring(header.length()));
+      } finally {
+        lock.unlock();
+      }
+    }
+    if (abbreviate) {
+      return msg + "\n[trace id " + traceId + "] " + rendered;
+    }
+    return msg + "\n" + rendered;
+  }
+
+  private void put(long key, String frames) {
+    if (frames.length() > maxChars) {
+      return;
+    }
+    String previous = traces.put(key, frames);
+    chars += frames.length() - (previous == null ? 0 : previous.length());
+    Iterator<Map.Entry<Long, String>> itr = traces.entrySet().iterator();
+    while ((traces.size() > maxEntries || chars > maxChars) && itr.hasNext()) {
+      Map.Entry<Long, String> eldest = itr.next();
+      chars -= eldest.getValue().length();
+      itr.remove();
+    }
+  }
+
+  /*
+   * The fingerprint ignores messages and suppressed exceptions, but the rendering prints the messages of the causes and
+   * the frames and messages of the suppressed exceptions and of their causes, so they are mixed into the key
+   */
+  private static long cacheKey(Throwable t, long fingerprint) {
+    return mixRendered(fingerprint, t, false, 0, Collections.newSetFromMap(new IdentityHashMap<>()));
+  }
+
+  private static long mixRendered(long key, Throwable t, boolean withMessage, int depth, Set<Throwable> seen) {
+    Throwable current = t;
+    for (int i = 0; current != null && i < StackFingerprint.MAX_CAUSE_DEPTH && seen.add(current); i++) {
+      if (withMessage || current != t) {
+        String message = current.getMessage();
+        key = StackFingerprint.mix(key, message == null ? 0 : message.hashCode());
+      }
+      if (depth < StackFingerprint.MAX_CAUSE_DEPTH) {
+        for (Throwable suppressed : current.getSuppressed()) {
+          long suppressedFingerprint = StackFingerprint.fingerprint(suppressed);
+          key = StackFingerprint.mix(StackFingerprint.mix(key, (int) suppressedFingerprint),
+                                     (int) (suppressedFingerprint >>> 32));
+          key = mixRendered(key, suppressed, true, depth + 1, seen);
+        }
+      }
+      Throwable next = current.getCause();
+      current = next == current ? null : next;
+    }
+    return key;
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return traces.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getChars() {
+    lock.lock();
+    try {
+      return chars;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getHits() {
+    lock.lock();
+    try {
+      return hits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getMisses() {
+    lock.lock();
+    try {
+      return misses;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      traces.clear();
+      chars = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
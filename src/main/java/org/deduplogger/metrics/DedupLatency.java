@@ -0,0 +1,96 @@
+package org.deduplogger.metrics;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Optional latency instrumentation of a DedupLogger.
+ *
+ * Disabled unless the JVM is started with -Ddeduplogger.latency.enabled=true. The switch is a static final constant,
+ * so when it is off the JIT removes the timing code from the log path entirely. When it is on,
+ * -Ddeduplogger.latency.reportInterval=&lt;ms&gt; (default 60000, 0 to disable) controls the periodic summary.
+ */
+public class DedupLatency {
+
+  public static final boolean ENABLED = Boolean.getBoolean("deduplogger.latency.enabled");
+
+  public static final long REPORT_INTERVAL = Long.getLong("deduplogger.latency.reportInterval", 60000L);
+
+  private static volatile ScheduledExecutorService reporter;
+
+  // time spent waiting to enter the DedupLogger monitor
+  private final LatencyHistogram monitorWait = new LatencyHistogram("monitorWait");
+
+  // time spent in LogCache.generateSummaryMessage
+  private final LatencyHistogram cacheUpdate = new LatencyHistogram("cacheUpdate");
+
+  // time spent rendering one eviction summary
+  private final LatencyHistogram summaryRender = new LatencyHistogram("summaryRender");
+
+  // time spent writing the eviction summaries to the inner logger
+  private final LatencyHistogram summaryEmit = new LatencyHistogram("summaryEmit");
+
+  public LatencyHistogram getMonitorWait() {
+    return monitorWait;
+  }
+
+  public LatencyHistogram getCacheUpdate() {
+    return cacheUpdate;
+  }
+
+  public LatencyHistogram getSummaryRender() {
+    return summaryRender;
+  }
+
+  public LatencyHistogram getSummaryEmit() {
+    return summaryEmit;
+  }
+
+  public void reset() {
+    monitorWait.reset();
+    cacheUpdate.reset();
+    summaryRender.reset();
+    summaryEmit.reset();
+  }
+
+  /**
+   * @return the percentiles of every histogram, one per line
+   */
+  public String summary() {
+    return "DedupLogger latency\n" + monitorWait + "\n" + cacheUpdate + "\n" + summaryRender + "\n" + summaryEmit;
+  }
+
+  /**
+   * Periodically hand the summary to the given sink, every {@link #REPORT_INTERVAL} ms, from a shared daemon thread
+   * @param sink where to write the summary, e.g. the inner logger
+   * @return the scheduled report, to cancel once the sink is closed; null if the report is disabled
+   */
+  public ScheduledFuture<?> scheduleReport(Consumer<String> sink) {
+    if (REPORT_INTERVAL <= 0) {
+      return null;
+    }
+    return getReporter().scheduleAtFixedRate(() -> sink.accept(summary()), REPORT_INTERVAL, REPORT_INTERVAL,
+                                             TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService getReporter() {
+    if (reporter == null) {
+      synchronized (DedupLatency.class) {
+        if (reporter == null) {
+          ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dedup-latency-reporter");
+            t.setDaemon(true);
+            return t;
+          });
+          // a cancelled report releases its sink right away
+          executor.setRemoveOnCancelPolicy(true);
+          reporter = executor;
+        }
+      }
+    }
+    return reporter;
+  }
+}
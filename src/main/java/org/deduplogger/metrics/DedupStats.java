@@ -0,0 +1,223 @@
+package org.deduplogger.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live statistics of one dedup domain.
+ *
+ * Counters are LongAdders, so recording an event on the log path is a striped, uncontended increment. Gauges (entry
+ * count and memory usage) are read from the owner through a LongSupplier only when JMX asks for them.
+ */
+public class DedupStats implements DedupStatsMBean {
+
+  public static final String JMX_DOMAIN = "org.deduplogger";
+
+  private static final LongSupplier ZERO = () -> 0L;
+
+  // owner of each registered name, so a stale instance never unregisters its replacement
+  private static final ConcurrentMap<ObjectName, DedupStats> REGISTERED = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder suppressed = new LongAdder();
+
+  private final LongAdder sizeEvictions = new LongAdder();
+
+  private final LongAdder timeEvictions = new LongAdder();
+
+  private final LongAdder memoryEvictions = new LongAdder();
+
+  private final LongAdder exitEvictions = new LongAdder();
+
+  private volatile LongSupplier entryCount = ZERO;
+
+  private volatile LongSupplier lruMemoryUsage = ZERO;
+
+  private volatile LongSupplier pqMemoryUsage = ZERO;
+
+  private ObjectName objectName;
+
+  public void recordHit() {
+    hits.increment();
+  }
+
+  public void recordMiss() {
+    misses.increment();
+  }
+
+  public void recordSuppressed() {
+    suppressed.increment();
+  }
+
+  public void recordHits(long count) {
+    hits.add(count);
+  }
+
+  public void recordSuppressed(long count) {
+    suppressed.add(count);
+  }
+
+  public void recordSizeEviction() {
+    sizeEvictions.increment();
+  }
+
+  public void recordTimeEviction() {
+    timeEvictions.increment();
+  }
+
+  public void recordMemoryEviction() {
+    memoryEvictions.increment();
+  }
+
+  public void recordExitEviction() {
+    exitEvictions.increment();
+  }
+
+  public void setEntryCountGauge(LongSupplier gauge) {
+    this.entryCount = gauge;
+  }
+
+  public void setMemoryUsageGauges(LongSupplier lruGauge, LongSupplier pqGauge) {
+    this.lruMemoryUsage = lruGauge;
+    this.pqMemoryUsage = pqGauge;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getSuppressed() {
+    return suppressed.sum();
+  }
+
+  @Override
+  public double getSuppressionRatio() {
+    long total = getHits() + getMisses();
+    return total == 0 ? 0.0 : (double) getSuppressed() / total;
+  }
+
+  @Override
+  public long getSizeEvictions() {
+    return sizeEvictions.sum();
+  }
+
+  @Override
+  public long getTimeEvictions() {
+    return timeEvictions.sum();
+  }
+
+  @Override
+  public long getMemoryEvictions() {
+    return memoryEvictions.sum();
+  }
+
+  @Override
+  public long getExitEvictions() {
+    return exitEvictions.sum();
+  }
+
+  @Override
+  public long getEntryCount() {
+    return entryCount.getAsLong();
+  }
+
+  @Override
+  public long getLruMemoryUsage() {
+    return lruMemoryUsage.getAsLong();
+  }
+
+  @Override
+  public long getPqMemoryUsage() {
+    return pqMemoryUsage.getAsLong();
+  }
+
+  @Override
+  public void reset() {
+    hits.reset();
+    misses.reset();
+    suppressed.reset();
+    sizeEvictions.reset();
+    timeEvictions.reset();
+    memoryEvictions.reset();
+    exitEvictions.reset();
+  }
+
+  /**
+   * Register this MBean on the platform MBean server as org.deduplogger:type=&lt;type&gt;,name=&lt;domain&gt;. An
+   * MBean already registered under the same name (e.g. from a previous log4j configuration) is replaced.
+   *
+   * @param type   the kind of component owning the statistics, e.g. LogCache or DedupFilter
+   * @param domain the dedup domain, e.g. the logger name
+   */
+  public void register(String type, String domain) {
+    register(type, domain, "");
+  }
+
+  /**
+   * Same as {@link #register(String, String)} as org.deduplogger:type=&lt;type&gt;,name=&lt;domain&gt;,id=&lt;id&gt;,
+   * for owners that may share a domain, e.g. two DedupLoggers wrapping the same logger
+   *
+   * @param id the id of the owner, unique in the process
+   */
+  public void register(String type, String domain, int id) {
+    register(type, domain, ",id=" + id);
+  }
+
+  private synchronized void register(String type, String domain, String id) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + ObjectName.quote(type)
+                                       + ",name=" + ObjectName.quote(domain) + id);
+      try {
+        server.registerMBean(this, name);
+      } catch (InstanceAlreadyExistsException e) {
+        server.unregisterMBean(name);
+        server.registerMBean(this, name);
+      }
+      REGISTERED.put(name, this);
+      this.objectName = name;
+    } catch (JMException | SecurityException e) {
+      // Monitoring must never prevent logging
+      System.err.println("Unable to register dedup statistics for " + domain + " : " + e);
+    }
+  }
+
+  /**
+   * Remove this MBean from the platform MBean server if it has been registered.
+   */
+  public synchronized void unregister() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (REGISTERED.remove(objectName, this) && server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    } catch (JMException | SecurityException e) {
+      System.err.println("Unable to unregister dedup statistics " + objectName + " : " + e);
+    }
+    objectName = null;
+  }
+
+  public synchronized ObjectName getObjectName() {
+    return objectName;
+  }
+}
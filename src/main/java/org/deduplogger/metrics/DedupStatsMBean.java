@@ -0,0 +1,68 @@
+package org.deduplogger.metrics;
+
+/**
+ * JMX management interface for the live statistics of one dedup domain (a LogCache owned by a DedupLogger, or a
+ * DedupFilter).
+ */
+public interface DedupStatsMBean {
+
+  /**
+   * @return number of messages that were already present in the cache
+   */
+  long getHits();
+
+  /**
+   * @return number of messages that were not present in the cache
+   */
+  long getMisses();
+
+  /**
+   * @return number of messages that were not written because they were beyond the threshold
+   */
+  long getSuppressed();
+
+  /**
+   * @return suppressed / (hits + misses), 0 if nothing has been seen yet
+   */
+  double getSuppressionRatio();
+
+  /**
+   * @return number of entries evicted because the cache was full ("Cache Full")
+   */
+  long getSizeEvictions();
+
+  /**
+   * @return number of entries evicted because they expired ("Time Expiration")
+   */
+  long getTimeEvictions();
+
+  /**
+   * @return number of entries evicted because the memory limit was reached ("Reach Memory Limit")
+   */
+  long getMemoryEvictions();
+
+  /**
+   * @return number of entries flushed on shutdown ("Program Exit")
+   */
+  long getExitEvictions();
+
+  /**
+   * @return current number of entries in the cache
+   */
+  long getEntryCount();
+
+  /**
+   * @return estimated memory used by the LRU cache in bytes
+   */
+  long getLruMemoryUsage();
+
+  /**
+   * @return estimated memory used by the expiration queue in bytes
+   */
+  long getPqMemoryUsage();
+
+  /**
+   * Reset all the counters. Gauges (entry count and memory usage) are not affected.
+   */
+  void reset();
+}
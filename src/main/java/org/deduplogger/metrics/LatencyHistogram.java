@@ -0,0 +1,136 @@
+package org.deduplogger.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free log-linear histogram of nanosecond latencies, in the spirit of HdrHistogram.
+ *
+ * Values below 32 get their own bucket; above that every power of two is split into 32 linear sub-buckets, so any
+ * recorded value is reported with a relative error below 1/32 (~3%). Recording is a single atomic increment on a
+ * fixed array, it never allocates and never blocks.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final String name;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  private final LongAdder totalCount = new LongAdder();
+
+  private final LongAdder totalValue = new LongAdder();
+
+  private final AtomicLong maxValue = new AtomicLong();
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Record one latency
+   * @param nanos the latency in nanoseconds, negative values are recorded as 0
+   */
+  public void recordValue(long nanos) {
+    long value = nanos < 0 ? 0 : nanos;
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.increment();
+    totalValue.add(value);
+    long max = maxValue.get();
+    while (value > max && !maxValue.compareAndSet(max, value)) {
+      max = maxValue.get();
+    }
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /*
+   * The highest value that falls into the given bucket
+   */
+  static long bucketUpperBound(int idx) {
+    if (idx < SUB_BUCKET_COUNT) {
+      return idx;
+    }
+    int shift = idx / SUB_BUCKET_COUNT - 1;
+    long lowerBound = (long) (SUB_BUCKET_COUNT + idx % SUB_BUCKET_COUNT) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    return totalCount.sum();
+  }
+
+  public long getMax() {
+    return maxValue.get();
+  }
+
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0.0 : (double) totalValue.sum() / count;
+  }
+
+  /**
+   * Get the value at the given percentile
+   * @param percentile a percentile between 0 and 100
+   * @return the highest value of the bucket holding the percentile, 0 if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    double p = Math.min(Math.max(percentile, 0.0), 100.0);
+    long target = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        return Math.min(bucketUpperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.reset();
+    totalValue.reset();
+    maxValue.set(0);
+  }
+
+  /**
+   * @return a one line summary with count, mean, p50, p90, p99, p99.9 and max in microseconds
+   */
+  @Override
+  public String toString() {
+    return String.format("%s: count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                         name, getCount(), getMean() / 1000.0,
+                         getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                         getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0,
+                         getMax() / 1000.0);
+  }
+}
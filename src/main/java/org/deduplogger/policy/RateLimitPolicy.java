@@ -0,0 +1,105 @@
+package org.deduplogger.policy;
+
+import org.deduplogger.logger.DedupBackend;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A suppression policy limiting the rate of every message instead of writing its first occurrences only, so the
+ * output of a sustained failure stays bounded and steady instead of a burst followed by silence.
+ *
+ * The state of every message is updated without lock. The number of messages tracked is bounded: at maxKeys, the
+ * idle states are dropped, then arbitrary ones down to 3/4 of maxKeys, and a dropped message starts again with a full
+ * allowance.
+ * The threshold passed to {@link #admit} is ignored, the rate decides.
+ *
+ * @param <S> the state kept per message
+ */
+public abstract class RateLimitPolicy<S> implements DedupBackend {
+
+  public static final int DEFAULT_MAX_KEYS = 10000;
+
+  // by String key or Long hash of the message
+  private final Map<Object, S> states = new ConcurrentHashMap<>();
+
+  private final int maxKeys;
+
+  private final AtomicBoolean sweeping = new AtomicBoolean();
+
+  // origin of the time, so it is never negative
+  private final long origin = System.nanoTime();
+
+  protected RateLimitPolicy(int maxKeys) {
+    this.maxKeys = maxKeys;
+  }
+
+  @Override
+  public int admit(String key, int count, int threshold) {
+    return admitKey(key, count);
+  }
+
+  @Override
+  public int admit(long hash, int count, int threshold) {
+    return admitKey(hash, count);
+  }
+
+  private int admitKey(Object key, int count) {
+    S state = states.get(key);
+    if (state == null) {
+      if (states.size() >= maxKeys) {
+        sweep();
+      }
+      state = states.computeIfAbsent(key, k -> newState());
+    }
+    return admit(state, count, now());
+  }
+
+  /**
+   * @return the nanoseconds elapsed since the policy was created
+   */
+  protected long now() {
+    return System.nanoTime() - origin;
+  }
+
+  protected abstract S newState();
+
+  /**
+   * Record occurrences against the state of a message, without lock
+   * @return how many of them are allowed
+   */
+  protected abstract int admit(S state, int count, long now);
+
+  /**
+   * @return true if the state is the same as a new one, so dropping it changes nothing
+   */
+  protected abstract boolean isIdle(S state, long now);
+
+  private void sweep() {
+    if (!sweeping.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      long now = now();
+      states.values().removeIf(state -> isIdle(state, now));
+      // leave some room, so the next sweep is not on the next new message
+      int target = maxKeys - maxKeys / 4;
+      Iterator<Object> keys = states.keySet().iterator();
+      while (states.size() > target && keys.hasNext()) {
+        keys.next();
+        keys.remove();
+      }
+    } finally {
+      sweeping.set(false);
+    }
+  }
+
+  /**
+   * @return the number of messages tracked
+   */
+  public int size() {
+    return states.size();
+  }
+}
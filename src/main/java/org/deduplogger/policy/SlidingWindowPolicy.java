@@ -0,0 +1,94 @@
+package org.deduplogger.policy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allow every message at most limit occurrences over any sliding window, approximated with a ring of buckets.
+ *
+ * Each bucket packs its epoch (high 40 bits) and its count (low 24 bits) in one long, so it is reset and incremented
+ * with a single CAS. The occurrences of the buckets of the last window are summed before allowing more, concurrent
+ * callers may overshoot the limit by a few occurrences.
+ */
+public class SlidingWindowPolicy extends RateLimitPolicy<AtomicLongArray> {
+
+  public static final int DEFAULT_BUCKETS = 10;
+
+  private static final int COUNT_BITS = 24;
+
+  private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+  private final int limit;
+
+  private final int buckets;
+
+  private final long bucketNanos;
+
+  /**
+   * @param limit        the number of occurrences allowed per window, per message
+   * @param windowMillis the duration of the window
+   */
+  public SlidingWindowPolicy(int limit, long windowMillis) {
+    this(limit, windowMillis, DEFAULT_BUCKETS, DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * @param buckets the number of buckets the window is split in, more buckets slide more smoothly
+   */
+  public SlidingWindowPolicy(int limit, long windowMillis, int buckets, int maxKeys) {
+    super(maxKeys);
+    if (limit < 0 || buckets < 1 || windowMillis < buckets) {
+      throw new IllegalArgumentException("invalid sliding window " + limit + " per " + windowMillis + "ms");
+    }
+    this.limit = limit;
+    this.buckets = buckets;
+    this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / buckets;
+  }
+
+  @Override
+  protected AtomicLongArray newState() {
+    return new AtomicLongArray(buckets);
+  }
+
+  @Override
+  protected int admit(AtomicLongArray state, int count, long now) {
+    // epochs start at 1 so an empty bucket never counts
+    long epoch = now / bucketNanos + 1;
+    long seen = 0;
+    for (int i = 0; i < buckets; i++) {
+      long value = state.get(i);
+      if (epoch - (value >>> COUNT_BITS) < buckets) {
+        seen += value & COUNT_MASK;
+      }
+    }
+    int allowed = (int) Math.max(0, Math.min(count, limit - seen));
+    if (allowed == 0) {
+      return 0;
+    }
+    int index = (int) (epoch % buckets);
+    while (true) {
+      long value = state.get(index);
+      long current = (value >>> COUNT_BITS) == epoch ? value & COUNT_MASK : 0;
+      long updated = (epoch << COUNT_BITS) | Math.min(COUNT_MASK, current + allowed);
+      if (state.compareAndSet(index, value, updated)) {
+        return allowed;
+      }
+    }
+  }
+
+  @Override
+  protected boolean isIdle(AtomicLongArray state, long now) {
+    long epoch = now / bucketNanos + 1;
+    for (int i = 0; i < buckets; i++) {
+      long value = state.get(i);
+      if (value != 0 && epoch - (value >>> COUNT_BITS) < buckets) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+}
@@ -0,0 +1,76 @@
+package org.deduplogger.policy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allow every message at most rate occurrences per second on average, with bursts of up to burst occurrences.
+ *
+ * The bucket of a message is kept as a single theoretical arrival time (the generic cell rate algorithm): the time
+ * at which the bucket would be full again. An occurrence consumes one emission interval, 1 / rate, and is allowed if
+ * the arrival time stays within burst intervals of now. One CAS per admitted batch of occurrences.
+ */
+public class TokenBucketPolicy extends RateLimitPolicy<AtomicLong> {
+
+  private final double rate;
+
+  private final int burst;
+
+  // nanoseconds per token
+  private final long interval;
+
+  // how far ahead of now the arrival time may be
+  private final long tolerance;
+
+  /**
+   * @param rate  the number of occurrences allowed per second, per message
+   * @param burst the number of occurrences allowed at once, at least 1
+   */
+  public TokenBucketPolicy(double rate, int burst) {
+    this(rate, burst, DEFAULT_MAX_KEYS);
+  }
+
+  public TokenBucketPolicy(double rate, int burst, int maxKeys) {
+    super(maxKeys);
+    if (rate <= 0 || burst < 1) {
+      throw new IllegalArgumentException("rate must be positive and burst at least 1");
+    }
+    this.rate = rate;
+    this.burst = burst;
+    this.interval = Math.max(1L, (long) (1_000_000_000L / rate));
+    this.tolerance = interval * burst;
+  }
+
+  @Override
+  protected AtomicLong newState() {
+    // a full bucket
+    return new AtomicLong(Long.MIN_VALUE);
+  }
+
+  @Override
+  protected int admit(AtomicLong state, int count, long now) {
+    while (true) {
+      long arrival = state.get();
+      long start = Math.max(arrival, now);
+      long allowed = Math.min(count, (now + tolerance - start) / interval);
+      if (allowed <= 0) {
+        return 0;
+      }
+      if (state.compareAndSet(arrival, start + allowed * interval)) {
+        return (int) allowed;
+      }
+    }
+  }
+
+  @Override
+  protected boolean isIdle(AtomicLong state, long now) {
+    return state.get() <= now;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+}
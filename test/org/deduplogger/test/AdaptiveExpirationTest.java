@@ -0,0 +1,74 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.AdaptiveExpiration;
+import org.deduplogger.logger.EvictionSummary;
+import org.deduplogger.logger.LogCache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveExpirationTest {
+
+  @Test
+  public void testPeriodicMessage() {
+    AdaptiveExpiration expiration = new AdaptiveExpiration(1000L, 300000L, 10000L, 100);
+    assertEquals(10000L, expiration.onOccurrence("health check failed", 0L));
+    long window = 0;
+    for (int i = 1; i <= 20; i++) {
+      window = expiration.onOccurrence("health check failed", i * 15000L);
+    }
+    // about SPAN periods of 15s
+    assertTrue("window " + window, window >= 60000L && window < 70000L);
+    assertEquals(window, expiration.getWindow("health check failed"));
+    assertEquals(10000L, expiration.getWindow("never seen"));
+  }
+
+  @Test
+  public void testBounds() {
+    AdaptiveExpiration expiration = new AdaptiveExpiration(1000L, 20000L, 10000L, 100);
+    expiration.onOccurrence("rare", 0L);
+    assertEquals(20000L, expiration.onOccurrence("rare", 3600000L));
+    expiration.onOccurrence("chatty", 0L);
+    assertEquals(1000L, expiration.onOccurrence("chatty", 1L));
+  }
+
+  @Test
+  public void testPeriodicMessageIsDeduplicated() {
+    LogCache cache = new LogCache(50, 1, 10000L, 50 * 1024 * 1024);
+    cache.enableAdaptiveExpiration(1000L, 300000L);
+    List<EvictionSummary> summaries = new ArrayList<>();
+    long now = 0;
+    int written = 0;
+    // a failure every 15s, longer than the 10s time expiration
+    for (int i = 0; i < 40; i++) {
+      now = i * 15000L;
+      cache.expireEntries(now, summaries);
+      written += cache.recordBatchOccurrences("health check failed", 1, now, summaries);
+    }
+    // the window follows the period once the first gap is seen
+    assertTrue("written " + written, written <= 12);
+    assertTrue(summaries.size() >= 1);
+    for (EvictionSummary summary : summaries) {
+      assertEquals("Time Expiration", summary.getReason());
+      assertTrue(summary.getCount() >= 4);
+    }
+  }
+
+  @Test
+  public void testFixedExpiration() {
+    LogCache cache = new LogCache(50, 1, 10000L, 50 * 1024 * 1024);
+    List<EvictionSummary> summaries = new ArrayList<>();
+    int written = 0;
+    for (int i = 0; i < 40; i++) {
+      cache.expireEntries(i * 15000L, summaries);
+      written += cache.recordBatchOccurrences("health check failed", 1, i * 15000L, summaries);
+    }
+    assertEquals(40, written);
+    assertEquals(0, summaries.size());
+  }
+}
@@ -0,0 +1,56 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.LogCache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheSizeTunerTest {
+
+  @Test
+  public void testGrowOnGhostHits() {
+    LogCache cache = new LogCache(50, 1, 100000000L, 50 * 1024 * 1024);
+    cache.enableAdaptiveSize(10, 1000);
+    // 200 messages in a loop thrash a cache of 50
+    for (int round = 0; round < 40; round++) {
+      for (int i = 0; i < 200; i++) {
+        cache.generateEvictionSummaries("msg " + i);
+      }
+    }
+    int capacity = cache.getLruCache().getCapacity();
+    assertTrue("capacity " + capacity, capacity >= 200 && capacity < 1000);
+    assertTrue(cache.getSizeTuner().getGhostHits() > 0);
+    assertEquals(200, cache.getLruCache().size());
+  }
+
+  @Test
+  public void testShrinkToWorkingSet() {
+    LogCache cache = new LogCache(500, 1, 100000000L, 50 * 1024 * 1024);
+    cache.enableAdaptiveSize(10, 1000);
+    for (int i = 0; i < 500; i++) {
+      cache.generateEvictionSummaries("cold " + i);
+    }
+    // then only 20 messages come back
+    for (int round = 0; round < 300; round++) {
+      for (int i = 0; i < 20; i++) {
+        cache.generateEvictionSummaries("hot " + i);
+      }
+    }
+    int capacity = cache.getLruCache().getCapacity();
+    assertTrue("capacity " + capacity, capacity >= 20 && capacity < 100);
+    assertEquals(capacity, cache.getLruCache().size());
+    for (int i = 0; i < 20; i++) {
+      assertTrue(cache.getLruCache().containsKey("hot " + i));
+    }
+  }
+
+  @Test
+  public void testDisable() {
+    LogCache cache = new LogCache(50, 1, 100000000L, 50 * 1024 * 1024);
+    cache.enableAdaptiveSize(10, 1000);
+    cache.enableAdaptiveSize(0, 0);
+    assertEquals(50, cache.getLruCache().getCapacity());
+  }
+}
@@ -0,0 +1,41 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.MessageCanonicalizer;
+
+/**
+ * Measure the cost of MessageCanonicalizer.canonicalize on typical messages.
+ *
+ * Usage: CanonicalizerBenchmark [iterations]
+ */
+public class CanonicalizerBenchmark {
+
+  private static final String[] MESSAGES = {
+      "request 8f2c41d0 failed after 1532ms on host-17",
+      "user 123e4567-e89b-12d3-a456-426614174000 logged in from 10.0.12.255",
+      "job expired at 2024-01-02T03:04:05.123Z, retry 3 of 5",
+      "Connection refused, retrying with the next broker in the list of bootstrap servers",
+      "Processed batch of 512 records in 0.75 seconds, lag is 1200 messages on partition 7",
+  };
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+    // warm up
+    long sink = run(iterations / 5);
+    long start = System.nanoTime();
+    sink += run(iterations);
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("%d messages in %d ms, %.1f ns/msg (%d)%n", iterations, elapsed / 1000000,
+                      (double) elapsed / iterations, sink);
+    for (String msg : MESSAGES) {
+      System.out.println(msg + "\n  -> " + MessageCanonicalizer.canonicalize(msg));
+    }
+  }
+
+  private static long run(int iterations) {
+    long sink = 0;
+    for (int i = 0; i < iterations; i++) {
+      sink += MessageCanonicalizer.canonicalize(MESSAGES[i % MESSAGES.length]).length();
+    }
+    return sink;
+  }
+}
@@ -0,0 +1,114 @@
+package org.deduplogger.test;
+
+import org.deduplogger.cluster.ClusterDedup;
+import org.deduplogger.cluster.CountMinSketch;
+import org.deduplogger.cluster.LoopbackTransport;
+import org.deduplogger.logger.LogCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterDedupTest {
+
+  // a single window for the whole test
+  private static final long WINDOW = Long.MAX_VALUE / 2;
+
+  private ClusterDedup first;
+
+  private ClusterDedup second;
+
+  private ClusterDedup third;
+
+  @Before
+  public void setUp() {
+    LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+    first = new ClusterDedup(hub.connect(), WINDOW, 0);
+    second = new ClusterDedup(hub.connect(), WINDOW, 0);
+    third = new ClusterDedup(hub.connect(), WINDOW, 0);
+  }
+
+  @After
+  public void tearDown() {
+    first.close();
+    second.close();
+    third.close();
+  }
+
+  @Test
+  public void testSketch() {
+    CountMinSketch sketch = new CountMinSketch(4, 1000);
+    assertEquals(1024, sketch.getWidth());
+    long hash = CountMinSketch.hash("dns failure");
+    assertEquals(3, sketch.add(hash, 3));
+    assertEquals(5, sketch.add(hash, 2));
+    assertEquals(5, sketch.estimate(hash));
+    assertEquals(0, sketch.estimate(CountMinSketch.hash("disk full")));
+  }
+
+  @Test
+  public void testSuppressGloballySaturated() {
+    assertEquals(1, first.admit("dns failure", 1, 1));
+    // nothing was gossiped yet, the second node only knows its own counts
+    assertEquals(1, second.admit("dns failure", 1, 1));
+    first.gossipNow();
+    second.gossipNow();
+    assertEquals(0, third.admit("dns failure", 1, 1));
+    assertEquals(3, third.getClusterCount("dns failure"));
+    assertEquals(2, third.getPeerCount());
+    assertEquals(1, third.admit("disk full", 1, 1));
+  }
+
+  @Test
+  public void testGossipReplacesPreviousSketch() {
+    first.admit("dns failure", 4, 1);
+    first.gossipNow();
+    first.gossipNow();
+    assertEquals(4, second.getClusterCount("dns failure"));
+    first.admit("dns failure", 1, 1);
+    first.gossipNow();
+    assertEquals(5, second.getClusterCount("dns failure"));
+    assertEquals(3, second.getPayloadsReceived());
+  }
+
+  @Test
+  public void testNewMessageInFullSketch() {
+    for (int i = 0; i < 20000; i++) {
+      first.admit("distinct message " + i, 1, 1);
+      second.admit("other message " + i, 1, 1);
+    }
+    second.gossipNow();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(1, first.admit("never seen " + i, 1, 1));
+    }
+    // a real duplicate is still suppressed, once its count is above the error of the sketches
+    for (int i = 0; i < 100; i++) {
+      first.admit("dns failure", 1, 1);
+    }
+    assertEquals(0, first.admit("dns failure", 1, 1));
+  }
+
+  @Test
+  public void testSparsePayload() {
+    first.admit("dns failure", 1, 1);
+    first.gossipNow();
+    // one non zero cell per row instead of the full 4 x 2048 counters
+    assertTrue(first.getBytesSent() < 100);
+  }
+
+  @Test
+  public void testLogCacheBackend() {
+    LogCache node1 = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    LogCache node2 = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    node1.setBackend(first);
+    node2.setBackend(second);
+    assertFalse(node1.checkIfDuplicate("dns failure"));
+    node1.generateEvictionSummaries("dns failure");
+    first.gossipNow();
+    assertTrue(node2.checkIfDuplicate("dns failure"));
+  }
+}
@@ -0,0 +1,127 @@
+package org.deduplogger.test;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.deduplogger.filter.DedupFilter;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContextWideDedupFilterTest {
+
+  private static class ListAppender extends AbstractAppender {
+
+    private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+    ListAppender(String name) {
+      super(name, null, null);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+      events.add(event.toImmutable());
+    }
+  }
+
+  private static DedupFilter newFilter(int cacheSize) {
+    return DedupFilter.createFilter("contextWideTest", cacheSize, 1, Filter.Result.NEUTRAL, Filter.Result.DENY);
+  }
+
+  @Test
+  public void testBeforeEventCreation() {
+    DedupFilter filter = newFilter(500);
+    ListAppender appender = new ListAppender("list");
+    appender.start();
+    DefaultConfiguration config = new DefaultConfiguration();
+    config.addFilter(filter);
+    config.getRootLogger().addAppender(appender, null, null);
+    LoggerContext context = new LoggerContext("contextWideTest");
+    context.start(config);
+    try {
+      Logger logger = context.getLogger("test");
+      for (int i = 0; i < 5; i++) {
+        logger.error("disk {} full", "/var");
+        logger.debug("cache miss");
+      }
+      logger.error("disk {} full", "/tmp");
+      assertEquals(2, appender.events.size());
+      assertEquals("disk /tmp full", appender.events.get(1).getMessage().getFormattedMessage());
+      // the DEBUG calls are below the level of the logger
+      assertEquals(4, filter.getStats().getSuppressed());
+      assertEquals(2, filter.getStats().getEntryCount());
+    } finally {
+      context.stop();
+    }
+  }
+
+  @Test
+  public void testIsEnabledNotCounted() {
+    DedupFilter filter = newFilter(500);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.WARN, null, (Object) null, null));
+    }
+    assertEquals(0, filter.getStats().getEntryCount());
+  }
+
+  @Test
+  public void testKeyedWithoutFormatting() {
+    DedupFilter filter = newFilter(500);
+    Message message = new ParameterizedMessage("disk {} full", "/var") {
+      @Override
+      public String getFormattedMessage() {
+        throw new AssertionError("formatted");
+      }
+    };
+    assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.WARN, null, message, null));
+    // the same format and parameters, logged before the event is created or as an event
+    assertEquals(Filter.Result.DENY, filter.filter(null, Level.WARN, null, "disk {} full", "/var"));
+    assertEquals(Filter.Result.DENY, filter.filter(null, Level.WARN, null, message, null));
+    assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.WARN, null, "disk {} full", "/tmp"));
+    assertEquals(2, filter.getStats().getSuppressed());
+  }
+
+  @Test
+  public void testManyProducers() throws InterruptedException {
+    DedupFilter filter = newFilter(4096);
+    int producers = 8;
+    int messages = 1000;
+    AtomicInteger accepted = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      threads[p] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < messages; i++) {
+          if (filter.filter(null, Level.WARN, null, "timeout on shard {}", i) == Filter.Result.NEUTRAL) {
+            accepted.incrementAndGet();
+          }
+        }
+      });
+      threads[p].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    // each message is written once, whatever the producer
+    assertEquals(messages, accepted.get());
+    assertEquals((long) producers * messages - messages, filter.getStats().getSuppressed());
+  }
+}
@@ -0,0 +1,173 @@
+package org.deduplogger.test;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.deduplogger.appender.DedupAppender;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DedupAppenderTest {
+
+  private static class ListAppender extends AbstractAppender {
+
+    private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+    ListAppender(String name) {
+      super(name, null, null);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+      // like a file appender whose stream is closed
+      if (isStarted()) {
+        events.add(event.toImmutable());
+      }
+    }
+  }
+
+  private static LogEvent event(String msg) {
+    return event("test", Level.WARN, msg);
+  }
+
+  private static LogEvent event(String loggerName, Level level, String msg) {
+    return Log4jLogEvent.newBuilder().setLoggerName(loggerName).setLevel(level).setMessage(new SimpleMessage(msg))
+        .setTimeMillis(System.currentTimeMillis()).build();
+  }
+
+  private static DedupAppender newAppender(ListAppender target, long window, int maxEntries) {
+    DefaultConfiguration config = new DefaultConfiguration();
+    target.start();
+    config.addAppender(target);
+    DedupAppender appender = DedupAppender.createAppender(
+        "dedupAppenderTest", new AppenderRef[]{AppenderRef.createAppenderRef(target.getName(), null, null)}, 1,
+        window, maxEntries, null, config);
+    assertNotNull(appender);
+    appender.start();
+    return appender;
+  }
+
+  @Test
+  public void testSummaryOnStop() {
+    ListAppender target = new ListAppender("target");
+    DedupAppender appender = newAppender(target, 100000L, 100);
+    for (int i = 0; i < 5; i++) {
+      appender.append(event("disk full"));
+    }
+    appender.append(event("other"));
+    assertEquals(2, target.events.size());
+    assertEquals(4, appender.getStats().getSuppressed());
+
+    appender.stop(1, TimeUnit.SECONDS);
+    assertEquals(3, target.events.size());
+    LogEvent summary = target.events.get(2);
+    assertTrue(summary.getMessage().getFormattedMessage().startsWith(
+        "Program Exit : Evict Msg 'disk full'. This Message Appears 5 Time(s) In Total and Was Logged 1 Time(s)"));
+    assertEquals(Level.WARN, summary.getLevel());
+    assertEquals(DedupAppender.SUMMARY_MARKER, summary.getMarker());
+  }
+
+  @Test
+  public void testSummaryKeepsMarker() {
+    ListAppender target = new ListAppender("marked");
+    DedupAppender appender = newAppender(target, 100000L, 100);
+    Marker audit = MarkerManager.getMarker("AUDIT");
+    for (int i = 0; i < 3; i++) {
+      appender.append(Log4jLogEvent.newBuilder().setLoggerName("test").setLevel(Level.WARN).setMarker(audit)
+                          .setMessage(new SimpleMessage("login failed")).build());
+    }
+    appender.stop(1, TimeUnit.SECONDS);
+    Marker marker = target.events.get(1).getMarker();
+    assertTrue(marker.isInstanceOf(DedupAppender.SUMMARY_MARKER));
+    assertTrue(marker.isInstanceOf(audit));
+    assertFalse(MarkerManager.exists(DedupAppender.SUMMARY_MARKER.getName() + ".AUDIT"));
+  }
+
+  @Test
+  public void testSummaryOnExpiration() throws InterruptedException {
+    ListAppender target = new ListAppender("expiring");
+    DedupAppender appender = newAppender(target, 100L, 100);
+    appender.append(event("disk full"));
+    appender.append(event("disk full"));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (target.events.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(2, target.events.size());
+    assertTrue(target.events.get(1).getMessage().getFormattedMessage().startsWith("Time Expiration : Evict Msg"));
+
+    // a new window starts
+    appender.append(event("disk full"));
+    assertEquals(3, target.events.size());
+    appender.stop(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testKeyedOnLoggerAndLevel() {
+    ListAppender target = new ListAppender("keyed");
+    DedupAppender appender = newAppender(target, 100000L, 100);
+    appender.append(event("db", Level.WARN, "timeout"));
+    appender.append(event("http", Level.WARN, "timeout"));
+    appender.append(event("db", Level.ERROR, "timeout"));
+    appender.append(event("db", Level.WARN, "timeout"));
+    assertEquals(3, target.events.size());
+    assertEquals(3, appender.getStats().getEntryCount());
+    appender.stop(1, TimeUnit.SECONDS);
+    assertEquals("db", target.events.get(3).getLoggerName());
+  }
+
+  @Test
+  public void testSummaryBeforeTargetStops() {
+    DefaultConfiguration config = new DefaultConfiguration();
+    ListAppender target = new ListAppender("stopping");
+    target.start();
+    config.addAppender(target);
+    DedupAppender appender = DedupAppender.createAppender(
+        "dedupAppenderStop", new AppenderRef[]{AppenderRef.createAppenderRef(target.getName(), null, null)}, 1,
+        100000L, 100, null, config);
+    assertNotNull(appender);
+    config.addAppender(appender);
+    config.getRootLogger().addAppender(appender, null, null);
+    appender.start();
+    appender.append(event("disk full"));
+    appender.append(event("disk full"));
+    assertEquals(1, target.events.size());
+
+    // the order the configuration stops them in: the loggers first, then the appenders in any order
+    config.getRootLogger().stop(1, TimeUnit.SECONDS);
+    target.stop();
+    appender.stop(1, TimeUnit.SECONDS);
+    assertEquals(2, target.events.size());
+    assertTrue(target.events.get(1).getMessage().getFormattedMessage().startsWith("Program Exit : Evict Msg"));
+  }
+
+  @Test
+  public void testBoundedEntries() {
+    ListAppender target = new ListAppender("bounded");
+    DedupAppender appender = newAppender(target, 100000L, 2);
+    for (int i = 0; i < 2; i++) {
+      appender.append(event("a"));
+      appender.append(event("b"));
+      appender.append(event("c"));
+    }
+    // c is not counted, so it is never deduplicated
+    assertEquals(4, target.events.size());
+    assertEquals(2, appender.getStats().getEntryCount());
+    appender.stop(1, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,154 @@
+package org.deduplogger.test;
+
+import org.deduplogger.jul.DedupJulFilter;
+import org.deduplogger.jul.DedupJulHandler;
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.DedupPipeline;
+import org.deduplogger.logger.DedupPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DedupJulFilterTest {
+
+  private static class ListHandler extends Handler {
+
+    private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(LogRecord record) {
+      records.add(record);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private final Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+
+  private final ListHandler handler = new ListHandler();
+
+  private Logger julLogger;
+
+  private DedupLogger dedupLogger;
+
+  @Before
+  public void setUp() {
+    julLogger = Logger.getAnonymousLogger();
+    julLogger.setUseParentHandlers(false);
+    julLogger.addHandler(handler);
+    julLogger.setLevel(Level.ALL);
+    EventRecodingLogger recorder =
+        new EventRecodingLogger(new SubstituteLogger("dedupJulFilterTest", events, false), events);
+    dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    DedupJulFilter.install(julLogger, dedupLogger);
+  }
+
+  @Test
+  public void testKeyedOnPatternAndParameters() {
+    for (int i = 0; i < 5; i++) {
+      julLogger.log(Level.WARNING, "disk {0} full", "/var");
+    }
+    assertEquals(1, handler.records.size());
+    assertEquals(4, dedupLogger.getLogCache().getStats().getSuppressed());
+
+    // evicts the first message from the cache of size 1, its summary is written through the DedupLogger
+    julLogger.log(Level.WARNING, "disk {0} full", "/tmp");
+    assertEquals(2, handler.records.size());
+    assertEquals(1, events.size());
+    assertTrue(events.peek().getMessage().contains("Evict Msg 'disk {0} full [/var]'. This Message Appears 5 Time(s)"));
+  }
+
+  @Test
+  public void testSharedWithDedupLogger() {
+    dedupLogger.warn("connection reset");
+    julLogger.warning("connection reset");
+    assertEquals(0, handler.records.size());
+  }
+
+  @Test
+  public void testLevelPolicy() {
+    dedupLogger.setPolicy(org.slf4j.event.Level.DEBUG, DedupPolicy.disabled());
+    for (int i = 0; i < 3; i++) {
+      julLogger.fine("retrying");
+      julLogger.info("started");
+    }
+    assertEquals(4, handler.records.size());
+  }
+
+  @Test
+  public void testNearDuplicates() {
+    dedupLogger.setNearDuplicateDistance(12);
+    julLogger.warning("Query failed on orders-db: SELECT id, total FROM orders WHERE customer_id = ? AND status = "
+                      + "'OPEN' : lock wait timeout exceeded");
+    julLogger.warning("Query failed on orders-db: SELECT id, total FROM orders WHERE region = ? AND status = "
+                      + "'OPEN' : lock wait timeout exceeded");
+    assertEquals(1, handler.records.size());
+  }
+
+  @Test
+  public void testWithRingBuffer() {
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("ringBuffer", events, false), events);
+    DedupLogger async = new DedupLogger(recorder, 10, 1, 100000L, 50, 64, DedupPipeline.Backpressure.BLOCK);
+    Logger logger = Logger.getAnonymousLogger();
+    logger.setUseParentHandlers(false);
+    logger.addHandler(handler);
+    DedupJulFilter.install(logger, async);
+    for (int i = 0; i < 3; i++) {
+      logger.warning("connection reset");
+    }
+    assertEquals(1, handler.records.size());
+    assertEquals(2, async.getLogCache().getStats().getSuppressed());
+    async.drain(1000L);
+  }
+
+  @Test
+  public void testHandlerDedupsChildLoggers() {
+    ListHandler bridge = new ListHandler();
+    DedupJulHandler dedupHandler = new DedupJulHandler(bridge, dedupLogger);
+    Logger parent = Logger.getLogger("dedupJulFilterTest");
+    Logger child = Logger.getLogger("dedupJulFilterTest.http.client");
+    parent.setUseParentHandlers(false);
+    parent.addHandler(dedupHandler);
+    try {
+      for (int i = 0; i < 3; i++) {
+        child.warning("connection reset");
+      }
+      parent.warning("connection reset");
+      assertEquals(1, bridge.records.size());
+      assertEquals(3, dedupLogger.getLogCache().getStats().getSuppressed());
+    } finally {
+      parent.removeHandler(dedupHandler);
+    }
+  }
+
+  @Test
+  public void testExistingFilterFirst() {
+    julLogger.setFilter(record -> record.getLevel() != Level.FINEST);
+    DedupJulFilter.install(julLogger, dedupLogger);
+    julLogger.finest("ignored");
+    julLogger.finest("ignored");
+    assertEquals(0, handler.records.size());
+    assertEquals(0, dedupLogger.getLogCache().getLruCache().size());
+  }
+}
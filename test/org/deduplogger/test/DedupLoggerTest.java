@@ -105,6 +105,18 @@ public class DedupLoggerTest {
   }
 
   //
+  @Test
+  public void testExceptionDedupByFingerprint() {
+    testLogger.getLogCache().getLruCache().clear();
+    for (int i = 0; i < 3; i++) {
+      testLogger.error("request failed", new IllegalStateException("request " + i));
+    }
+    assertEquals(1, testLogger.getLogCache().getLruCache().size());
+    String key = testLogger.getLogCache().getLruCache().keySet().iterator().next();
+    assertEquals(true, key.startsWith("request failed\njava.lang.IllegalStateException #"));
+    assertEquals(3, testLogger.getLogCache().getLruCache().get(key).getTimeStamp().size());
+  }
+
   @Test
   public void testTraceBasic() {
     testLogger.getLogCache().getLruCache().clear();
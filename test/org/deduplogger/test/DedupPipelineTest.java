@@ -0,0 +1,207 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.DedupPipeline;
+
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DedupPipelineTest {
+
+  private static EventRecodingLogger recorder(Queue<SubstituteLoggingEvent> events) {
+    return new EventRecodingLogger(new SubstituteLogger("pipeline", events, false), events);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    DedupLogger logger = new DedupLogger(recorder(events), 100, 1, 100000L, 50, 64,
+                                         DedupPipeline.Backpressure.BLOCK);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          logger.info("message {}", i % 10);
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    executor.shutdown();
+    assertTrue(logger.getPipeline().shutdown(10000));
+
+    assertEquals(10, events.size());
+    assertEquals(0, logger.getPipeline().getDropped());
+    assertEquals(10, logger.getLogCache().getLruCache().size());
+    assertEquals(8000, logger.getLogCache().getLruCache().get("message 3").getTimeStamp().size());
+  }
+
+  @Test
+  public void testShutdownWhileProducing() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    DedupLogger logger = new DedupLogger(recorder(events), 100, 1, 100000L, 50, 64,
+                                         DedupPipeline.Backpressure.BLOCK);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch started = new CountDownLatch(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(executor.submit(() -> {
+        started.countDown();
+        for (int i = 0; i < 10000; i++) {
+          logger.info("message {}", i % 10);
+        }
+      }));
+    }
+    started.await();
+    // the producers fall back to the caller thread while the consumer drains
+    logger.getPipeline().shutdown(10000);
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    executor.shutdown();
+
+    // no event lost in the ring, no update lost in the cache
+    assertEquals(10, events.size());
+    long total = 0;
+    for (int i = 0; i < 10; i++) {
+      total += logger.getLogCache().getLruCache().get("message " + i).getTimeStamp().size();
+    }
+    assertEquals(80000, total);
+  }
+
+  @Test
+  public void testFormattingAndThrowableOnConsumer() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    DedupLogger logger = new DedupLogger(recorder(events), 100, 1, 100000L, 50, 8,
+                                         DedupPipeline.Backpressure.BLOCK);
+    logger.warn("{} and {}", "a", "b");
+    for (int i = 0; i < 2; i++) {
+      logger.warn("failed {}", "x", new IllegalStateException("boom"));
+    }
+    assertTrue(logger.getPipeline().shutdown(10000));
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(2, logged.size());
+    assertEquals("a and b", logged.get(0).getMessage());
+    assertTrue(logged.get(1).getMessage().startsWith("failed x\njava.lang.IllegalStateException: boom"));
+
+    // after shutdown the logger deduplicates on the caller thread
+    logger.warn("late");
+    assertEquals(3, events.size());
+  }
+
+  @Test
+  public void testCallerMdcRestored() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    List<String> requestIds = new ArrayList<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("mdc", events, false), events) {
+      @Override
+      public void info(String msg) {
+        requestIds.add(MDC.get("requestId"));
+        super.info(msg);
+      }
+    };
+    DedupLogger logger = new DedupLogger(recorder, 100, 1, 100000L, 50, 8, DedupPipeline.Backpressure.BLOCK);
+    MDC.put("requestId", "42");
+    try {
+      logger.info("started");
+    } finally {
+      MDC.remove("requestId");
+    }
+    logger.info("stopped");
+    assertTrue(logger.getPipeline().shutdown(10000));
+    assertEquals(Arrays.asList("42", null), requestIds);
+  }
+
+  @Test
+  public void testDropDuplicatesKeyedOnArguments() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    EventRecodingLogger slow = new EventRecodingLogger(new SubstituteLogger("slow", events, false), events) {
+      @Override
+      public void info(String msg) {
+        if (msg.equals("blocking")) {
+          blocked.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        super.info(msg);
+      }
+    };
+    DedupLogger logger = new DedupLogger(slow, 100, 1, 100000L, 50, 4,
+                                         DedupPipeline.Backpressure.DROP_DUPLICATES_FIRST);
+    logger.info("user {} locked", "alice");
+    logger.info("user {} locked", "alice");
+    logger.info("blocking");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      blocked.await();
+      // 3 slots are free, then the ring is full and the suppressed message is dropped
+      for (int i = 0; i < 5; i++) {
+        logger.info("user {} locked", "alice");
+      }
+      assertEquals(2, logger.getPipeline().getDroppedDuplicates());
+      // the same format with other arguments waits for a slot
+      Future<?> waiting = executor.submit(() -> logger.info("user {} locked", "bob"));
+      Thread.sleep(100);
+      assertFalse(waiting.isDone());
+      release.countDown();
+      waiting.get();
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+    assertTrue(logger.getPipeline().shutdown(10000));
+    assertEquals(2, logger.getPipeline().getDropped());
+    assertEquals(3, events.size());
+    assertEquals("user bob locked", new ArrayList<>(events).get(2).getMessage());
+  }
+
+  @Test
+  public void testDropNewestWhenFull() throws Exception {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    CountDownLatch release = new CountDownLatch(1);
+    EventRecodingLogger slow = new EventRecodingLogger(new SubstituteLogger("slow", events, false), events) {
+      @Override
+      public void info(String msg) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.info(msg);
+      }
+    };
+    DedupLogger logger = new DedupLogger(slow, 100, 1, 100000L, 50, 4, DedupPipeline.Backpressure.DROP_NEWEST);
+    for (int i = 0; i < 100; i++) {
+      logger.info("unique " + i);
+    }
+    release.countDown();
+    assertTrue(logger.getPipeline().shutdown(10000));
+    assertTrue(logger.getPipeline().getDropped() >= 95);
+    assertEquals(100 - logger.getPipeline().getDropped(), events.size());
+  }
+}
@@ -0,0 +1,124 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.DedupPolicy;
+
+import org.junit.Test;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.Level;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+
+public class DedupPolicyTest {
+
+  private static final Marker AUDIT = MarkerFactory.getMarker("AUDIT");
+
+  private final Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+
+  private DedupLogger newLogger(String name) {
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger(name, events, false), events);
+    return new DedupLogger(recorder, 2, 1, 100000L, 50);
+  }
+
+  private int count(String msg) {
+    int count = 0;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().equals(msg)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testDebugFloodKeepsErrors() {
+    DedupLogger dedupLogger = newLogger("partitioned");
+    dedupLogger.setPolicy(Level.DEBUG, new DedupPolicy(2, 1, 100000L, 10));
+    dedupLogger.error("disk full");
+    dedupLogger.error("disk full");
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.debug("cache miss " + i);
+    }
+    dedupLogger.error("disk full");
+    assertEquals(1, count("disk full"));
+    assertEquals(1, dedupLogger.getLogCache().getLruCache().size());
+  }
+
+  @Test
+  public void testSharedCacheWithoutPolicy() {
+    DedupLogger dedupLogger = newLogger("shared");
+    dedupLogger.error("disk full");
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.debug("cache miss " + i);
+    }
+    dedupLogger.error("disk full");
+    // evicted by the DEBUG messages
+    assertEquals(2, count("disk full"));
+  }
+
+  @Test
+  public void testLoggerFeaturesApplyToPartitions() {
+    String selectByCustomer = "Query failed on orders-db: SELECT id, total FROM orders WHERE customer_id = ? AND "
+                              + "status = 'OPEN' : lock wait timeout exceeded";
+    String selectByRegion = "Query failed on orders-db: SELECT id, total FROM orders WHERE region = ? AND "
+                            + "status = 'OPEN' : lock wait timeout exceeded";
+    DedupLogger before = newLogger("nearBefore");
+    before.setNearDuplicateDistance(12);
+    before.setPolicy(Level.WARN, new DedupPolicy(10, 1, 100000L, 10));
+    before.warn(selectByCustomer);
+    before.warn(selectByRegion);
+
+    DedupLogger after = newLogger("nearAfter");
+    after.setPolicy(Level.WARN, new DedupPolicy(10, 1, 100000L, 10));
+    after.setNearDuplicateDistance(12);
+    after.warn(selectByCustomer);
+    after.warn(selectByRegion);
+
+    assertEquals(2, count(selectByCustomer));
+    assertEquals(0, count(selectByRegion));
+  }
+
+  @Test
+  public void testMarkerWithoutDedup() {
+    DedupLogger dedupLogger = newLogger("audit");
+    dedupLogger.setPolicy(AUDIT, DedupPolicy.disabled());
+    for (int i = 0; i < 3; i++) {
+      dedupLogger.info(AUDIT, "user admin logged in");
+      dedupLogger.info("user admin logged in");
+    }
+    assertEquals(4, count("user admin logged in"));
+  }
+
+  @Test
+  public void testReplacedMarkerSummaryAtRecordedLevel() {
+    DedupLogger dedupLogger = newLogger("replaced");
+    dedupLogger.setPriorityEviction(5);
+    dedupLogger.setPolicy(AUDIT, new DedupPolicy(10, 1, 100000L, 10));
+    for (int i = 0; i < 3; i++) {
+      dedupLogger.error(AUDIT, "permission denied");
+    }
+    events.clear();
+    dedupLogger.setPolicy(AUDIT, DedupPolicy.disabled());
+    assertEquals(1, events.size());
+    assertEquals(Level.ERROR, events.peek().getLevel());
+    assertEquals(AUDIT, events.peek().getMarker());
+  }
+
+  @Test
+  public void testBatchWithoutDedup() {
+    DedupLogger dedupLogger = newLogger("batch");
+    dedupLogger.setPolicy(Level.INFO, DedupPolicy.disabled());
+    dedupLogger.logAll(Level.INFO, Arrays.asList("started", "started"));
+    dedupLogger.logAll(Level.WARN, Arrays.asList("slow", "slow"));
+    assertEquals(2, count("started"));
+    assertEquals(1, count("slow"));
+  }
+}
@@ -0,0 +1,113 @@
+package org.deduplogger.test;
+
+import org.deduplogger.filter.DedupFilter;
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.LogCache;
+import org.deduplogger.metrics.DedupStats;
+
+import org.apache.logging.log4j.core.Filter;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DedupStatsTest {
+
+  @Test
+  public void testLogCacheCounters() {
+    LogCache cache = new LogCache(2, 1, 100000000L, 50 * 1024 * 1024);
+    for (String msg : new String[]{"A", "A", "A", "B", "C"}) {
+      cache.checkIfDuplicate(msg);
+      cache.generateSummaryMessage(msg);
+    }
+    DedupStats stats = cache.getStats();
+    assertEquals(2, stats.getHits());
+    assertEquals(3, stats.getMisses());
+    assertEquals(2, stats.getSuppressed());
+    assertEquals(1, stats.getSizeEvictions());
+    assertEquals(2, stats.getEntryCount());
+    assertTrue(stats.getLruMemoryUsage() > 0);
+    assertTrue(stats.getPqMemoryUsage() > 0);
+
+    cache.flushAllMessages();
+    assertEquals(0, stats.getExitEvictions());
+
+    stats.reset();
+    assertEquals(0, stats.getHits());
+    assertEquals(0.0, stats.getSuppressionRatio(), 0.0);
+  }
+
+  @Test
+  public void testFilterRegistration() throws Exception {
+    DedupFilter filter = DedupFilter.createFilter("statsTest", 1, 1, null, null);
+    filter.start();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = filter.getStats().getObjectName();
+    assertTrue(server.isRegistered(name));
+
+    assertEquals(Filter.Result.ACCEPT, filter.filter(null, null, null, "a", (Object[]) null));
+    assertEquals(Filter.Result.DENY, filter.filter(null, null, null, "a", (Object[]) null));
+    assertEquals(Filter.Result.ACCEPT, filter.filter(null, null, null, "b", (Object[]) null));
+    assertEquals(2L, server.getAttribute(name, "Misses"));
+    assertEquals(1L, server.getAttribute(name, "Suppressed"));
+    assertEquals(1L, server.getAttribute(name, "SizeEvictions"));
+
+    // a newer filter with the same name replaces the MBean and is not unregistered by the stale one
+    DedupFilter replacement = DedupFilter.createFilter("statsTest", 1, 1, null, null);
+    replacement.start();
+    filter.stop();
+    assertTrue(server.isRegistered(name));
+    replacement.stop();
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test
+  public void testLoggerRegistration() {
+    org.slf4j.Logger logger = LoggerFactory.getLogger("statsTest");
+    DedupLogger first = new DedupLogger(logger);
+    DedupLogger second = new DedupLogger(logger);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName firstName = first.getLogCache().getStats().getObjectName();
+    ObjectName secondName = second.getLogCache().getStats().getObjectName();
+    assertNotEquals(firstName, secondName);
+    assertTrue(server.isRegistered(firstName));
+    assertTrue(server.isRegistered(secondName));
+
+    first.drain(1000L);
+    assertFalse(server.isRegistered(firstName));
+    assertTrue(server.isRegistered(secondName));
+    second.drain(1000L);
+    assertFalse(server.isRegistered(secondName));
+  }
+
+  @Test
+  public void testLoggerUnregisteredOnClose() {
+    DedupLogger logger = new DedupLogger(LoggerFactory.getLogger("statsTest"));
+    ObjectName name = logger.getLogCache().getStats().getObjectName();
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    logger.close();
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void testUnnamedFiltersRegisteredApart() {
+    DedupFilter first = DedupFilter.createFilter(null, 1, 1, null, null);
+    DedupFilter second = DedupFilter.createFilter(null, 1, 1, null, null);
+    first.start();
+    second.start();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName secondName = second.getStats().getObjectName();
+    assertNotEquals(first.getStats().getObjectName(), secondName);
+    first.stop();
+    assertTrue(server.isRegistered(secondName));
+    second.stop();
+    assertFalse(server.isRegistered(secondName));
+  }
+}
@@ -0,0 +1,117 @@
+package org.deduplogger.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.deduplogger.filter.DedupTurboFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DedupTurboFilterTest {
+
+  private LoggerContext context;
+
+  private DedupTurboFilter filter;
+
+  private ListAppender<ILoggingEvent> appender;
+
+  private Logger logger;
+
+  @Before
+  public void setUp() {
+    context = new LoggerContext();
+    filter = new DedupTurboFilter();
+    filter.setName("dedupTurboFilterTest");
+    filter.setContext(context);
+    filter.setThreshold(2);
+    filter.start();
+    context.addTurboFilter(filter);
+
+    appender = new ListAppender<>();
+    appender.setContext(context);
+    appender.start();
+    logger = context.getLogger("test");
+    logger.setLevel(Level.INFO);
+    logger.addAppender(appender);
+  }
+
+  @After
+  public void tearDown() {
+    context.stop();
+  }
+
+  @Test
+  public void testSuppressedBeforeFormatting() {
+    for (int i = 0; i < 5; i++) {
+      logger.warn("disk {} full", "/var");
+    }
+    logger.warn("disk {} full", "/tmp");
+    assertEquals(3, appender.list.size());
+    assertEquals("disk /var full", appender.list.get(0).getFormattedMessage());
+    assertEquals("disk /tmp full", appender.list.get(2).getFormattedMessage());
+    assertEquals(3, filter.getStats().getSuppressed());
+  }
+
+  @Test
+  public void testArgumentsKeyedOnToString() {
+    for (int i = 0; i < 5; i++) {
+      logger.warn("slow request {}", new StringBuilder("GET /health"));
+    }
+    assertEquals(2, appender.list.size());
+  }
+
+  @Test
+  public void testCollidingHashCodesKeptApart() {
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertEquals(Long.valueOf(1L).hashCode(), Long.valueOf(1L << 32).hashCode());
+    for (int i = 0; i < 2; i++) {
+      logger.warn("user {} locked", "Aa");
+      logger.warn("user {} locked", "BB");
+      logger.warn("offset {} invalid", 1L);
+      logger.warn("offset {} invalid", 1L << 32);
+      logger.warn("Aa");
+      logger.warn("BB");
+    }
+    assertEquals(12, appender.list.size());
+    assertEquals(0, filter.getStats().getSuppressed());
+  }
+
+  @Test
+  public void testThrowablesKeyedOnStack() {
+    for (int i = 0; i < 3; i++) {
+      logger.warn("request failed", new IllegalStateException("here"));
+      logger.warn("request failed", failElsewhere());
+    }
+    assertEquals(4, appender.list.size());
+  }
+
+  private static Exception failElsewhere() {
+    return new IllegalStateException("there");
+  }
+
+  @Test
+  public void testDisabledLevelNotCounted() {
+    for (int i = 0; i < 5; i++) {
+      logger.debug("cache miss");
+    }
+    logger.setLevel(Level.DEBUG);
+    logger.debug("cache miss");
+    assertEquals(1, appender.list.size());
+    assertEquals(0, filter.getStats().getSuppressed());
+  }
+
+  @Test
+  public void testStop() {
+    filter.stop();
+    for (int i = 0; i < 5; i++) {
+      logger.warn("disk full");
+    }
+    assertEquals(5, appender.list.size());
+  }
+}
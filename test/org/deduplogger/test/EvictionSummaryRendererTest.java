@@ -0,0 +1,60 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.EvictionSummaryRenderer;
+import org.deduplogger.logger.LogCache;
+import org.deduplogger.logger.LogMetadata;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionSummaryRendererTest {
+
+  private static String legacyFormat(long timestamp) {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return sdf.format(new Date(timestamp));
+  }
+
+  @Test
+  public void testTimestampFormat() {
+    EvictionSummaryRenderer renderer = new EvictionSummaryRenderer(ZoneId.of("UTC"));
+    // 2020-12-31 is in week-year 2021, "YYYY" used to print the wrong year
+    long[] timestamps = {0L, 5L, 1609372800042L, 1609372800042L + 958, 1609372801000L, 1609459199999L};
+    for (long ts : timestamps) {
+      StringBuilder out = new StringBuilder();
+      renderer.appendTimestamp(out, ts);
+      assertEquals(legacyFormat(ts), out.toString());
+    }
+  }
+
+  @Test
+  public void testSummaryFormat() {
+    LogMetadata metadata = new LogMetadata();
+    metadata.getTimeStamp().add(1000L);
+    metadata.getTimeStamp().add(2500L);
+    EvictionSummaryRenderer renderer = new EvictionSummaryRenderer(ZoneId.of("UTC"));
+    assertEquals("Cache Full : Evict Msg 'hello'. This Message Appears 2 Time(s) In Total and Was Logged 1 Time(s)"
+                 + " Before\nTimestamps at 1970-01-01 00:00:01,000, 1970-01-01 00:00:02,500",
+                 renderer.render("Cache Full", "hello", metadata, 1));
+  }
+
+  @Test
+  public void testSummaryIsTruncated() {
+    LogMetadata metadata = new LogMetadata();
+    for (long i = 0; i < 10000; i++) {
+      metadata.getTimeStamp().add(i);
+    }
+    String summary = new EvictionSummaryRenderer().render("Cache Full", "hello", metadata, 1);
+    assertTrue(summary.length() < LogCache.timeStampMessageLengthThreshold + 200);
+    assertTrue(summary.contains("..."));
+    String last = EvictionSummaryRenderer.formatTimestamp(9999L);
+    assertTrue(summary.endsWith("..." + last));
+  }
+}
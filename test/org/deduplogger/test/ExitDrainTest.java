@@ -0,0 +1,129 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.DedupPolicy;
+import org.deduplogger.logger.EvictionSummaryRenderer;
+import org.deduplogger.logger.LogCache;
+
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.Level;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExitDrainTest {
+
+  private final Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+
+  private DedupLogger newLogger(String name, int cacheSize) {
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger(name, events, false), events);
+    return new DedupLogger(recorder, cacheSize, 1, 100000L, 50);
+  }
+
+  private List<SubstituteLoggingEvent> summaries() {
+    List<SubstituteLoggingEvent> summaries = new ArrayList<>();
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().startsWith("Program Exit : Evict Msg")) {
+        summaries.add(event);
+      }
+    }
+    return summaries;
+  }
+
+  @Test
+  public void testDrainThroughInnerLogger() {
+    DedupLogger dedupLogger = newLogger("drain", 10);
+    for (int i = 0; i < 3; i++) {
+      dedupLogger.warn("disk full");
+      dedupLogger.info("connection reset");
+    }
+    dedupLogger.info("started");
+    assertEquals(2, dedupLogger.drain(5000L));
+    List<SubstituteLoggingEvent> summaries = summaries();
+    assertEquals(2, summaries.size());
+    assertTrue(summaries.get(0).getMessage().startsWith(
+        "Program Exit : Evict Msg 'disk full'. This Message Appears 3 Time(s) In Total and Was Logged 1 Time(s) "
+        + "Before\nTimestamps at "));
+    assertEquals(Level.INFO, summaries.get(0).getLevel());
+    // nothing left
+    assertEquals(0, dedupLogger.drain(5000L));
+  }
+
+  @Test
+  public void testNothingWrittenAfterDeadline() {
+    DedupLogger dedupLogger = newLogger("deadline", 10);
+    for (int i = 0; i < 3; i++) {
+      dedupLogger.warn("disk full");
+      dedupLogger.info("connection reset");
+    }
+    events.clear();
+    assertEquals(0, dedupLogger.drain(0L));
+    assertEquals(0, summaries().size());
+    assertEquals(1, events.size());
+    assertEquals("Dedup flush of deadline timed out after 0ms, 2 summaries of 6 occurrences in total were not written",
+                 events.peek().getMessage());
+  }
+
+  @Test
+  public void testCountOnlySummary() {
+    LogCache cache = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    for (int i = 0; i < 3; i++) {
+      cache.generateEvictionSummaries("disk full");
+    }
+    String summary = new EvictionSummaryRenderer().renderCount(cache.flushAllSummaries().get(0));
+    assertTrue(summary.startsWith("Program Exit : Evict Msg 'disk full'. This Message Appears 3 Time(s) In Total and "
+                                  + "Was Logged 1 Time(s) Before\nFirst Seen at "));
+    assertTrue(summary.contains(", Last Seen at "));
+  }
+
+  @Test
+  public void testParallelRenderKeepsOrder() {
+    DedupLogger dedupLogger = newLogger("parallel", 2000);
+    for (int i = 0; i < 1000; i++) {
+      dedupLogger.warn("timeout on shard " + i);
+      dedupLogger.warn("timeout on shard " + i);
+    }
+    assertEquals(1000, dedupLogger.drain(60000L));
+    List<SubstituteLoggingEvent> summaries = summaries();
+    assertEquals(1000, summaries.size());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(summaries.get(i).getMessage().startsWith("Program Exit : Evict Msg 'timeout on shard " + i + "'"));
+      assertTrue(summaries.get(i).getMessage().contains("\nTimestamps at "));
+    }
+  }
+
+  @Test
+  public void testLogAfterDrain() throws InterruptedException {
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("afterDrain", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 10, 1, 50L, 1);
+    dedupLogger.info("m");
+    dedupLogger.info("m");
+    assertEquals(1, dedupLogger.drain(1000L));
+    assertEquals(0, dedupLogger.getLogCache().getStats().getLruMemoryUsage());
+    assertEquals(0, dedupLogger.getLogCache().getStats().getPqMemoryUsage());
+    Thread.sleep(100);
+    // expires nothing the drain already flushed
+    dedupLogger.info("n");
+    dedupLogger.info("n");
+    assertEquals(1, summaries().size());
+    assertEquals(1, dedupLogger.getLogCache().getLruCache().size());
+  }
+
+  @Test
+  public void testPartitionLevel() {
+    DedupLogger dedupLogger = newLogger("partitions", 10);
+    dedupLogger.setPolicy(Level.ERROR, new DedupPolicy(10, 1, 100000L, 10));
+    dedupLogger.error("disk full");
+    dedupLogger.error("disk full");
+    assertEquals(1, dedupLogger.drain(5000L));
+    assertEquals(Level.ERROR, summaries().get(0).getLevel());
+  }
+}
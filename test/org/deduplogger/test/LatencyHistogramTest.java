@@ -0,0 +1,90 @@
+package org.deduplogger.test;
+
+import org.deduplogger.metrics.DedupLatency;
+import org.deduplogger.metrics.LatencyHistogram;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testReportCancelled() {
+    ScheduledFuture<?> report = new DedupLatency().scheduleReport(summary -> { });
+    assertEquals(DedupLatency.REPORT_INTERVAL > 0, report != null);
+    if (report != null) {
+      report.cancel(false);
+      assertTrue(report.isCancelled());
+    }
+  }
+
+  @Test
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram("empty");
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    assertEquals(0.0, histogram.getMean(), 0.0);
+  }
+
+  @Test
+  public void testPercentilesWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram("linear");
+    for (long i = 1; i <= 100000; i++) {
+      histogram.recordValue(i);
+    }
+    assertEquals(100000, histogram.getCount());
+    assertEquals(100000, histogram.getMax());
+    assertEquals(50000.5, histogram.getMean(), 0.001);
+    assertWithinPrecision(50000, histogram.getValueAtPercentile(50));
+    assertWithinPrecision(99000, histogram.getValueAtPercentile(99));
+    assertEquals(100000, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void testSmallAndLargeValues() {
+    LatencyHistogram histogram = new LatencyHistogram("range");
+    histogram.recordValue(-5);
+    histogram.recordValue(7);
+    histogram.recordValue(Long.MAX_VALUE);
+    assertEquals(0, histogram.getValueAtPercentile(30));
+    assertEquals(7, histogram.getValueAtPercentile(60));
+    assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram("concurrent");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          histogram.recordValue(1000);
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    executor.shutdown();
+    assertEquals(40000, histogram.getCount());
+    assertWithinPrecision(1000, histogram.getValueAtPercentile(50));
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32 + 1);
+  }
+}
@@ -0,0 +1,99 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.LogBatch;
+import org.deduplogger.metrics.DedupStats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.Level;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogBatchTest {
+
+  private Queue<SubstituteLoggingEvent> events;
+
+  private EventRecodingLogger recorder;
+
+  @Before
+  public void setUp() {
+    events = new LinkedBlockingQueue<>();
+    recorder = new EventRecodingLogger(new SubstituteLogger("batch", events, false), events);
+  }
+
+  @Test
+  public void testBatchAggregatesDuplicates() {
+    LogBatch batch = new LogBatch();
+    for (int i = 0; i < 5; i++) {
+      batch.add(Level.INFO, "A");
+    }
+    batch.add(Level.INFO, "B {}", 1).add(Level.INFO, "B 1").add(Level.WARN, "A");
+    assertEquals(8, batch.size());
+    assertEquals(3, batch.distinctSize());
+  }
+
+  @Test
+  public void testBatchWritesOnlyBelowThreshold() {
+    DedupLogger dedupLogger = new DedupLogger(recorder, 10, 2, 100000L, 50);
+    LogBatch batch = dedupLogger.newBatch();
+    for (int i = 0; i < 5; i++) {
+      batch.add(Level.INFO, "A");
+    }
+    batch.add(Level.ERROR, "B");
+    dedupLogger.log(batch);
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertEquals("A", logged.get(0).getMessage());
+    assertEquals("A", logged.get(1).getMessage());
+    assertEquals("B", logged.get(2).getMessage());
+    assertEquals(Level.ERROR, logged.get(2).getLevel());
+
+    DedupStats stats = dedupLogger.getLogCache().getStats();
+    assertEquals(2, stats.getMisses());
+    assertEquals(4, stats.getHits());
+    assertEquals(3, stats.getSuppressed());
+
+    // the batch counted in the cache like individual calls
+    dedupLogger.info("A");
+    assertEquals(3, events.size());
+  }
+
+  @Test
+  public void testSummariesWrittenAfterBatch() {
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    dedupLogger.logAll(Level.INFO, Arrays.asList("A", "A", "A", "B"));
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertEquals("A", logged.get(0).getMessage());
+    assertEquals("B", logged.get(1).getMessage());
+    assertTrue(logged.get(2).getMessage().startsWith("Cache Full : Evict Msg 'A'. This Message Appears 3 Time(s)"));
+  }
+
+  @Test
+  public void testBatchWithException() {
+    DedupLogger dedupLogger = new DedupLogger(recorder, 10, 1, 100000L, 50);
+    LogBatch batch = new LogBatch();
+    for (int i = 0; i < 3; i++) {
+      batch.add(Level.ERROR, "failed", new IllegalStateException("boom"));
+    }
+    assertEquals(1, batch.distinctSize());
+    dedupLogger.log(batch);
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(1, logged.size());
+    assertTrue(logged.get(0).getMessage().startsWith("failed\njava.lang.IllegalStateException: boom"));
+  }
+}
@@ -0,0 +1,179 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.EvictionSummary;
+import org.deduplogger.logger.LogCache;
+import org.deduplogger.logger.LogCacheSnapshot;
+import org.deduplogger.logger.LogMetadata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogCacheSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static LogMetadata metadata(Long... timestamps) {
+    LogMetadata metadata = new LogMetadata();
+    metadata.getTimeStamp().addAll(Arrays.asList(timestamps));
+    return metadata;
+  }
+
+  @Test
+  public void testWriteAndRestore() throws Exception {
+    Map<String, LogMetadata> entries = new LinkedHashMap<>();
+    entries.put("A", metadata(1000L, 2000L, 3000L));
+    entries.put("B", metadata(5000L));
+    for (int i = 0; i < 100; i++) {
+      entries.put("message " + i, metadata((long) i));
+    }
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    assertEquals(102, LogCacheSnapshot.write(entries, file));
+
+    LogCacheSnapshot snapshot = LogCacheSnapshot.open(file);
+    assertEquals(102, snapshot.getEntryCount());
+    assertEquals(0, snapshot.getRestoredCount());
+
+    LogMetadata restored = snapshot.restore("A", 1, Long.MAX_VALUE / 2, 0);
+    assertEquals(1, restored.getCarried());
+    assertTrue(restored.getTimeStamp().isEmpty());
+    // an entry is only restored once
+    assertNull(snapshot.restore("A", 1, Long.MAX_VALUE / 2, 0));
+    assertEquals(1, snapshot.restore("message 42", 1, Long.MAX_VALUE / 2, 0).getCarried());
+    assertNull(snapshot.restore("C", 1, Long.MAX_VALUE / 2, 0));
+    assertEquals(2, snapshot.getRestoredCount());
+  }
+
+  @Test
+  public void testRestoreCarriesUpToThreshold() throws Exception {
+    LogMetadata many = new LogMetadata();
+    for (long i = 0; i < 50; i++) {
+      many.getTimeStamp().add(i);
+    }
+    Map<String, LogMetadata> entries = new LinkedHashMap<>();
+    entries.put("A", many);
+    entries.put("B", metadata(7L, 8L));
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    LogCacheSnapshot.write(entries, file);
+
+    LogCacheSnapshot snapshot = LogCacheSnapshot.open(file);
+    assertEquals(20, snapshot.restore("A", 20, Long.MAX_VALUE / 2, 0).getCarried());
+    assertEquals(2, snapshot.restore("B", 20, Long.MAX_VALUE / 2, 0).getCarried());
+  }
+
+  @Test
+  public void testCacheSurvivesRestart() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    LogCache before = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    for (int i = 0; i < 3; i++) {
+      before.checkIfDuplicate("A");
+      before.generateEvictionSummaries("A");
+    }
+    before.checkIfDuplicate("B");
+    before.generateEvictionSummaries("B");
+    assertEquals(2, before.writeSnapshot(file));
+
+    LogCache after = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    assertTrue(after.loadSnapshot(file));
+    assertEquals(0, after.getLruCache().size());
+
+    assertTrue(after.checkIfDuplicate("A"));
+    after.generateEvictionSummaries("A");
+    assertTrue(after.checkIfDuplicate("A"));
+    after.generateEvictionSummaries("A");
+    // only the occurrences of this run are counted
+    assertEquals(2, after.getLruCache().get("A").getTimeStamp().size());
+    assertFalse(after.checkIfDuplicate("C"));
+    after.generateEvictionSummaries("C");
+    assertEquals(1, after.getSnapshot().getRestoredCount());
+
+    List<EvictionSummary> summaries = after.flushAllSummaries();
+    assertEquals(1, summaries.size());
+    assertEquals("A", summaries.get(0).getMessage());
+    assertEquals(2, summaries.get(0).getCount());
+    assertEquals(0, summaries.get(0).getThreshold());
+  }
+
+  @Test
+  public void testRestoreExpiresWithLastOccurrence() throws Exception {
+    long now = System.currentTimeMillis();
+    Map<String, LogMetadata> entries = new LinkedHashMap<>();
+    entries.put("old", metadata(now - 20000, now - 10000));
+    entries.put("recent", metadata(now - 20000, now - 1000));
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    LogCacheSnapshot.write(entries, file);
+
+    LogCacheSnapshot snapshot = LogCacheSnapshot.open(file);
+    assertNull(snapshot.restore("old", 1, 5000, now));
+    assertEquals(now + 4000, snapshot.restore("recent", 1, 5000, now).getExpiresAt());
+  }
+
+  @Test
+  public void testRestoredEntryExpires() throws Exception {
+    long now = System.currentTimeMillis();
+    Map<String, LogMetadata> entries = new LinkedHashMap<>();
+    entries.put("A", metadata(now - 4000, now - 3000));
+    entries.put("B", metadata(now - 7000, now - 6000));
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    LogCacheSnapshot.write(entries, file);
+
+    LogCache cache = new LogCache(10, 1, 5000L, 50 * 1024 * 1024);
+    assertTrue(cache.loadSnapshot(file));
+    // B was last seen longer than the window ago
+    assertFalse(cache.checkIfDuplicate("B"));
+    cache.generateEvictionSummaries("B");
+    assertTrue(cache.checkIfDuplicate("A"));
+    cache.generateEvictionSummaries("A");
+
+    // A expires at its last occurrence plus the window, not a window after it was restored
+    List<EvictionSummary> expired = cache.expireEntries(now + 2500, new ArrayList<EvictionSummary>());
+    assertEquals(1, expired.size());
+    assertEquals("A", expired.get(0).getMessage());
+    assertEquals(1, expired.get(0).getCount());
+    assertFalse(cache.checkIfDuplicate("A"));
+  }
+
+  @Test
+  public void testOldSnapshotNotKept() throws Exception {
+    Map<String, LogMetadata> entries = new LinkedHashMap<>();
+    entries.put("A", metadata(1000L, 2000L));
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    LogCacheSnapshot.write(entries, file);
+    // written a minute ago, longer than the window
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ByteBuffer createdAt = ByteBuffer.allocate(8).putLong(0, System.currentTimeMillis() - 60000);
+      channel.write(createdAt, 8);
+    }
+
+    LogCache cache = new LogCache(10, 1, 5000L, 50 * 1024 * 1024);
+    assertTrue(cache.loadSnapshot(file));
+    assertNull(cache.getSnapshot());
+    assertFalse(cache.checkIfDuplicate("A"));
+  }
+
+  @Test
+  public void testInvalidSnapshotIgnored() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("dedup.snapshot");
+    Files.write(file, "not a snapshot".getBytes("UTF-8"));
+    LogCache cache = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    assertFalse(cache.loadSnapshot(file));
+    assertNull(cache.getSnapshot());
+  }
+}
@@ -0,0 +1,78 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.MessageCanonicalizer;
+
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCanonicalizerTest {
+
+  private static void check(String expected, String msg) {
+    assertEquals(expected, MessageCanonicalizer.canonicalize(msg));
+  }
+
+  @Test
+  public void testUnchangedMessage() {
+    String msg = "Connection refused, retrying with log4j";
+    assertSame(msg, MessageCanonicalizer.canonicalize(msg));
+    check("", "");
+  }
+
+  @Test
+  public void testNumbers() {
+    check("request failed after <num>ms on host-<num>", "request failed after 1532ms on host-17");
+    check("ratio <num>, delta -<num>", "ratio 0.75, delta -3");
+    check("version <num>.<num>", "version 1.2.3");
+  }
+
+  @Test
+  public void testIds() {
+    check("request <hex> failed", "request 8f2c41d0 failed");
+    check("address <hex>", "address 0x7FFE12");
+    check("user <uuid> logged in", "user 123e4567-e89b-12d3-a456-426614174000 logged in");
+    // words made of hex letters only are kept
+    check("deadbeef facade", "deadbeef facade");
+  }
+
+  @Test
+  public void testIpAndTimestamps() {
+    check("connect to <ip>:<num> failed", "connect to 10.0.12.255:8080 failed");
+    check("expired at <ts>", "expired at 2024-01-02T03:04:05.123Z");
+    check("expired at <ts>", "expired at 2024-01-02 03:04:05,123");
+    check("expired at <ts>", "expired at 2024-01-02T03:04:05+02:00");
+    check("on <ts> at <ts>", "on 2024-01-02 at 03:04:05");
+  }
+
+  @Test
+  public void testDedupOnCanonicalForm() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("canon", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    dedupLogger.setCanonicalize(true);
+    dedupLogger.info("request {} failed after {}ms", "8f2c41d0", 1532);
+    dedupLogger.info("request {} failed after {}ms", "77ab03e9", 98);
+    dedupLogger.info("request {} failed after {}ms", "0c1d2e3f", 7);
+    dedupLogger.info("done");
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertEquals("request 8f2c41d0 failed after 1532ms", logged.get(0).getMessage());
+    assertEquals("done", logged.get(1).getMessage());
+    String summary = logged.get(2).getMessage();
+    assertTrue(summary.startsWith("Cache Full : Evict Msg 'request <hex> failed after <num>ms'. This Message Appears 3"));
+    assertTrue(summary.endsWith("\nOriginal Messages 'request 8f2c41d0 failed after 1532ms', "
+                                + "'request 77ab03e9 failed after 98ms', 'request 0c1d2e3f failed after 7ms'"));
+  }
+}
@@ -0,0 +1,76 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.NearDuplicateIndex;
+
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NearDuplicateIndexTest {
+
+  private static final String SELECT_BY_CUSTOMER = "Query failed on orders-db: SELECT id, total FROM orders WHERE "
+                                                   + "customer_id = ? AND status = 'OPEN' : lock wait timeout exceeded";
+
+  private static final String SELECT_BY_REGION = "Query failed on orders-db: SELECT id, total FROM orders WHERE "
+                                                 + "region = ? AND status = 'OPEN' : lock wait timeout exceeded";
+
+  private static final String UPDATE = "Query failed on orders-db: UPDATE orders SET status = 'CLOSED' WHERE id = ? : "
+                                       + "lock wait timeout exceeded";
+
+  private static final String OTHER = "Connection to broker lost, reconnecting in 5 seconds";
+
+  @Test
+  public void testSimHash() {
+    assertEquals(NearDuplicateIndex.simHash(SELECT_BY_CUSTOMER), NearDuplicateIndex.simHash(SELECT_BY_CUSTOMER));
+    long near = NearDuplicateIndex.simHash(SELECT_BY_CUSTOMER) ^ NearDuplicateIndex.simHash(SELECT_BY_REGION);
+    long far = NearDuplicateIndex.simHash(SELECT_BY_CUSTOMER) ^ NearDuplicateIndex.simHash(OTHER);
+    assertTrue(Long.bitCount(near) <= 12);
+    assertTrue(Long.bitCount(far) > 20);
+  }
+
+  @Test
+  public void testResolve() {
+    NearDuplicateIndex index = new NearDuplicateIndex(12, NearDuplicateIndex.DEFAULT_BANDS);
+    assertEquals(SELECT_BY_CUSTOMER, index.resolve(SELECT_BY_CUSTOMER));
+    assertEquals(SELECT_BY_CUSTOMER, index.resolve(SELECT_BY_REGION));
+    assertEquals(SELECT_BY_CUSTOMER, index.resolve(UPDATE));
+    assertEquals(OTHER, index.resolve(OTHER));
+    assertEquals(2, index.size());
+
+    index.remove(SELECT_BY_CUSTOMER);
+    assertNull(index.findNear(NearDuplicateIndex.simHash(SELECT_BY_REGION)));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void testDedupNearDuplicates() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("near", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    dedupLogger.setNearDuplicateDistance(12);
+    dedupLogger.warn(SELECT_BY_CUSTOMER);
+    dedupLogger.warn(SELECT_BY_REGION);
+    dedupLogger.warn(OTHER);
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertEquals(SELECT_BY_CUSTOMER, logged.get(0).getMessage());
+    assertEquals(OTHER, logged.get(1).getMessage());
+    String summary = logged.get(2).getMessage();
+    assertTrue(summary.startsWith("Cache Full : Evict Msg '" + SELECT_BY_CUSTOMER + "'. This Message Appears 2"));
+    assertTrue(summary.endsWith("'" + SELECT_BY_REGION + "'"));
+    // the evicted key left the index with the cache
+    assertEquals(1, dedupLogger.getLogCache().getNearDuplicates().size());
+  }
+}
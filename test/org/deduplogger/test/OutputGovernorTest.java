@@ -0,0 +1,191 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.OutputGovernor;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.Level;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutputGovernorTest {
+
+  @After
+  public void uninstall() {
+    OutputGovernor.install(null);
+  }
+
+  @Test
+  public void testShedByLevel() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("governed", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 1, 100000L, 50);
+    // ceilings of 4 lines for DEBUG, 6 for INFO and 10 for ERROR
+    OutputGovernor governor = new OutputGovernor(10, 0, 0.2, 0L);
+    OutputGovernor.install(governor);
+
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.debug("debug " + i);
+    }
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.info(i < 5 ? "cache miss" + i : "slow request");
+    }
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.error("error " + i);
+    }
+
+    Map<Level, Integer> written = new EnumMap<>(Level.class);
+    String report = null;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().startsWith("Output budget exceeded")) {
+        report = event.getMessage();
+      } else {
+        written.merge(event.getLevel(), 1, Integer::sum);
+      }
+    }
+    // EventRecodingLogger of slf4j 1.7.25 records debug calls as TRACE events
+    assertEquals(4, (int) written.get(Level.TRACE));
+    assertEquals(2, (int) written.get(Level.INFO));
+    assertEquals(4, (int) written.get(Level.ERROR));
+    // the duplicates of "slow request" are not written anyway, they are not shed
+    assertEquals(6 + 4 + 6, governor.getShed());
+    assertTrue(report, report.startsWith("Output budget exceeded, shed "));
+  }
+
+  @Test
+  public void testCollapsedInfo() throws InterruptedException {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("collapsed", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 5, 100000L, 50);
+    // INFO gets no budget at all
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 200L));
+
+    for (int i = 0; i < 4; i++) {
+      dedupLogger.info("queue full");
+    }
+    Thread.sleep(250);
+    dedupLogger.error("trigger the report");
+
+    String report = null;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().startsWith("Output budget exceeded")) {
+        report = event.getMessage();
+      }
+    }
+    assertEquals("Output budget exceeded, shed 4 lines (TRACE=0, DEBUG=0, INFO=4, WARN=0, ERROR=0)\n"
+                 + "INFO 'queue full' x 4", report);
+  }
+
+  @Test
+  public void testBoundedReport() throws InterruptedException {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("bounded", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1000, 1, 100000L, 50);
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 200L));
+
+    StringBuilder payload = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      payload.append("0123456789");
+    }
+    for (int i = 0; i < OutputGovernor.MAX_COLLAPSED; i++) {
+      dedupLogger.info(i + " " + payload);
+    }
+    Thread.sleep(250);
+    dedupLogger.error("trigger the report");
+
+    String report = null;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().startsWith("Output budget exceeded")) {
+        report = event.getMessage();
+      }
+    }
+    assertTrue(report.length() <= OutputGovernor.MAX_REPORT_LENGTH + 64);
+    assertTrue(report, report.endsWith(" more INFO messages"));
+    for (String line : report.split("\n")) {
+      assertTrue(line.length() <= OutputGovernor.MAX_COLLAPSED_LENGTH + 32);
+    }
+  }
+
+  @Test
+  public void testSummariesCountedApart() throws InterruptedException {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("summaries", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 200L));
+
+    dedupLogger.info("queue full");
+    dedupLogger.info("queue full");
+    // evicts "queue full", its summary is shed too
+    dedupLogger.info("queue empty");
+    Thread.sleep(250);
+    dedupLogger.error("trigger the report");
+
+    String report = null;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().startsWith("Output budget exceeded")) {
+        report = event.getMessage();
+      }
+    }
+    assertTrue(report, report.startsWith("Output budget exceeded, shed 3 lines (TRACE=0, DEBUG=0, INFO=3, WARN=0, "
+                                         + "ERROR=0), 1 of them eviction summaries\n"));
+    assertEquals(3, report.split("\n").length);
+  }
+
+  @Test
+  public void testReportWrittenWhenIdle() throws InterruptedException {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("idle", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 5, 100000L, 50);
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 200L));
+
+    dedupLogger.info("queue full");
+    dedupLogger.info("queue full");
+    // nothing is logged anymore, the report is written anyway
+    Thread.sleep(600);
+    assertEquals(1, events.size());
+    assertEquals("Output budget exceeded, shed 2 lines (TRACE=0, DEBUG=0, INFO=2, WARN=0, ERROR=0)\n"
+                 + "INFO 'queue full' x 2", events.peek().getMessage());
+    dedupLogger.drain(1000L);
+  }
+
+  @Test
+  public void testReportFlushedOnDrain() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("drained", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 5, 100000L, 50);
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 100000L));
+
+    dedupLogger.info("queue full");
+    assertEquals(0, events.size());
+    assertEquals(0, dedupLogger.drain(1000L));
+    assertEquals(1, events.size());
+    assertEquals(Level.WARN, events.peek().getLevel());
+    assertTrue(events.peek().getMessage().startsWith("Output budget exceeded, shed 1 lines"));
+  }
+
+  @Test
+  public void testShedStackTraceNotRendered() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("rendered", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 1, 100000L, 50);
+    OutputGovernor.install(new OutputGovernor(1, 0, 0, 100000L));
+
+    dedupLogger.info("request failed", new IllegalStateException("timeout"));
+    assertEquals(0, events.size());
+    assertEquals(0, dedupLogger.getStackTraceCache().getMisses());
+
+    dedupLogger.error("request failed", new IllegalStateException("timeout"));
+    assertEquals(1, events.size());
+    assertEquals(1, dedupLogger.getStackTraceCache().getMisses());
+  }
+}
@@ -0,0 +1,96 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.DedupPolicy;
+import org.deduplogger.logger.EvictionSummary;
+import org.deduplogger.logger.LogCache;
+
+import org.junit.Test;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityEvictionTest {
+
+  private static final int ERROR = 4;
+
+  private static final int DEBUG = 1;
+
+  private static void flood(LogCache cache, int messages) {
+    for (int i = 0; i < messages; i++) {
+      cache.generateEvictionSummaries("cache miss for key " + i, DEBUG);
+    }
+  }
+
+  @Test
+  public void testCacheFull() {
+    LogCache cache = new LogCache(3, 1, 100000000L, 50 * 1024 * 1024);
+    cache.setEvictionSamples(5);
+    for (int i = 0; i < 10; i++) {
+      cache.generateEvictionSummaries("disk full", ERROR);
+    }
+    flood(cache, 20);
+    assertTrue(cache.getLruCache().containsKey("disk full"));
+    assertEquals(3, cache.getLruCache().size());
+  }
+
+  @Test
+  public void testCacheFullWithoutPriority() {
+    LogCache cache = new LogCache(3, 1, 100000000L, 50 * 1024 * 1024);
+    for (int i = 0; i < 10; i++) {
+      cache.generateEvictionSummaries("disk full", ERROR);
+    }
+    flood(cache, 20);
+    assertFalse(cache.getLruCache().containsKey("disk full"));
+  }
+
+  @Test
+  public void testPolicyCache() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("priority", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 100, 1, 100000L, 50);
+    dedupLogger.setPriorityEviction(5);
+    dedupLogger.setPolicy(MarkerFactory.getMarker("DB"), new DedupPolicy(3, 1, 100000L, 10));
+    Marker db = MarkerFactory.getMarker("DB");
+    for (int i = 0; i < 10; i++) {
+      dedupLogger.error(db, "disk full");
+    }
+    for (int i = 0; i < 20; i++) {
+      dedupLogger.debug(db, "cache miss for key " + i);
+    }
+    dedupLogger.error(db, "disk full");
+    int written = 0;
+    for (SubstituteLoggingEvent event : events) {
+      if (event.getMessage().equals("disk full")) {
+        written++;
+      }
+    }
+    // still cached, never written again
+    assertEquals(1, written);
+  }
+
+  @Test
+  public void testMemoryPressure() {
+    LogCache cache = new LogCache(1000, 1, 100000000L, 8 * 1024);
+    cache.setEvictionSamples(5);
+    List<EvictionSummary> summaries = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      summaries.addAll(cache.generateEvictionSummaries("disk full", ERROR));
+    }
+    flood(cache, 200);
+    assertTrue(cache.getLruCache().containsKey("disk full"));
+    assertTrue(cache.getStats().getMemoryEvictions() > 0);
+    assertTrue(summaries.isEmpty());
+  }
+}
@@ -0,0 +1,85 @@
+package org.deduplogger.test;
+
+import org.apache.logging.log4j.core.Filter;
+import org.deduplogger.filter.DedupFilter;
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.policy.SlidingWindowPolicy;
+import org.deduplogger.policy.TokenBucketPolicy;
+
+import org.junit.Test;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitPolicyTest {
+
+  @Test
+  public void testTokenBucket() throws InterruptedException {
+    TokenBucketPolicy policy = new TokenBucketPolicy(10, 2);
+    assertEquals(2, policy.admit("msg", 5, 1));
+    assertEquals(0, policy.admit("msg", 1, 1));
+    // other messages have their own bucket
+    assertEquals(1, policy.admit("other", 1, 1));
+
+    Thread.sleep(250);
+    assertEquals(2, policy.admit("msg", 5, 1));
+  }
+
+  @Test
+  public void testSlidingWindow() throws InterruptedException {
+    SlidingWindowPolicy policy = new SlidingWindowPolicy(3, 200L, 4, SlidingWindowPolicy.DEFAULT_MAX_KEYS);
+    assertEquals(3, policy.admit("msg", 5, 1));
+    assertEquals(0, policy.admit("msg", 1, 1));
+
+    Thread.sleep(300);
+    assertEquals(3, policy.admit("msg", 5, 1));
+  }
+
+  @Test
+  public void testMaxKeys() {
+    TokenBucketPolicy policy = new TokenBucketPolicy(1, 1, 8);
+    for (int i = 0; i < 100; i++) {
+      policy.admit("msg " + i, 1, 1);
+    }
+    assertTrue(policy.size() <= 8);
+  }
+
+  @Test
+  public void testFilterPolicy() {
+    DedupFilter filter = DedupFilter.createFilter("policyTest", 10, 1, null, null, "tokenBucket", 1.0, 2, null);
+    assertEquals(Filter.Result.ACCEPT, filter.filter(null, null, null, "msg", (Object[]) null));
+    assertEquals(Filter.Result.ACCEPT, filter.filter(null, null, null, "msg", (Object[]) null));
+    assertEquals(Filter.Result.DENY, filter.filter(null, null, null, "msg", (Object[]) null));
+    assertEquals(1, filter.getStats().getSuppressed());
+    assertEquals(2, filter.getStats().getMisses());
+    assertEquals(1, filter.getStats().getHits());
+  }
+
+  @Test
+  public void testSummaryReportsWrittenCount() {
+    Queue<SubstituteLoggingEvent> events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("policy", events, false), events);
+    DedupLogger dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+    dedupLogger.getLogCache().setBackend(new TokenBucketPolicy(1, 2));
+    for (int i = 0; i < 5; i++) {
+      dedupLogger.warn("disk full");
+    }
+    dedupLogger.warn("other");
+
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(4, logged.size());
+    assertEquals("disk full", logged.get(0).getMessage());
+    assertEquals("disk full", logged.get(1).getMessage());
+    assertEquals("other", logged.get(2).getMessage());
+    assertTrue(logged.get(3).getMessage().startsWith("Cache Full : Evict Msg 'disk full'. This Message Appears 5 "
+                                                     + "Time(s) In Total and Was Logged 2 Time(s) Before"));
+  }
+}
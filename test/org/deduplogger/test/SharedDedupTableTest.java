@@ -0,0 +1,115 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.LogCache;
+import org.deduplogger.logger.SharedDedupTable;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedDedupTableTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path file;
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(SharedDedupTable.isSupported());
+    file = folder.getRoot().toPath().resolve("dedup.table");
+  }
+
+  @Test
+  public void testSharedBetweenMappings() throws Exception {
+    // two mappings of the same file, as two JVMs of the host would have
+    SharedDedupTable first = SharedDedupTable.open(file, 1024, 60000L);
+    SharedDedupTable second = SharedDedupTable.open(file, 16, 1000L);
+    assertEquals(1024, second.getCapacity());
+    assertEquals(60000L, second.getWindowMillis());
+
+    assertEquals(1, first.admit("disk full", 1, 2));
+    assertEquals(1, second.admit("disk full", 1, 2));
+    assertEquals(0, first.admit("disk full", 1, 2));
+    assertEquals(3, second.getCount("disk full"));
+
+    assertEquals(2, second.admit("dns failure", 5, 2));
+    assertEquals(5, first.getCount("dns failure"));
+    assertEquals(0, first.getCount("unknown"));
+  }
+
+  @Test
+  public void testConcurrentAdmit() throws Exception {
+    SharedDedupTable first = SharedDedupTable.open(file, 1024, 60000L);
+    SharedDedupTable second = SharedDedupTable.open(file, 1024, 60000L);
+    AtomicInteger written = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      SharedDedupTable table = t % 2 == 0 ? first : second;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          written.addAndGet(table.admit("message " + (i % 10), 1, 3));
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(30, written.get());
+    assertEquals(800, first.getCount("message 0"));
+  }
+
+  @Test
+  public void testReclaimKeepsSingleSlot() throws Exception {
+    // 4 slots, the hashes below all start probing at the first one
+    SharedDedupTable table = SharedDedupTable.allocate(4, 300L);
+    awaitNextWindow(table);
+    for (long hash = 4; hash <= 16; hash += 4) {
+      assertEquals(1, table.admit(hash, 1, 1));
+    }
+    awaitNextWindow(table);
+    for (long hash = 8; hash <= 16; hash += 4) {
+      table.admit(hash, 1, 1);
+    }
+    awaitNextWindow(table);
+    // the first slot is stale, the message in the last slot must not claim it as a second slot
+    table.admit(16L, 1, 1);
+    assertEquals(1, table.admit(20L, 1, 1));
+    assertEquals(0, table.admit(20L, 1, 1));
+    assertEquals(0, table.getTableFull());
+  }
+
+  private static void awaitNextWindow(SharedDedupTable table) throws InterruptedException {
+    long window = table.getWindowMillis();
+    Thread.sleep(window - System.currentTimeMillis() % window + 20);
+  }
+
+  @Test
+  public void testLogCacheBackend() throws Exception {
+    LogCache sidecar = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    LogCache service = new LogCache(10, 1, 100000L, 50 * 1024 * 1024);
+    sidecar.setBackend(SharedDedupTable.open(file, 1024, 60000L));
+    service.setBackend(SharedDedupTable.open(file, 1024, 60000L));
+
+    assertFalse(sidecar.checkIfDuplicate("disk full"));
+    sidecar.generateEvictionSummaries("disk full");
+    assertTrue(service.checkIfDuplicate("disk full"));
+    service.generateEvictionSummaries("disk full");
+    // the local cache still records the occurrence for the summaries
+    assertEquals(1, service.getLruCache().get("disk full").getTimeStamp().size());
+    assertEquals(1, service.getStats().getSuppressed());
+  }
+}
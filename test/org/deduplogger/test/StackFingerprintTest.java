@@ -0,0 +1,60 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.StackFingerprint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StackFingerprintTest {
+
+  private static Exception failHere(String message) {
+    return new IllegalStateException(message);
+  }
+
+  private static Exception failThere(String message) {
+    return new IllegalStateException(message);
+  }
+
+  @Test
+  public void testSameStackDifferentMessage() {
+    Exception[] exceptions = new Exception[2];
+    for (int i = 0; i < 2; i++) {
+      exceptions[i] = failHere("id " + i);
+    }
+    assertEquals(StackFingerprint.fingerprint(exceptions[0]), StackFingerprint.fingerprint(exceptions[1]));
+    assertEquals(StackFingerprint.key("msg", exceptions[0]), StackFingerprint.key("msg", exceptions[1]));
+  }
+
+  @Test
+  public void testDifferentStackOrCause() {
+    Exception here = failHere("x");
+    Exception there = failThere("x");
+    assertNotEquals(StackFingerprint.fingerprint(here), StackFingerprint.fingerprint(there));
+
+    Exception wrapped = new RuntimeException("wrapper", here);
+    Exception wrappedOther = new RuntimeException("wrapper", there);
+    wrappedOther.setStackTrace(wrapped.getStackTrace());
+    assertNotEquals(StackFingerprint.fingerprint(wrapped), StackFingerprint.fingerprint(wrappedOther));
+  }
+
+  @Test
+  public void testCyclicCauseChain() {
+    Exception first = new Exception("first");
+    Exception second = new Exception("second", first);
+    first.initCause(second);
+    StackFingerprint.fingerprint(first);
+  }
+
+  @Test
+  public void testKeyAndRender() {
+    Exception e = failHere("boom");
+    String key = StackFingerprint.key("it failed", e);
+    assertTrue(key.startsWith("it failed\njava.lang.IllegalStateException #"));
+    String rendered = StackFingerprint.render("it failed", e);
+    assertTrue(rendered.startsWith("it failed\njava.lang.IllegalStateException: boom"));
+    assertTrue(rendered.contains("failHere"));
+  }
+}
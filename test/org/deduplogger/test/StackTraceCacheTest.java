@@ -0,0 +1,83 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.StackFingerprint;
+import org.deduplogger.logger.StackTraceCache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StackTraceCacheTest {
+
+  private static Exception fail(String message, Throwable cause) {
+    return new IllegalStateException(message, cause);
+  }
+
+  @Test
+  public void testCachedRenderingIsIdentical() {
+    StackTraceCache cache = new StackTraceCache();
+    for (int i = 0; i < 3; i++) {
+      Exception e = fail("request " + i, new RuntimeException("root"));
+      assertEquals(StackFingerprint.render("msg", e), cache.render("msg", e, StackFingerprint.fingerprint(e)));
+    }
+    assertEquals(1, cache.getMisses());
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testCauseMessageIsPartOfTheKey() {
+    StackTraceCache cache = new StackTraceCache();
+    for (int i = 0; i < 2; i++) {
+      Exception e = fail("request", new RuntimeException("root " + i));
+      assertEquals(StackFingerprint.render("msg", e), cache.render("msg", e, StackFingerprint.fingerprint(e)));
+    }
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testSuppressedArePartOfTheKey() {
+    StackTraceCache cache = new StackTraceCache();
+    for (int i = 0; i < 3; i++) {
+      Exception e = fail("request", null);
+      if (i > 0) {
+        e.addSuppressed(new RuntimeException("close failed " + i));
+      }
+      assertEquals(StackFingerprint.render("msg", e), cache.render("msg", e, StackFingerprint.fingerprint(e)));
+    }
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testAbbreviatedForm() {
+    StackTraceCache cache = new StackTraceCache(10, 1024 * 1024, true);
+    Exception[] exceptions = new Exception[2];
+    for (int i = 0; i < 2; i++) {
+      exceptions[i] = fail("request " + i, null);
+    }
+    String first = cache.render("msg", exceptions[0], StackFingerprint.fingerprint(exceptions[0]));
+    String second = cache.render("msg", exceptions[1], StackFingerprint.fingerprint(exceptions[1]));
+    assertTrue(first.startsWith("msg\n[trace id "));
+    String traceId = first.substring("msg\n[trace id ".length(), first.indexOf(']'));
+    assertEquals("msg\njava.lang.IllegalStateException: request 1 (stack trace seen before, see trace id "
+                 + traceId + ")", second);
+  }
+
+  @Test
+  public void testSizeBasedEviction() {
+    StackTraceCache cache = new StackTraceCache(2, 1024 * 1024, false);
+    Exception a = fail("a", null);
+    Exception b = new RuntimeException("b");
+    Exception c = new IllegalArgumentException("c", a);
+    cache.render("a", a, StackFingerprint.fingerprint(a));
+    cache.render("b", b, StackFingerprint.fingerprint(b));
+    cache.render("c", c, StackFingerprint.fingerprint(c));
+    assertEquals(2, cache.size());
+
+    StackTraceCache tiny = new StackTraceCache(10, 10, false);
+    tiny.render("a", a, StackFingerprint.fingerprint(a));
+    assertEquals(0, tiny.size());
+    assertEquals(0, tiny.getChars());
+  }
+}
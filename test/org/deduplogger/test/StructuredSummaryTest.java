@@ -0,0 +1,133 @@
+package org.deduplogger.test;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.deduplogger.logger.DedupLogger;
+import org.deduplogger.logger.EvictionSummary;
+import org.deduplogger.logger.EvictionSummaryRenderer;
+import org.deduplogger.logger.LogMetadata;
+import org.deduplogger.logger.OutputGovernor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.EventRecodingLogger;
+import org.slf4j.event.SubstituteLoggingEvent;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructuredSummaryTest {
+
+  private static class ListAppender extends AbstractAppender {
+
+    private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+    ListAppender(String name) {
+      super(name, null, null);
+    }
+
+    @Override
+    public void append(LogEvent event) {
+      events.add(event.toImmutable());
+    }
+  }
+
+  private Queue<SubstituteLoggingEvent> events;
+
+  private DedupLogger dedupLogger;
+
+  @Before
+  public void setUp() {
+    events = new LinkedBlockingQueue<>();
+    EventRecodingLogger recorder = new EventRecodingLogger(new SubstituteLogger("recorder", events, false), events);
+    dedupLogger = new DedupLogger(recorder, 1, 1, 100000L, 50);
+  }
+
+  @Test
+  public void testSampledTimestamps() {
+    LogMetadata metadata = new LogMetadata();
+    for (long i = 0; i < 100; i++) {
+      metadata.getTimeStamp().add(i);
+    }
+    EvictionSummary summary = new EvictionSummary("Cache Full", "msg", metadata, 1);
+    assertEquals(100, summary.getCount());
+    assertEquals(0, summary.getFirstSeen());
+    assertEquals(99, summary.getLastSeen());
+    assertArrayEquals(new long[]{0, 11, 22, 33, 44, 55, 66, 77, 88, 99}, summary.getSampledTimestamps());
+  }
+
+  @Test
+  public void testKeyValueRendering() {
+    LogMetadata metadata = new LogMetadata();
+    metadata.getTimeStamp().add(1000L);
+    metadata.getTimeStamp().add(2000L);
+    EvictionSummary summary = new EvictionSummary("Time Expiration", "say \"hi\"\nnow", metadata, 1);
+    assertEquals("Dedup summary reason=\"Time Expiration\" count=2 threshold=1 firstSeen=\"1970-01-01 00:00:01,000\""
+                 + " lastSeen=\"1970-01-01 00:00:02,000\" samples=[1000,2000] msg=\"say \\\"hi\\\"\\nnow\"",
+                 new EvictionSummaryRenderer(ZoneId.of("UTC")).renderKeyValues(summary));
+  }
+
+  @Test
+  public void testTextSummaryByDefault() {
+    dedupLogger.info("A");
+    dedupLogger.info("A");
+    dedupLogger.info("B");
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertTrue(logged.get(2).getMessage().startsWith("Cache Full : Evict Msg 'A'"));
+    assertEquals(null, logged.get(2).getMarker());
+  }
+
+  @Test
+  public void testStructuredSummaryWithMarker() {
+    dedupLogger.setSummaryFormat(DedupLogger.SummaryFormat.STRUCTURED);
+    dedupLogger.info("A");
+    dedupLogger.info("A");
+    dedupLogger.info("B");
+    List<SubstituteLoggingEvent> logged = new ArrayList<>(events);
+    assertEquals(3, logged.size());
+    assertEquals(DedupLogger.SUMMARY_MARKER, logged.get(2).getMarker());
+    assertTrue(logged.get(2).getMessage().startsWith("Dedup summary reason=\"Cache Full\" count=2 threshold=1"));
+    assertTrue(logged.get(2).getMessage().endsWith(" msg=\"A\""));
+  }
+
+  @Test
+  public void testLog4j2SummaryGoverned() {
+    ListAppender appender = new ListAppender("structuredGoverned");
+    appender.start();
+    LoggerContext context = (LoggerContext) LogManager.getContext(false);
+    LoggerConfig root = context.getConfiguration().getRootLogger();
+    root.addAppender(appender, null, null);
+    context.updateLoggers();
+    // WARN gets a single line per second
+    OutputGovernor governor = new OutputGovernor(1, 0, 0, 100000L);
+    OutputGovernor.install(governor);
+    try {
+      DedupLogger log4j2Logger = new DedupLogger(LoggerFactory.getLogger("structuredGoverned"), 1, 1, 100000L, 50);
+      log4j2Logger.setSummaryFormat(DedupLogger.SummaryFormat.STRUCTURED);
+      log4j2Logger.warn("A");
+      log4j2Logger.warn("A");
+      // shed, and so is the summary of A it evicts
+      log4j2Logger.warn("B");
+      assertEquals(1, appender.events.size());
+      assertEquals(2, governor.getShed());
+    } finally {
+      OutputGovernor.install(null);
+      root.removeAppender(appender.getName());
+      context.updateLoggers();
+    }
+  }
+}
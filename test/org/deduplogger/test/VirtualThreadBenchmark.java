@@ -0,0 +1,62 @@
+package org.deduplogger.test;
+
+import org.deduplogger.logger.DedupLogger;
+
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hammer a DedupLogger from thousands of threads. On Java 21+ the threads are virtual threads; run with
+ * -Djdk.tracePinnedThreads=short to check that no carrier thread gets pinned inside the logger.
+ *
+ * Usage: VirtualThreadBenchmark [threads] [messagesPerThread]
+ */
+public class VirtualThreadBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    DedupLogger logger = new DedupLogger(NOPLogger.NOP_LOGGER, 500, 1, 10000L, 50);
+
+    ExecutorService executor = newExecutor();
+    long start = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < messages; i++) {
+          logger.info("worker {} message {}", id % 100, i % 50);
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    long elapsed = System.nanoTime() - start;
+    executor.shutdown();
+
+    long total = (long) threads * messages;
+    System.out.printf("%d threads x %d messages in %d ms, %.0f msg/s, %.0f ns/msg%n", threads, messages,
+                      elapsed / 1000000, total * 1e9 / elapsed, (double) elapsed / total);
+  }
+
+  /*
+   * Virtual threads when available (Java 21+), looked up reflectively so this compiles on Java 8
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      ExecutorService executor =
+          (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      System.out.println("Using virtual threads");
+      return executor;
+    } catch (ReflectiveOperationException e) {
+      System.out.println("Virtual threads not available, using a pool of platform threads");
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+    }
+  }
+}